@@ -0,0 +1,45 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the per-request authentication helpers in {@link ProxyVerticle}
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AuthBenchmark {
+
+    private final JsonObject adminInfo = new JsonObject()
+                                                .put("data", new JsonObject()
+                                                                    .put("userId", "admin")
+                                                                    .put("roles", new JsonArray().add("nx-deployment").add("nx-admin")));
+
+    private final String bearerHeader = "Bearer 0b8c6f0e-9d1f-4a83-9b4e-4f8a1c6b2d7e";
+
+    private final String basicHeader = "Basic YWRtaW46YWRtaW4xMjM=";
+
+    @Benchmark
+    public boolean processAuth() {
+        return ProxyVerticle.processAuth(adminInfo).isAdmin();
+    }
+
+    @Benchmark
+    public String parseBearerHeader() {
+        return ProxyVerticle.bearerToken(bearerHeader);
+    }
+
+    @Benchmark
+    public String parseBasicHeader() {
+        return ProxyVerticle.bearerToken(basicHeader);
+    }
+}
@@ -0,0 +1,103 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import com.zanclus.vertx.nexus.proxy.config.Config;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Verticle;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Helpers shared by the benchmarks: default configuration, synchronous deployment and an in-process stand-in for
+ * the Nexus server. Nothing here needs network access beyond the loopback interface.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * @return The application's default configuration, as produced by {@link Config#fillDefaults()}
+     */
+    public static JsonObject defaultConfig() {
+        Config cfg = new Config();
+        cfg.fillDefaults();
+        return new JsonObject((Map<String, Object>)cfg.getParams());
+    }
+
+    /**
+     * @return A TCP port on the loopback interface which is currently free
+     * @throws IOException If no port could be allocated
+     */
+    public static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Deploy a verticle and wait for the deployment to complete
+     * @param vertx The {@link Vertx} instance
+     * @param verticle The verticle instance, or null to deploy {@code className}
+     * @param className The verticle class name, used when {@code verticle} is null
+     * @param opts The deployment options
+     * @throws Exception If the deployment failed
+     */
+    public static void deploy(Vertx vertx, Verticle verticle, String className, DeploymentOptions opts) throws Exception {
+        BenchmarkSupport.<String>await(handler -> {
+            if (verticle!=null) {
+                vertx.deployVerticle(verticle, opts, handler);
+            } else {
+                vertx.deployVerticle(className, opts, handler);
+            }
+        });
+    }
+
+    /**
+     * Start an asynchronous operation and wait for its result
+     * @param <T> The result type
+     * @param operation Starts the operation, passing its completion handler
+     * @return The result of the operation
+     * @throws Exception If the operation failed or did not complete within 30 seconds
+     */
+    public static <T> T await(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        operation.accept(res -> {
+            if (res.succeeded()) {
+                future.complete(res.result());
+            } else {
+                future.completeExceptionally(res.cause());
+            }
+        });
+        return future.get(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Start a stand-in for the Nexus server which answers every request with a fixed body
+     * @param vertx The {@link Vertx} instance
+     * @param port The port to listen on
+     * @param bodySize The size of the response body in bytes
+     * @return The started {@link HttpServer}
+     * @throws Exception If the server could not be started
+     */
+    public static HttpServer startStubNexus(Vertx vertx, int port, int bodySize) throws Exception {
+        final Buffer body = Buffer.buffer(new byte[bodySize]);
+        return BenchmarkSupport.<HttpServer>await(handler ->
+            vertx.createHttpServer()
+                .requestHandler(req -> req.response()
+                                            .putHeader("Content-Type", "application/java-archive")
+                                            .putHeader("Content-Length", Integer.toString(bodySize))
+                                            .end(body))
+                .listen(port, "127.0.0.1", handler));
+    }
+}
@@ -0,0 +1,23 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. Accepts the usual JMH command-line options and always enables the GC profiler,
+ * so every result reports the allocation rate alongside the throughput.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class ProxyBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        Options opts = new OptionsBuilder()
+                                .parent(new CommandLineOptions(args))
+                                .addProfiler(GCProfiler.class)
+                                .build();
+        new Runner(opts).run();
+    }
+}
@@ -0,0 +1,112 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.json.JsonObject;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures a complete proxied GET: client to {@link ProxyVerticle}, through {@code proxyNexus} and
+ * {@code sendProxyRequest} to an in-process stub Nexus server, and back.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProxyRequestBenchmark {
+
+    @Param({"anonymous", "bearer"})
+    private String auth;
+
+    @Param({"4096", "1048576"})
+    private int bodySize;
+
+    private Vertx vertx;
+    private HttpClient client;
+    private Path logFile;
+    private int proxyPort;
+    private String authorization;
+
+    @Setup
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        int nexusPort = BenchmarkSupport.freePort();
+        proxyPort = BenchmarkSupport.freePort();
+        BenchmarkSupport.startStubNexus(vertx, nexusPort, bodySize);
+
+        logFile = Files.createTempFile("nexus-tokens", ".log");
+        Files.delete(logFile);
+        JsonObject cfg = BenchmarkSupport.defaultConfig()
+                                .put("targetHost", "127.0.0.1")
+                                .put("targetPort", nexusPort)
+                                .put("proxyHost", "127.0.0.1")
+                                .put("proxyPort", proxyPort)
+                                .put("tokenLogPath", logFile.toString())
+                                .put("coalesceEnabled", Boolean.FALSE);
+        BenchmarkSupport.deploy(vertx, new LogStoreVerticle(), null, new DeploymentOptions().setConfig(cfg));
+        BenchmarkSupport.deploy(vertx, null, ProxyVerticle.class.getName(), new DeploymentOptions().setConfig(cfg));
+
+        if ("bearer".equals(auth)) {
+            JsonObject created = BenchmarkSupport.<Message<JsonObject>>await(handler ->
+                    vertx.eventBus().send("proxy.create.token", "benchmark", handler)).body();
+            authorization = "Bearer "+created.getString("token");
+        }
+        client = vertx.createHttpClient(new HttpClientOptions().setKeepAlive(true).setMaxPoolSize(1));
+
+        // The HTTP server binds asynchronously after deployment, wait until it answers
+        long deadline = System.currentTimeMillis()+10000;
+        while (true) {
+            try {
+                get();
+                break;
+            } catch (Exception e) {
+                if (System.currentTimeMillis()>deadline) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchmarkSupport.<Void>await(vertx::close);
+        Files.deleteIfExists(logFile);
+    }
+
+    @Benchmark
+    public int get() throws Exception {
+        Buffer body = BenchmarkSupport.<Buffer>await(handler -> {
+            HttpClientRequest req = client.get(proxyPort, "127.0.0.1", "/nexus/content/repositories/releases/com/example/lib/1.0/lib-1.0.jar", res -> {
+                if (res.statusCode()!=200) {
+                    handler.handle(Future.failedFuture("Unexpected status "+res.statusCode()));
+                } else {
+                    res.bodyHandler(b -> handler.handle(Future.succeededFuture(b)));
+                }
+            });
+            req.exceptionHandler(t -> handler.handle(Future.failedFuture(t)));
+            if (authorization!=null) {
+                req.putHeader("Authorization", authorization);
+            }
+            req.end();
+        });
+        return body.length();
+    }
+}
@@ -0,0 +1,79 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures a {@code proxy.validate.token} round trip over the event bus against each token store
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TokenValidationBenchmark {
+
+    @Param({"jdbc", "log"})
+    private String store;
+
+    private Vertx vertx;
+    private BasicDataSource dataSource;
+    private Path logFile;
+    private String token;
+
+    @Setup
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        JsonObject cfg = BenchmarkSupport.defaultConfig();
+        if ("jdbc".equals(store)) {
+            dataSource = new BasicDataSource();
+            dataSource.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
+            dataSource.setUrl("jdbc:hsqldb:mem:benchmark");
+            dataSource.setUsername("SA");
+            dataSource.setPassword("");
+            SharedResources.put(vertx, "dbConnectionPool", dataSource);
+            BenchmarkSupport.deploy(vertx, new DbWorkerVerticle(), null,
+                    new DeploymentOptions().setConfig(cfg).setWorker(true).setMultiThreaded(true));
+        } else {
+            logFile = Files.createTempFile("nexus-tokens", ".log");
+            Files.delete(logFile);
+            cfg.put("tokenLogPath", logFile.toString());
+            BenchmarkSupport.deploy(vertx, new LogStoreVerticle(), null, new DeploymentOptions().setConfig(cfg));
+        }
+        JsonObject created = BenchmarkSupport.<Message<JsonObject>>await(handler ->
+                vertx.eventBus().send("proxy.create.token", "benchmark", handler)).body();
+        token = created.getString("token");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchmarkSupport.<Void>await(vertx::close);
+        if (dataSource!=null) {
+            dataSource.close();
+        }
+        if (logFile!=null) {
+            Files.deleteIfExists(logFile);
+        }
+    }
+
+    @Benchmark
+    public String validateToken() throws Exception {
+        return BenchmarkSupport.<Message<TokenValidation>>await(handler ->
+                vertx.eventBus().send("proxy.validate.token", token, handler)).body().getUsername();
+    }
+}
@@ -0,0 +1,73 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import java.util.Random;
+
+/**
+ * An embedded stand-in for the Nexus server used by the {@link LoadTest}. Every GET is answered with a synthetic
+ * artifact whose size is picked deterministically from the request path, after a random delay within a configured
+ * range.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class FakeNexus {
+
+    private final Vertx vertx;
+    private final int[] sizes;
+    private final long minLatency;
+    private final long maxLatency;
+    private final Buffer content;
+    private final Random random = new Random(42);
+
+    /**
+     * @param vertx The {@link Vertx} instance the server runs on
+     * @param sizes The artifact sizes in bytes to choose from
+     * @param minLatency The minimum delay before responding, in milliseconds
+     * @param maxLatency The maximum delay before responding, in milliseconds
+     */
+    public FakeNexus(Vertx vertx, int[] sizes, long minLatency, long maxLatency) {
+        this.vertx = vertx;
+        this.sizes = sizes;
+        this.minLatency = minLatency;
+        this.maxLatency = maxLatency;
+        int largest = 0;
+        for (int size : sizes) {
+            largest = Math.max(largest, size);
+        }
+        byte[] bytes = new byte[largest];
+        new Random(7).nextBytes(bytes);
+        this.content = Buffer.buffer(bytes);
+    }
+
+    /**
+     * Start listening
+     * @param port The port to listen on
+     * @param handler Called once the server is listening
+     */
+    public void listen(int port, Handler<AsyncResult<HttpServer>> handler) {
+        vertx.createHttpServer().requestHandler(this::handle).listen(port, "127.0.0.1", handler);
+    }
+
+    private void handle(HttpServerRequest req) {
+        long delay = minLatency + (maxLatency>minLatency ? (long)(random.nextDouble()*(maxLatency-minLatency)) : 0L);
+        if (delay>0) {
+            vertx.setTimer(delay, id -> respond(req));
+        } else {
+            respond(req);
+        }
+    }
+
+    private void respond(HttpServerRequest req) {
+        int size = sizes[(req.path().hashCode() & Integer.MAX_VALUE) % sizes.length];
+        req.response()
+                .putHeader("Content-Type", "application/java-archive")
+                .putHeader("Content-Length", Integer.toString(size))
+                .putHeader("ETag", "\"{SHA1{"+Integer.toHexString(req.path().hashCode())+"}}\"")
+                .putHeader("Last-Modified", "Thu, 01 Jan 2015 00:00:00 GMT")
+                .end(content.getBuffer(0, size));
+    }
+}
@@ -0,0 +1,308 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import com.zanclus.vertx.nexus.proxy.config.Config;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import org.HdrHistogram.Histogram;
+
+/**
+ * A fixed-rate load test which starts the complete application via {@link Main} against a {@link FakeNexus} and
+ * drives a mix of bearer token GETs, anonymous GETs and management API calls through it.
+ * <p>
+ * Requests are scheduled at fixed intervals and their latency is measured from the time they were <i>scheduled</i>
+ * to be sent, not from when they actually were, so stalls in the proxy are not hidden by the load generator backing
+ * off (coordinated omission). The load generator and the fake Nexus run on their own {@link Vertx} instance so they
+ * do not compete with the proxy for its event loops. All settings are read from system properties, see
+ * {@link #main(String[])}.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class LoadTest {
+
+    private static final String[] TYPES = {"bearer", "anonymous", "admin"};
+
+    private final int rate = Integer.getInteger("loadtest.rate", 500);
+    private final int duration = Integer.getInteger("loadtest.duration", 60);
+    private final int warmup = Integer.getInteger("loadtest.warmup", 10);
+    private final int connections = Integer.getInteger("loadtest.connections", 64);
+    private final int artifacts = Integer.getInteger("loadtest.artifacts", 1000);
+    private final int tokens = Integer.getInteger("loadtest.tokens", 50);
+    private final int[] sizes = ints(System.getProperty("loadtest.sizes", "512,4096,65536,1048576"));
+    private final int[] latency = ints(System.getProperty("loadtest.latency", "1,20"));
+    private final int[] mix = ints(System.getProperty("loadtest.mix", "70,25,5"));
+    private final String label = System.getProperty("loadtest.label", "current");
+    private final Path output = Paths.get(System.getProperty("loadtest.output", "target/loadtest"));
+
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private final Map<String, Map<Integer, Integer>> statuses = new LinkedHashMap<>();
+    private final Random random = new Random(1234);
+    private final List<String> bearerTokens = new ArrayList<>();
+    private int failures = 0;
+
+    /**
+     * Run the load test. Supported system properties:
+     * <ul>
+     *     <li>{@code loadtest.rate} - requests per second (500)</li>
+     *     <li>{@code loadtest.duration} - measured seconds (60)</li>
+     *     <li>{@code loadtest.warmup} - unmeasured seconds before the measurement (10)</li>
+     *     <li>{@code loadtest.connections} - maximum client connections (64)</li>
+     *     <li>{@code loadtest.artifacts} - number of distinct artifact paths requested (1000)</li>
+     *     <li>{@code loadtest.tokens} - number of bearer tokens used (50)</li>
+     *     <li>{@code loadtest.sizes} - artifact sizes in bytes (512,4096,65536,1048576)</li>
+     *     <li>{@code loadtest.latency} - minimum and maximum fake Nexus latency in milliseconds (1,20)</li>
+     *     <li>{@code loadtest.mix} - percentages of bearer, anonymous and management requests (70,25,5)</li>
+     *     <li>{@code loadtest.label} - name of this run, e.g. a commit ID, used in the result file names (current)</li>
+     *     <li>{@code loadtest.output} - directory the results are written to (target/loadtest)</li>
+     * </ul>
+     * Additional {@code -Cname=value} arguments are passed on to the application configuration.
+     * @param args Application configuration overrides
+     * @throws Exception If the test could not be run
+     */
+    public static void main(String[] args) throws Exception {
+        new LoadTest().run(args);
+        System.exit(0);
+    }
+
+    private void run(String[] args) throws Exception {
+        Vertx driver = Vertx.vertx();
+        Vertx proxy = Vertx.vertx();
+        int nexusPort = freePort();
+        int proxyPort = freePort();
+        Path tokenLog = Files.createTempFile("loadtest-tokens", ".log");
+        Files.delete(tokenLog);
+
+        LoadTest.<HttpServer>await(h -> new FakeNexus(driver, sizes, latency[0], latency[1]).listen(nexusPort, h));
+
+        Config cfg = new Config();
+        for (String arg : args) {
+            if (arg.startsWith("-C") && arg.contains("=")) {
+                cfg.getParams().put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=')+1));
+            }
+        }
+        cfg.fillDefaults();
+        JsonObject config = new JsonObject((Map<String, Object>)cfg.getParams())
+                                    .put("targetHost", "127.0.0.1")
+                                    .put("targetPort", nexusPort)
+                                    .put("proxyHost", "127.0.0.1")
+                                    .put("proxyPort", proxyPort)
+                                    .put("tokenStore", "log")
+                                    .put("tokenLogPath", tokenLog.toString());
+        LoadTest.<String>await(h -> proxy.deployVerticle(new Main(), new DeploymentOptions().setConfig(config), h));
+        waitForPort(proxyPort);
+        for (int i=0; i<tokens; i++) {
+            final String user = "loadtest"+i;
+            Message<JsonObject> created = LoadTest.<Message<JsonObject>>await(h -> proxy.eventBus().send("proxy.create.token", user, h));
+            bearerTokens.add(created.body().getString("token"));
+        }
+
+        for (String type : TYPES) {
+            histograms.put(type, new Histogram(TimeUnit.MINUTES.toMicros(10), 3));
+            statuses.put(type, new LinkedHashMap<>());
+        }
+        histograms.put("all", new Histogram(TimeUnit.MINUTES.toMicros(10), 3));
+
+        System.out.printf("Running %d req/s for %ds (+%ds warmup) against %s%n", rate, duration, warmup, label);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        driver.runOnContext(v -> drive(driver, proxyPort, done));
+        try {
+            done.get(duration+warmup+120, TimeUnit.SECONDS);
+        } catch (TimeoutException te) {
+            System.out.println("Not all requests completed in time");
+        }
+        // The histograms are only touched from the driver's event loop, so report from there as well
+        LoadTest.<Void>await(h -> driver.runOnContext(v -> {
+            try {
+                report();
+                h.handle(Future.succeededFuture());
+            } catch (Exception e) {
+                h.handle(Future.failedFuture(e));
+            }
+        }));
+        Files.deleteIfExists(tokenLog);
+    }
+
+    /**
+     * Send requests at the configured rate from a 1ms timer, catching up on every tick with all requests whose
+     * scheduled time has passed.
+     */
+    private void drive(Vertx driver, int proxyPort, CompletableFuture<Void> done) {
+        HttpClient client = driver.createHttpClient(new HttpClientOptions()
+                                                            .setKeepAlive(true)
+                                                            .setMaxPoolSize(connections)
+                                                            .setDefaultHost("127.0.0.1")
+                                                            .setDefaultPort(proxyPort));
+        final long interval = TimeUnit.SECONDS.toNanos(1)/rate;
+        final long start = System.nanoTime();
+        final long measureFrom = start+TimeUnit.SECONDS.toNanos(warmup);
+        final long total = (long)rate*(warmup+duration);
+        final long[] sent = {0L};
+        final long[] completed = {0L};
+        driver.setPeriodic(1, timer -> {
+            long due = Math.min(total, (System.nanoTime()-start)/interval+1);
+            while (sent[0]<due) {
+                long intended = start+sent[0]*interval;
+                sent[0]++;
+                send(client, intended, intended>=measureFrom, () -> {
+                    if (++completed[0]==total) {
+                        done.complete(null);
+                    }
+                });
+            }
+            if (sent[0]==total) {
+                driver.cancelTimer(timer);
+            }
+        });
+    }
+
+    private void send(HttpClient client, long intended, boolean measured, Runnable completion) {
+        int pick = random.nextInt(100);
+        String type = pick<mix[0] ? "bearer" : pick<mix[0]+mix[1] ? "anonymous" : "admin";
+        String uri;
+        if ("admin".equals(type)) {
+            uri = "/nexus-proxy/api/user";
+        } else {
+            int artifact = random.nextInt(artifacts);
+            uri = String.format("/nexus/content/repositories/releases/com/example/lib%1$d/1.0/lib%1$d-1.0.jar", artifact);
+        }
+        final boolean[] finished = {false};
+        Handler<Integer> finish = status -> {
+            if (!finished[0]) {
+                finished[0] = true;
+                if (status==null) {
+                    failures++;
+                } else {
+                    record(type, status, intended, measured);
+                }
+                completion.run();
+            }
+        };
+        HttpClientRequest req = client.get(uri, res -> {
+            res.endHandler(v -> finish.handle(res.statusCode()));
+            res.exceptionHandler(t -> finish.handle(null));
+        });
+        req.exceptionHandler(t -> finish.handle(null));
+        if ("bearer".equals(type)) {
+            req.putHeader("Authorization", "Bearer "+bearerTokens.get(random.nextInt(bearerTokens.size())));
+        }
+        req.end();
+    }
+
+    private void record(String type, int status, long intended, boolean measured) {
+        if (!measured) {
+            return;
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime()-intended);
+        histograms.get(type).recordValue(Math.max(1L, micros));
+        histograms.get("all").recordValue(Math.max(1L, micros));
+        statuses.get(type).merge(status, 1, Integer::sum);
+    }
+
+    /**
+     * Print a summary and write it, plus the full percentile distribution of every request type, to the output
+     * directory. The summary is one JSON document per run so runs for different commits can be compared directly.
+     */
+    private void report() throws Exception {
+        Files.createDirectories(output);
+        JsonObject summary = new JsonObject()
+                                    .put("label", label)
+                                    .put("rate", rate)
+                                    .put("duration", duration)
+                                    .put("connections", connections)
+                                    .put("sizes", Arrays.toString(sizes))
+                                    .put("latency", Arrays.toString(latency))
+                                    .put("mix", Arrays.toString(mix))
+                                    .put("failures", failures);
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %12s%n", "type", "count", "p50 (ms)", "p99 (ms)", "p99.9 (ms)", "max (ms)", "req/s");
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram h = entry.getValue();
+            double throughput = (double)h.getTotalCount()/duration;
+            System.out.printf("%-10s %10d %10.2f %10.2f %10.2f %10.2f %12.1f%n",
+                    entry.getKey(), h.getTotalCount(),
+                    h.getValueAtPercentile(50.0)/1000.0, h.getValueAtPercentile(99.0)/1000.0,
+                    h.getValueAtPercentile(99.9)/1000.0, h.getMaxValue()/1000.0, throughput);
+            JsonObject stats = new JsonObject()
+                                    .put("count", h.getTotalCount())
+                                    .put("throughput", throughput)
+                                    .put("p50", h.getValueAtPercentile(50.0))
+                                    .put("p99", h.getValueAtPercentile(99.0))
+                                    .put("p999", h.getValueAtPercentile(99.9))
+                                    .put("max", h.getMaxValue())
+                                    .put("unit", "us");
+            if (statuses.containsKey(entry.getKey())) {
+                JsonObject codes = new JsonObject();
+                statuses.get(entry.getKey()).forEach((code, count) -> codes.put(code.toString(), count));
+                stats.put("statuses", codes);
+            }
+            summary.put(entry.getKey(), stats);
+            try (PrintStream out = new PrintStream(new FileOutputStream(output.resolve(label+"-"+entry.getKey()+".hgrm").toFile()))) {
+                h.outputPercentileDistribution(out, 1000.0);
+            }
+        }
+        if (failures>0) {
+            System.out.println("Failed requests: "+failures);
+        }
+        Files.write(output.resolve(label+"-summary.json"), summary.encodePrettily().getBytes("UTF-8"));
+        System.out.println("Results written to "+output.toAbsolutePath());
+    }
+
+    private static <T> T await(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        operation.accept(res -> {
+            if (res.succeeded()) {
+                future.complete(res.result());
+            } else {
+                future.completeExceptionally(res.cause());
+            }
+        });
+        return future.get(30, TimeUnit.SECONDS);
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void waitForPort(int port) throws Exception {
+        long deadline = System.currentTimeMillis()+30000;
+        while (true) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                return;
+            } catch (Exception e) {
+                if (System.currentTimeMillis()>deadline) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static int[] ints(String list) {
+        return Arrays.stream(list.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+}
@@ -0,0 +1,280 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.json.Json;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.impl.LoggerFactory;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An access log which never blocks the event loops. Each request is recorded into a slot of a preallocated ring
+ * buffer, and a single background thread formats the recorded requests and appends them to the log file in batches
+ * every {@code accessLogFlushInterval} milliseconds. If the buffer is full because the disk cannot keep up, records are
+ * dropped and counted rather than making a request wait.
+ * <p>
+ * The log file is rotated once it grows beyond {@code accessLogMaxBytes}: {@code access.log} becomes
+ * {@code access.log.1}, and so on up to {@code accessLogMaxFiles} old files.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class AccessLog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AccessLog.class);
+
+    private static final DateTimeFormatter COMMON_TIME = DateTimeFormatter
+                                                            .ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US)
+                                                            .withZone(ZoneId.systemDefault());
+
+    private final Path path;
+    private final boolean json;
+    private final long flushInterval;
+    private final long maxBytes;
+    private final int maxFiles;
+    private final Record[] ring;
+    private final int mask;
+    /**
+     * The sequence number of the next slot to be claimed by a request
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * The sequence number of the next slot to be written by the background thread
+     */
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final StringBuilder line = new StringBuilder(512);
+    private volatile boolean running = true;
+    private Thread writer;
+    private OutputStream out;
+    private long size;
+
+    /**
+     * @param path The path of the log file
+     * @param format Either {@code common} for the NCSA common log format followed by the upstream and total time in
+     *               milliseconds, or {@code json} for one JSON object per line
+     * @param bufferSize The number of records the ring buffer holds, rounded up to a power of two
+     * @param flushInterval The number of milliseconds between writes of the buffered records
+     * @param maxBytes The size in bytes beyond which the log file is rotated, 0 to never rotate it
+     * @param maxFiles The number of rotated files to keep
+     */
+    public AccessLog(String path, String format, int bufferSize, long flushInterval, long maxBytes, int maxFiles) {
+        this.path = Paths.get(path);
+        this.json = "json".equalsIgnoreCase(format);
+        this.flushInterval = flushInterval;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize)-1)<<1;
+        this.ring = new Record[capacity];
+        for (int i=0; i<capacity; i++) {
+            ring[i] = new Record();
+        }
+        this.mask = capacity-1;
+    }
+
+    /**
+     * Open the log file and start the background writer thread
+     * @throws IOException If the log file cannot be opened
+     */
+    public void start() throws IOException {
+        open();
+        writer = new Thread(this::run, "nexus-proxy-access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Write out the remaining records and close the log file
+     */
+    public void close() {
+        running = false;
+        if (writer!=null) {
+            LockSupport.unpark(writer);
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return The number of records dropped because the ring buffer was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return The number of records waiting to be written
+     */
+    public long getPending() {
+        return head.get()-tail.get();
+    }
+
+    /**
+     * Record a request. Safe to call from any thread, never blocks and does not allocate.
+     * @param remote The address of the client
+     * @param method The HTTP method
+     * @param uri The request URI
+     * @param user The authenticated user, or null
+     * @param status The status code of the response
+     * @param bytes The number of bytes in the response body, or -1 if unknown
+     * @param upstreamNanos The time spent waiting for the Nexus server, or -1 if the request was not proxied
+     * @param totalNanos The time from receiving the request until the response was written
+     */
+    public void log(String remote, String method, String uri, String user, int status, long bytes, long upstreamNanos, long totalNanos) {
+        long seq;
+        do {
+            seq = head.get();
+            if (seq-tail.get()>=ring.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!head.compareAndSet(seq, seq+1));
+        Record record = ring[(int)(seq & mask)];
+        record.time = System.currentTimeMillis();
+        record.remote = remote;
+        record.method = method;
+        record.uri = uri;
+        record.user = user;
+        record.status = status;
+        record.bytes = bytes;
+        record.upstreamNanos = upstreamNanos;
+        record.totalNanos = totalNanos;
+        // Publishes the fields above to the writer thread
+        record.sequence = seq;
+        if ((seq & (mask>>1))==0) {
+            // Half of the buffer has been used since the last wake up, don't wait for the next interval
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushInterval));
+            drain();
+        }
+        drain();
+        try {
+            out.close();
+        } catch (IOException ioe) {
+            LOG.warn("Unable to close the access log "+path, ioe);
+        }
+    }
+
+    /**
+     * Write every published record to the log file in one batch
+     */
+    private void drain() {
+        long next = tail.get();
+        line.setLength(0);
+        Record record;
+        while ((record = ring[(int)(next & mask)]).sequence==next) {
+            format(record);
+            // Drop the references so the buffer does not keep request data alive
+            record.remote = record.method = record.uri = record.user = null;
+            next++;
+            // Free the slot; the record has been copied into the line buffer
+            tail.lazySet(next);
+        }
+        if (line.length()==0) {
+            return;
+        }
+        try {
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(bytes);
+            out.flush();
+            size += bytes.length;
+            if (maxBytes>0 && size>=maxBytes) {
+                rotate();
+            }
+        } catch (IOException ioe) {
+            LOG.warn("Unable to write the access log "+path, ioe);
+        }
+        if (line.capacity()>65536) {
+            line.setLength(0);
+            line.trimToSize();
+        }
+    }
+
+    private void format(Record record) {
+        String user = record.user==null ? "-" : record.user;
+        if (json) {
+            line.append("{\"time\":\"").append(Instant.ofEpochMilli(record.time))
+                .append("\",\"remote\":").append(Json.encode(record.remote))
+                .append(",\"method\":").append(Json.encode(record.method))
+                .append(",\"uri\":").append(Json.encode(record.uri))
+                .append(",\"user\":").append(record.user==null ? "null" : Json.encode(record.user))
+                .append(",\"status\":").append(record.status)
+                .append(",\"bytes\":").append(record.bytes)
+                .append(",\"upstreamMs\":").append(millis(record.upstreamNanos))
+                .append(",\"totalMs\":").append(millis(record.totalNanos))
+                .append("}\n");
+        } else {
+            line.append(record.remote).append(" - ").append(user)
+                .append(" [").append(COMMON_TIME.format(Instant.ofEpochMilli(record.time))).append("] \"")
+                .append(record.method).append(' ').append(record.uri).append("\" ")
+                .append(record.status).append(' ')
+                .append(record.bytes<0 ? "-" : Long.toString(record.bytes)).append(' ')
+                .append(record.upstreamNanos<0 ? "-" : Double.toString(millis(record.upstreamNanos))).append(' ')
+                .append(millis(record.totalNanos))
+                .append('\n');
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos<0 ? -1.0 : Math.round(nanos/1000.0)/1000.0;
+    }
+
+    private void open() throws IOException {
+        if (path.getParent()!=null) {
+            Files.createDirectories(path.getParent());
+        }
+        out = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        size = Files.size(path);
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+        for (int i=maxFiles-1; i>0; i--) {
+            Path older = Paths.get(path+"."+i);
+            if (Files.exists(older)) {
+                Files.move(older, Paths.get(path+"."+(i+1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles>0) {
+            Files.move(path, Paths.get(path+".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(path);
+        }
+        open();
+    }
+
+    /**
+     * A slot of the ring buffer, reused for every request which lands in it
+     */
+    private static class Record {
+        private volatile long sequence = -1L;
+        private long time;
+        private String remote;
+        private String method;
+        private String uri;
+        private String user;
+        private int status;
+        private long bytes;
+        private long upstreamNanos;
+        private long totalNanos;
+    }
+}
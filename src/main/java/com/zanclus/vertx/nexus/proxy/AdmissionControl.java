@@ -0,0 +1,180 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caps the number of requests in flight to the Nexus server across all {@link ProxyVerticle} instances. Requests over
+ * the cap wait in a bounded queue for a slot; requests which find the queue full, or wait too long, are shed. A freed
+ * slot is handed directly to the oldest waiter, on that waiter's own event loop. Nothing here blocks or takes a lock.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class AdmissionControl {
+
+    private final Vertx vertx;
+    private final int maxInflight;
+    private final int maxQueued;
+    private final long maxWait;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param vertx The {@link Vertx} instance
+     * @param maxInflight The maximum number of requests in flight, 0 for no limit
+     * @param maxQueued The maximum number of requests waiting for a slot
+     * @param maxWait The number of milliseconds a request may wait for a slot
+     */
+    public AdmissionControl(Vertx vertx, int maxInflight, int maxQueued, long maxWait) {
+        this.vertx = vertx;
+        this.maxInflight = maxInflight;
+        this.maxQueued = maxQueued;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * @param vertx The {@link Vertx} instance
+     * @param config The application's JSON configuration object
+     * @return The {@link AdmissionControl} shared by all verticles of the {@link Vertx} instance
+     */
+    public static AdmissionControl get(Vertx vertx, JsonObject config) {
+        return SharedResources.getOrCreate(vertx, "admissionControl", () -> new AdmissionControl(
+                                                                            vertx,
+                                                                            config.getInteger("maxInflightUpstream"),
+                                                                            config.getInteger("maxQueuedUpstream"),
+                                                                            config.getLong("maxQueueWait")));
+    }
+
+    /**
+     * @param vertx The {@link Vertx} instance
+     * @param config The application's JSON configuration object
+     * @return The {@link AdmissionControl} for uploads, allowing {@code maxConcurrentUploads} at a time without a queue,
+     *         shared by all verticles of the {@link Vertx} instance
+     */
+    public static AdmissionControl forUploads(Vertx vertx, JsonObject config) {
+        return SharedResources.getOrCreate(vertx, "uploadAdmission", () -> new AdmissionControl(
+                                                                            vertx,
+                                                                            config.getInteger("maxConcurrentUploads"),
+                                                                            0,
+                                                                            0L));
+    }
+
+    /**
+     * @return The number of requests currently in flight
+     */
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    /**
+     * @return The number of requests currently waiting for a slot
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Ask for a slot. MUST be called on an event loop; the handler is called on the same event loop. Every admitted
+     * request MUST call {@link #release()} exactly once when it is done.
+     * @param handler Called with {@link Outcome#ADMITTED}, or with the reason the request was shed
+     */
+    public void acquire(Handler<Outcome> handler) {
+        if (maxInflight<=0 || tryAcquire()) {
+            handler.handle(Outcome.ADMITTED);
+            return;
+        }
+        if (queued.incrementAndGet()>maxQueued) {
+            queued.decrementAndGet();
+            handler.handle(Outcome.QUEUE_FULL);
+            return;
+        }
+        Waiter waiter = new Waiter(vertx.getOrCreateContext(), handler);
+        waiter.timerId = vertx.setTimer(maxWait, id -> {
+            if (waiter.claimed.compareAndSet(false, true)) {
+                queued.decrementAndGet();
+                handler.handle(Outcome.TIMED_OUT);
+            }
+        });
+        waiters.add(waiter);
+        // A slot may have been freed between the failed attempt above and joining the queue
+        drain();
+    }
+
+    /**
+     * Give back the slot of an admitted request, handing it to the oldest waiter if there is one
+     */
+    public void release() {
+        if (maxInflight<=0) {
+            return;
+        }
+        Waiter waiter;
+        while ((waiter = waiters.poll())!=null) {
+            if (waiter.claimed.compareAndSet(false, true)) {
+                queued.decrementAndGet();
+                waiter.admit();
+                return;
+            }
+        }
+        inflight.decrementAndGet();
+        // A request may have joined the queue after it was found empty above
+        drain();
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            int current = inflight.get();
+            if (current>=maxInflight) {
+                return false;
+            }
+            if (inflight.compareAndSet(current, current+1)) {
+                return true;
+            }
+        }
+    }
+
+    private void drain() {
+        while (!waiters.isEmpty() && tryAcquire()) {
+            Waiter waiter = waiters.poll();
+            if (waiter!=null && waiter.claimed.compareAndSet(false, true)) {
+                queued.decrementAndGet();
+                waiter.admit();
+            } else {
+                inflight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * The result of asking for a slot
+     */
+    public enum Outcome {
+        ADMITTED, QUEUE_FULL, TIMED_OUT
+    }
+
+    /**
+     * A request waiting for a slot
+     */
+    private class Waiter {
+        private final Context context;
+        private final Handler<Outcome> handler;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private volatile long timerId;
+
+        private Waiter(Context context, Handler<Outcome> handler) {
+            this.context = context;
+            this.handler = handler;
+        }
+
+        private void admit() {
+            context.runOnContext(v -> {
+                vertx.cancelTimer(timerId);
+                handler.handle(Outcome.ADMITTED);
+            });
+        }
+    }
+}
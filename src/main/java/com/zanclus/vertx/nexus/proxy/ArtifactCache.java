@@ -0,0 +1,357 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.impl.LoggerFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A size-bounded, least-recently-used cache of artifacts from immutable (release) repositories, stored on local disk.
+ * Artifacts are written to the cache while the first response for them streams through the proxy, and later requests
+ * are served directly from disk, with the Content-Type and validators of the response they were stored from. A single
+ * instance is shared by all {@link ProxyVerticle} instances, so the index is guarded by this object's monitor.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class ArtifactCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArtifactCache.class);
+
+    private static final String REPOSITORY_PREFIX = "/nexus/content/repositories/";
+
+    private static final String TEMP_DIR = ".incoming";
+
+    /**
+     * Holds the response headers of each cached artifact as JSON, at the same relative path as the artifact
+     */
+    private static final String HEADERS_DIR = ".headers";
+
+    /**
+     * The response headers which are stored with an artifact and sent whenever it is served from the cache
+     */
+    private static final String[] CACHED_HEADERS = {"Content-Type", "ETag", "Last-Modified"};
+
+    private final Vertx vertx;
+    private final Path root;
+    private final long maxBytes;
+    private final List<String> repositories;
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(1024, 0.75f, true);
+    private long totalBytes = 0L;
+
+    /**
+     * @param vertx The {@link Vertx} instance used for asynchronous file operations
+     * @param path The directory in which cached artifacts are stored
+     * @param maxBytes The maximum total size of all cached artifacts
+     * @param repositories A comma separated list of the IDs of repositories whose artifacts never change
+     */
+    public ArtifactCache(Vertx vertx, String path, long maxBytes, String repositories) {
+        this.vertx = vertx;
+        this.root = Paths.get(path).toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.repositories = Arrays.stream(repositories.split(","))
+                                    .map(String::trim)
+                                    .filter(r -> !r.isEmpty())
+                                    .collect(Collectors.toList());
+    }
+
+    /**
+     * Create the cache directory and index any artifacts left from a previous run. Artifacts whose headers were not
+     * stored are discarded. This performs blocking I/O and MUST NOT be called from an event loop thread.
+     * @throws IOException If the cache directory cannot be read or created
+     */
+    public void load() throws IOException {
+        Path temp = root.resolve(TEMP_DIR);
+        Path headersDir = root.resolve(HEADERS_DIR);
+        Files.createDirectories(temp);
+        Files.createDirectories(headersDir);
+        List<Path> headerFiles = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(root)) {
+            List<Path> found = new ArrayList<>();
+            files.filter(Files::isRegularFile).forEach(found::add);
+            found.sort(Comparator.comparingLong(ArtifactCache::lastModified));
+            for (Path file : found) {
+                if (file.startsWith(temp)) {
+                    // Partial downloads from a previous run
+                    Files.deleteIfExists(file);
+                } else if (file.startsWith(headersDir)) {
+                    headerFiles.add(file);
+                } else {
+                    String key = root.relativize(file).toString().replace('\\', '/');
+                    JsonObject headers = readHeaders(headersDir.resolve(key));
+                    if (headers==null) {
+                        // Stored by a version which did not keep the headers, or its headers were lost
+                        Files.deleteIfExists(file);
+                    } else {
+                        commit(key, Files.size(file), headers);
+                    }
+                }
+            }
+        }
+        for (Path file : headerFiles) {
+            if (!index.containsKey(headersDir.relativize(file).toString().replace('\\', '/'))) {
+                Files.deleteIfExists(file);
+            }
+        }
+        LOG.info("Indexed "+index.size()+" cached artifacts ("+totalBytes+" bytes) in "+root);
+    }
+
+    private static JsonObject readHeaders(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return new JsonObject(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        } catch (DecodeException de) {
+            return null;
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException ioe) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Determine the cache key for a request URI.
+     * @param uri The request URI
+     * @return The key (the path of the artifact relative to the repositories root), or null if the URI does not refer
+     *         to a cacheable artifact in one of the configured repositories.
+     */
+    public String keyFor(String uri) {
+        if (!uri.startsWith(REPOSITORY_PREFIX) || uri.endsWith("/")
+                || uri.indexOf('?')>=0 || uri.indexOf('%')>=0 || uri.contains("..")
+                || uri.contains("maven-metadata")) {
+            return null;
+        }
+        String key = uri.substring(REPOSITORY_PREFIX.length());
+        int slash = key.indexOf('/');
+        if (slash<=0 || !repositories.contains(key.substring(0, slash))) {
+            return null;
+        }
+        return root.resolve(key).normalize().startsWith(root) ? key : null;
+    }
+
+    /**
+     * Look up a cached artifact and mark it as recently used
+     * @param key The cache key returned from {@link #keyFor(String)}
+     * @return The cached artifact, or null if it is not cached
+     */
+    public synchronized Entry lookup(String key) {
+        return index.get(key);
+    }
+
+    /**
+     * Only complete responses whose body is the artifact itself are cached, since a cached artifact is served to
+     * every client regardless of the encodings it accepts.
+     * @param statusCode The status code of the upstream response
+     * @param headers The headers of the upstream response
+     * @return true if the response may be stored with a {@link Writer}
+     */
+    public static boolean isCacheable(int statusCode, MultiMap headers) {
+        String encoding = headers.get("Content-Encoding");
+        return statusCode==200 && (encoding==null || encoding.trim().equalsIgnoreCase("identity"));
+    }
+
+    /**
+     * Create a {@link Writer} to store an artifact while it is streamed to the client
+     * @param key The cache key returned from {@link #keyFor(String)}
+     * @param responseHeaders The headers of the upstream response, see {@link #isCacheable(int, MultiMap)}
+     * @return A new {@link Writer}
+     */
+    public Writer newWriter(String key, MultiMap responseHeaders) {
+        JsonObject headers = new JsonObject();
+        for (String name : CACHED_HEADERS) {
+            if (responseHeaders.get(name)!=null) {
+                headers.put(name, responseHeaders.get(name));
+            }
+        }
+        return new Writer(key, headers);
+    }
+
+    /**
+     * Add a completed artifact to the index and evict the least recently used artifacts until the cache fits within
+     * its size limit again.
+     * @param key The cache key
+     * @param size The size of the artifact in bytes
+     * @param headers The response headers stored with the artifact
+     */
+    private synchronized void commit(String key, long size, JsonObject headers) {
+        Entry previous = index.put(key, new Entry(root.resolve(key).toString(), size, headers));
+        totalBytes += size - (previous==null ? 0L : previous.size);
+        Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+        while (totalBytes>maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            it.remove();
+            totalBytes -= eldest.getValue().size;
+            vertx.fileSystem().delete(eldest.getValue().path, res -> {
+                if (res.failed()) {
+                    LOG.warn("Unable to delete evicted artifact "+eldest.getKey(), res.cause());
+                }
+            });
+            vertx.fileSystem().delete(root.resolve(HEADERS_DIR).resolve(eldest.getKey()).toString(), res -> {});
+        }
+    }
+
+    /**
+     * An artifact in the cache
+     */
+    public static final class Entry {
+        private final String path;
+        private final long size;
+        private final JsonObject headers;
+
+        private Entry(String path, long size, JsonObject headers) {
+            this.path = path;
+            this.size = size;
+            this.headers = headers;
+        }
+
+        /**
+         * @return The absolute path of the cached file
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @param name One of the headers which are stored with an artifact: Content-Type, ETag or Last-Modified
+         * @return The value of the header in the response the artifact was stored from, or null if it had none
+         */
+        public String getHeader(String name) {
+            return headers.getString(name);
+        }
+    }
+
+    /**
+     * Writes a single artifact to a temporary file and moves it into the cache once it is complete.
+     */
+    public class Writer {
+        private final String key;
+        private final JsonObject headers;
+        private final String tempPath;
+        private AsyncFile file;
+        private long bytes = 0L;
+        private boolean failed = false;
+
+        private Writer(String key, JsonObject headers) {
+            this.key = key;
+            this.headers = headers;
+            this.tempPath = root.resolve(TEMP_DIR).resolve(UUID.randomUUID().toString()+".part").toString();
+        }
+
+        /**
+         * Create the temporary file
+         * @param handler Called once the file is ready to be written to
+         */
+        public void open(Handler<AsyncResult<Void>> handler) {
+            vertx.fileSystem().open(tempPath, new OpenOptions().setCreate(true).setWrite(true).setTruncateExisting(true), res -> {
+                if (res.succeeded()) {
+                    file = res.result();
+                    file.exceptionHandler(t -> abort());
+                    handler.handle(Future.succeededFuture());
+                } else {
+                    failed = true;
+                    handler.handle(Future.failedFuture(res.cause()));
+                }
+            });
+        }
+
+        public void write(Buffer data) {
+            if (!failed) {
+                bytes += data.length();
+                file.write(data);
+            }
+        }
+
+        public boolean writeQueueFull() {
+            return !failed && file.writeQueueFull();
+        }
+
+        public void drainHandler(Handler<Void> handler) {
+            file.drainHandler(handler);
+        }
+
+        /**
+         * Close the temporary file, store the headers and move the file into the cache.
+         * @param expectedLength The Content-Length of the upstream response, or -1 if it was not known. If the number
+         *                       of bytes written does not match, the artifact is discarded.
+         */
+        public void finish(long expectedLength) {
+            if (failed || (expectedLength>=0 && expectedLength!=bytes)) {
+                abort();
+                return;
+            }
+            file.close(closed -> {
+                if (closed.failed()) {
+                    discard();
+                    return;
+                }
+                // The headers go first, so that an artifact is never found on disk without them
+                Path headersFile = root.resolve(HEADERS_DIR).resolve(key);
+                vertx.fileSystem().mkdirs(headersFile.getParent().toString(), headersDir -> {
+                    vertx.fileSystem().writeFile(headersFile.toString(), Buffer.buffer(headers.encode()), written -> {
+                        if (written.failed()) {
+                            LOG.warn("Unable to store the headers of "+key, written.cause());
+                            discard();
+                            return;
+                        }
+                        String target = root.resolve(key).toString();
+                        vertx.fileSystem().mkdirs(root.resolve(key).getParent().toString(), dirs -> {
+                            vertx.fileSystem().move(tempPath, target, moved -> {
+                                if (moved.succeeded()) {
+                                    commit(key, bytes, headers);
+                                } else {
+                                    // Most likely another request cached the same artifact first
+                                    discard();
+                                }
+                            });
+                        });
+                    });
+                });
+            });
+        }
+
+        /**
+         * Stop writing and remove the temporary file
+         */
+        public void abort() {
+            if (file!=null && !failed) {
+                failed = true;
+                file.close(closed -> discard());
+            }
+            failed = true;
+        }
+
+        private void discard() {
+            vertx.fileSystem().delete(tempPath, res -> {});
+        }
+    }
+}
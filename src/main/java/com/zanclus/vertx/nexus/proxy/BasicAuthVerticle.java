@@ -3,56 +3,185 @@ package com.zanclus.vertx.nexus.proxy;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.impl.LoggerFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- *
+ * Checks a username and password against the Nexus server. Runs on an event loop and shares one pooled
+ * {@link HttpClient} between all logins. Successful logins are cached for {@code loginCacheTtl} milliseconds, keyed by
+ * a salted SHA-256 hash of the credentials, and concurrent logins with the same credentials share a single request to
+ * the Nexus server.
  * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
  */
 public class BasicAuthVerticle extends AbstractVerticle {
 
+    private static final Logger LOG = LoggerFactory.getLogger(BasicAuthVerticle.class);
+
+    private HttpClient client;
+    private MessageDigest digest;
+    private final byte[] salt = new byte[16];
+    private LinkedHashMap<String, CachedLogin> loginCache;
+    private final Map<String, List<Message<JsonObject>>> pendingLogins = new HashMap<>();
+    private long loginCacheTtl;
+    private LongAdder loginCacheHits;
+    private LongAdder loginCacheMisses;
+
     @Override
     public void start() throws Exception {
-        Logger log = LoggerFactory.getLogger(this.getClass());
         final String target = context.config().getString("targetHost", "192.168.1.70");
         final Integer port = context.config().getInteger("targetPort", 8081);
+        final int maxSize = context.config().getInteger("loginCacheMaxSize");
+        loginCacheTtl = context.config().getLong("loginCacheTtl");
+        client = vertx.createHttpClient(new HttpClientOptions()
+                                            .setDefaultHost(target)
+                                            .setDefaultPort(port)
+                                            .setKeepAlive(true)
+                                            .setConnectTimeout(context.config().getInteger("upstreamConnectTimeout"))
+                                            .setMaxPoolSize(context.config().getInteger("upstreamMaxPoolSize")));
+        digest = MessageDigest.getInstance("SHA-256");
+        // A fresh salt per process, so the cache keys are worthless outside of it
+        new SecureRandom().nextBytes(salt);
+        loginCache = new LinkedHashMap<String, CachedLogin>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedLogin> eldest) {
+                return size()>maxSize;
+            }
+        };
+
+        String help = "Logins checked against the credential cache";
+        ProxyMetrics metrics = ProxyMetrics.get(vertx);
+        loginCacheHits = metrics.counter("nexus_proxy_login_cache_total", help, "result", "hit");
+        loginCacheMisses = metrics.counter("nexus_proxy_login_cache_total", help, "result", "miss");
+
         EventBus eb = vertx.eventBus();
-        eb.consumer("proxy.login.do", (Message<JsonObject> event) -> {
-            log.error("Recieved proxy login event.");
+        eb.localConsumer("proxy.login.do", (Message<JsonObject> event) -> {
             String username = event.body().getString("username");
             String password = event.body().getString("password");
-            final JsonObject response = new JsonObject();
             if (username==null || password==null) {
+                JsonObject response = new JsonObject();
                 response.put("error", "Username and/or password values are null.");
                 response.put("status", 0);
-                log.error("Sending error response.");
-                eb.send("proxy.login.response", response);
-            } else {
-                String credentials = username+":"+password;
-                String basicAuth = Base64.getEncoder().encodeToString(credentials.getBytes());
-                final String url = String.format("http://%1$s:%2$d/nexus/service/local/users/%3$s", target, port, username);
-                vertx
-                    .createHttpClient(new HttpClientOptions())
-                    .request(HttpMethod.GET, url)
-                    .putHeader("Authorization", "Basic "+basicAuth)
-                    .putHeader("Accept", "application/json")
-                    .handler(res -> {
-                        response.put("status", res.statusCode());
-                        response.put("response", res.statusMessage());
-                        log.error("Sending login response: "+url+": "+res.statusMessage());
-                        res.bodyHandler(buffer -> {
-                            String jsonResponse = new String(buffer.getBytes());
-                            response.put("userinfo", new JsonObject(jsonResponse));
-                            event.reply(response);
-                        });
-                    })
-                    .end();
+                event.reply(response);
+                return;
             }
+            String key = cacheKey(username, password);
+            CachedLogin cached = loginCache.get(key);
+            if (cached!=null) {
+                if (cached.expires>=System.currentTimeMillis()) {
+                    loginCacheHits.increment();
+                    event.reply(cached.response.copy());
+                    return;
+                }
+                loginCache.remove(key);
+            }
+            loginCacheMisses.increment();
+            List<Message<JsonObject>> waiting = pendingLogins.get(key);
+            if (waiting!=null) {
+                // The same credentials are already being checked
+                waiting.add(event);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(event);
+            pendingLogins.put(key, waiting);
+            checkCredentials(key, username, password);
         });
     }
-}
\ No newline at end of file
+
+    @Override
+    public void stop() throws Exception {
+        if (client!=null) {
+            client.close();
+        }
+    }
+
+    /**
+     * Ask the Nexus server for the user's details using the given credentials and reply to every login waiting for
+     * them. Successful logins are cached.
+     * @param key The cache key of the credentials
+     * @param username The username
+     * @param password The password
+     */
+    private void checkCredentials(String key, String username, String password) {
+        String credentials = username+":"+password;
+        String basicAuth = Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+        final String uri = "/nexus/service/local/users/"+username;
+        client.request(HttpMethod.GET, uri)
+            .setTimeout(context.config().getLong("upstreamResponseTimeout"))
+            .putHeader("Authorization", "Basic "+basicAuth)
+            .putHeader("Accept", "application/json")
+            .handler(res -> {
+                final JsonObject response = new JsonObject();
+                response.put("status", res.statusCode());
+                response.put("response", res.statusMessage());
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Sending login response: "+uri+": "+res.statusMessage());
+                }
+                res.bodyHandler(buffer -> {
+                    try {
+                        response.put("userinfo", new JsonObject(buffer.toString(StandardCharsets.UTF_8.name())));
+                    } catch (DecodeException de) {
+                        response.put("error", "Unable to parse the user details returned by Nexus");
+                    }
+                    if (res.statusCode()==200 && response.getJsonObject("userinfo")!=null) {
+                        loginCache.put(key, new CachedLogin(response, System.currentTimeMillis()+loginCacheTtl));
+                    }
+                    reply(key, response);
+                });
+            })
+            .exceptionHandler(t -> {
+                LOG.warn("Unable to check credentials for "+username, t);
+                reply(key, new JsonObject().put("status", 0).put("error", t.getLocalizedMessage()));
+            })
+            .end();
+    }
+
+    private void reply(String key, JsonObject response) {
+        List<Message<JsonObject>> waiting = pendingLogins.remove(key);
+        if (waiting!=null) {
+            waiting.forEach(msg -> msg.reply(response.copy()));
+        }
+    }
+
+    /**
+     * @return The hex encoded, salted SHA-256 hash of {@code username:password}
+     */
+    private String cacheKey(String username, String password) {
+        digest.reset();
+        digest.update(salt);
+        byte[] hash = digest.digest((username+":"+password).getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(hash.length*2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b>>4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A successful login and when it stops being valid
+     */
+    private static class CachedLogin {
+        private final JsonObject response;
+        private final long expires;
+
+        private CachedLogin(JsonObject response, long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of the SHA-1 and MD5 digests of recently downloaded artifacts. The digests are
+ * computed while the artifact streams through the proxy, so the {@code .sha1} and {@code .md5} files which Maven
+ * fetches after every artifact can be answered without asking the Nexus server. Each entry belongs to the
+ * {@code ETag} of the response it was computed from; a response with another {@code ETag} replaces it. Instances are
+ * not thread-safe and are meant to be owned by a single event loop.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class ChecksumCache {
+
+    /**
+     * The digest algorithms, by the extension of the checksum file holding them
+     */
+    private static final String[][] ALGORITHMS = {{".sha1", "SHA-1"}, {".md5", "MD5"}};
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final int maxSize;
+    private final long ttl;
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * @param maxSize The maximum number of artifacts to remember before the least recently used ones are evicted
+     * @param ttl The number of milliseconds the digests of an artifact are served without asking the Nexus server
+     */
+    public ChecksumCache(int maxSize, long ttl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size()>ChecksumCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return true if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return maxSize>0 && ttl>0;
+    }
+
+    /**
+     * @param path The path of a request
+     * @return The index of the algorithm if the path is that of a checksum file, otherwise -1
+     */
+    public static int algorithmOf(String path) {
+        for (int i=0; i<ALGORITHMS.length; i++) {
+            if (path.endsWith(ALGORITHMS[i][0])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param uri The URI of a checksum file
+     * @param algorithm The index of its algorithm, as returned by {@link #algorithmOf(String)}
+     * @return The URI of the artifact the checksum file belongs to
+     */
+    public static String artifactUri(String uri, int algorithm) {
+        return uri.substring(0, uri.length()-ALGORITHMS[algorithm][0].length());
+    }
+
+    /**
+     * Look at an upstream response to a GET for an artifact. Digests of an earlier response with another
+     * {@code ETag} are dropped straight away.
+     * @param key Identifies the artifact and the user it was served to
+     * @param status The status code of the response
+     * @param headers The headers of the response
+     * @return A {@link Digester} to feed the body through if the digests of the response can be cached, otherwise null
+     */
+    public Digester track(String key, int status, MultiMap headers) {
+        if (!isEnabled() || (status!=200 && status!=304)) {
+            return null;
+        }
+        String etag = headers.get("ETag");
+        Entry entry = entries.get(key);
+        if (entry!=null && (etag==null || !etag.equals(entry.etag))) {
+            entries.remove(key);
+        }
+        String encoding = headers.get("Content-Encoding");
+        String cacheControl = headers.get("Cache-Control");
+        if (status!=200 || etag==null || (encoding!=null && !"identity".equalsIgnoreCase(encoding))
+                || (cacheControl!=null && cacheControl.contains("no-store"))) {
+            return null;
+        }
+        String contentLength = headers.get("Content-Length");
+        return new Digester(key, etag, contentLength==null ? -1L : Long.parseLong(contentLength));
+    }
+
+    /**
+     * @param key Identifies the artifact and the user it was served to
+     * @return The digests of the artifact, or null if there are none which are still fresh
+     */
+    public Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry!=null && entry.expires<System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Forget the digests of an artifact, e.g. because they did not match those of the Nexus server
+     * @param key Identifies the artifact and the user it was served to
+     */
+    public void remove(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Computes the digests of a response body as it streams through the proxy. The digests are only cached once the
+     * whole body has been seen.
+     */
+    public class Digester implements Handler<Buffer> {
+        private final String key;
+        private final String etag;
+        private final long contentLength;
+        private final MessageDigest[] digests = new MessageDigest[ALGORITHMS.length];
+        private long bytes = 0L;
+
+        private Digester(String key, String etag, long contentLength) {
+            this.key = key;
+            this.etag = etag;
+            this.contentLength = contentLength;
+            try {
+                for (int i=0; i<ALGORITHMS.length; i++) {
+                    digests[i] = MessageDigest.getInstance(ALGORITHMS[i][1]);
+                }
+            } catch (NoSuchAlgorithmException nsae) {
+                // Every Java platform has to support both
+                throw new IllegalStateException(nsae);
+            }
+        }
+
+        @Override
+        public void handle(Buffer data) {
+            bytes += data.length();
+            for (MessageDigest digest : digests) {
+                // Digest the bytes where they are instead of copying them out of the buffer
+                digest.update(data.getByteBuf().nioBuffer());
+            }
+        }
+
+        /**
+         * Cache the digests, unless the body was cut short
+         */
+        public void finish() {
+            if (contentLength>=0 && bytes!=contentLength) {
+                return;
+            }
+            String[] hex = new String[digests.length];
+            for (int i=0; i<digests.length; i++) {
+                hex[i] = toHex(digests[i].digest());
+            }
+            entries.put(key, new Entry(etag, hex, System.currentTimeMillis()+ttl));
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length*2];
+        for (int i=0; i<bytes.length; i++) {
+            chars[i*2] = HEX[(bytes[i]>>4) & 0xf];
+            chars[i*2+1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * The digests of a single artifact
+     */
+    public static class Entry {
+        private final String etag;
+        private final String[] hex;
+        private final boolean[] verified;
+        private final long expires;
+
+        private Entry(String etag, String[] hex, long expires) {
+            this.etag = etag;
+            this.hex = hex;
+            this.verified = new boolean[hex.length];
+            this.expires = expires;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @param algorithm The index of the algorithm, as returned by {@link #algorithmOf(String)}
+         * @return The digest in lower case hex
+         */
+        public String getHex(int algorithm) {
+            return hex[algorithm];
+        }
+
+        /**
+         * @param algorithm The index of the algorithm, as returned by {@link #algorithmOf(String)}
+         * @return true once the digest was found to match the Nexus server's own checksum file
+         */
+        public boolean isVerified(int algorithm) {
+            return verified[algorithm];
+        }
+
+        /**
+         * Compare a digest with the Nexus server's own checksum file, which holds the hex digest, optionally followed
+         * by the file name
+         * @param algorithm The index of the algorithm, as returned by {@link #algorithmOf(String)}
+         * @param checksumFile The body of the Nexus server's checksum file
+         * @return true if they match
+         */
+        public boolean verify(int algorithm, String checksumFile) {
+            String trimmed = checksumFile.trim();
+            int end = 0;
+            while (end<trimmed.length() && !Character.isWhitespace(trimmed.charAt(end))) {
+                end++;
+            }
+            verified[algorithm] = hex[algorithm].equals(trimmed.substring(0, end).toLowerCase(Locale.ROOT));
+            return verified[algorithm];
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.impl.LoggerFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stops sending requests to a dependency which keeps failing. After {@code failureThreshold} consecutive failures the
+ * circuit opens and every request fails fast. Once {@code resetTimeout} milliseconds have passed, a single probe
+ * request is let through: if it succeeds the circuit closes again, otherwise it stays open for another period.
+ * <p>
+ * Instances are shared between event loops, so all of the state is kept in atomics and nothing blocks.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final String name;
+    private final int failureThreshold;
+    private final long resetTimeout;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile long openedAt = 0L;
+
+    /**
+     * @param name Identifies the protected dependency in log messages
+     * @param failureThreshold The number of consecutive failures which open the circuit, 0 to never open it
+     * @param resetTimeout The number of milliseconds the circuit stays open before a probe request is let through
+     */
+    public CircuitBreaker(String name, int failureThreshold, long resetTimeout) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.resetTimeout = resetTimeout;
+    }
+
+    /**
+     * @param name Identifies the protected dependency in log messages
+     * @param config The application's JSON configuration object
+     * @return A new {@link CircuitBreaker} using {@code circuitFailureThreshold} and {@code circuitResetTimeout}
+     */
+    public static CircuitBreaker create(String name, JsonObject config) {
+        return new CircuitBreaker(name, config.getInteger("circuitFailureThreshold"), config.getLong("circuitResetTimeout"));
+    }
+
+    /**
+     * @param vertx The {@link Vertx} instance
+     * @param config The application's JSON configuration object
+     * @return The {@link CircuitBreaker} around the token store, shared by all verticles of the {@link Vertx} instance
+     */
+    public static CircuitBreaker forTokenStore(Vertx vertx, JsonObject config) {
+        return SharedResources.getOrCreate(vertx, "tokenStoreCircuit", () -> create("the token store", config));
+    }
+
+    /**
+     * @return The current state of the circuit
+     */
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return true if {@link #tryAcquire()} might let a request through right now. Does not claim the probe.
+     */
+    public boolean isAvailable() {
+        switch (state.get()) {
+            case CLOSED:
+                return true;
+            default:
+                return System.currentTimeMillis()-openedAt>=resetTimeout;
+        }
+    }
+
+    /**
+     * Ask to send a request. Every request which is let through MUST be followed by exactly one call to
+     * {@link #onSuccess()} or {@link #onFailure()}.
+     * @return true if the request may be sent, false if it must fail fast
+     */
+    public boolean tryAcquire() {
+        State current = state.get();
+        if (current==State.CLOSED) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now-openedAt<resetTimeout) {
+            return false;
+        }
+        // The circuit has been open long enough: exactly one caller gets to send the probe. A probe which never
+        // reports back is replaced by another one after a further resetTimeout.
+        if (state.compareAndSet(current, State.HALF_OPEN)) {
+            openedAt = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record a successful request, closing the circuit
+     */
+    public void onSuccess() {
+        failures.set(0);
+        if (state.getAndSet(State.CLOSED)!=State.CLOSED) {
+            LOG.warn("Circuit for "+name+" is closed again");
+        }
+    }
+
+    /**
+     * Record a failed request, opening the circuit if the threshold is reached or the request was the probe
+     */
+    public void onFailure() {
+        if (failureThreshold<=0) {
+            return;
+        }
+        int count = failures.incrementAndGet();
+        State current = state.get();
+        if (current==State.HALF_OPEN || (current==State.CLOSED && count>=failureThreshold)) {
+            if (state.compareAndSet(current, State.OPEN)) {
+                openedAt = System.currentTimeMillis();
+                LOG.warn("Circuit for "+name+" is open after "+count+" consecutive failures, retrying in "
+                        +resetTimeout+"ms");
+            }
+        }
+    }
+
+    /**
+     * The states of a circuit
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+}
@@ -0,0 +1,296 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpServerResponse;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A single upstream GET whose response is streamed to every client which asked for the same resource while it was
+ * in flight. Each client has its own backlog, so a slow client only falls behind instead of stalling the others; the
+ * upstream response is paused only once every client (and the {@link ArtifactCache} writer, if any) is backed up.
+ * A client whose backlog grows beyond its limit is disconnected.
+ * <p>
+ * Clients may join until more than {@code replayLimit} bytes of the body have been received; the bytes received so
+ * far are replayed to them. Instances are not thread-safe and are meant to be owned by a single event loop.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class CoalescedFetch {
+
+    private final long replayLimit;
+    private final long backlogLimit;
+    private final List<Subscriber> subscribers = new ArrayList<>();
+    private final List<Buffer> replay = new ArrayList<>();
+    private long replayBytes = 0L;
+    private boolean joinable = true;
+    private boolean ended = false;
+    private HttpClientResponse upstream;
+    private ArtifactCache.Writer writer;
+    private Handler<Buffer> tap;
+    private Handler<Void> completionHandler;
+    private Handler<Boolean> upstreamEndHandler;
+    private boolean led = false;
+
+    /**
+     * @param replayLimit The number of body bytes kept for clients which join after the body started streaming
+     * @param backlogLimit The number of bytes which may be queued for a single slow client before it is disconnected
+     */
+    public CoalescedFetch(long replayLimit, long backlogLimit) {
+        this.replayLimit = replayLimit;
+        this.backlogLimit = backlogLimit;
+    }
+
+    /**
+     * @param handler Called once the fetch no longer accepts new clients, either because it completed, failed or
+     *                because too much of the body has already been streamed.
+     */
+    public void completionHandler(Handler<Void> handler) {
+        this.completionHandler = handler;
+    }
+
+    /**
+     * @param handler Called exactly once, with true when the whole upstream response body has been received or with
+     *                false if the fetch failed
+     */
+    public void upstreamEndHandler(Handler<Boolean> handler) {
+        this.upstreamEndHandler = handler;
+    }
+
+    /**
+     * @param tap Receives every buffer of the upstream response body before it is written to the clients, may be null
+     */
+    public void tap(Handler<Buffer> tap) {
+        this.tap = tap;
+    }
+
+    /**
+     * Attach a client to this fetch
+     * @param response The client's response
+     * @return true if the client was attached, false if the fetch no longer accepts clients
+     */
+    public boolean subscribe(HttpServerResponse response) {
+        if (!joinable) {
+            return false;
+        }
+        Subscriber subscriber = new Subscriber(response);
+        subscribers.add(subscriber);
+        if (upstream!=null) {
+            subscriber.writeHead();
+            replay.forEach(subscriber::write);
+        }
+        return true;
+    }
+
+    /**
+     * Start streaming the upstream response to all attached clients
+     * @param upstream The response from the Nexus server
+     * @param writer An optional {@link ArtifactCache.Writer} which receives a copy of the body, may be null
+     */
+    public void start(HttpClientResponse upstream, ArtifactCache.Writer writer) {
+        this.upstream = upstream;
+        this.writer = writer;
+        subscribers.forEach(Subscriber::writeHead);
+        if (writer!=null) {
+            writer.drainHandler(v -> checkResume());
+        }
+        upstream.handler(this::handleData);
+        upstream.endHandler(v -> {
+            ended = true;
+            upstreamEnded(true);
+            new ArrayList<>(subscribers).forEach(Subscriber::end);
+            if (writer!=null) {
+                String contentLength = upstream.headers().get("Content-Length");
+                writer.finish(contentLength==null ? -1L : Long.parseLong(contentLength));
+            }
+            complete();
+        });
+        upstream.exceptionHandler(this::fail);
+    }
+
+    /**
+     * Abort the fetch, disconnecting every client which has already received a partial response and sending a 502
+     * (or a 504 if the upstream request timed out) to the others.
+     * @param cause Why the upstream request failed
+     */
+    public void fail(Throwable cause) {
+        ended = true;
+        upstreamEnded(false);
+        if (writer!=null) {
+            writer.abort();
+        }
+        for (Subscriber subscriber : new ArrayList<>(subscribers)) {
+            subscriber.finished = true;
+            if (upstream==null && cause instanceof TimeoutException) {
+                subscriber.response.setStatusCode(504).setStatusMessage("Gateway Timeout").end();
+            } else if (upstream==null) {
+                subscriber.response.setStatusCode(502).setStatusMessage("Bad Gateway").end();
+            } else {
+                subscriber.response.close();
+            }
+        }
+        subscribers.clear();
+        complete();
+    }
+
+    /**
+     * Answer every client with a response of the caller's choosing before the upstream request was sent, e.g. because
+     * it was shed
+     * @param responder Writes and ends the response for a single client
+     */
+    public void reject(Handler<HttpServerResponse> responder) {
+        ended = true;
+        for (Subscriber subscriber : new ArrayList<>(subscribers)) {
+            subscriber.finished = true;
+            responder.handle(subscriber.response);
+        }
+        subscribers.clear();
+        complete();
+    }
+
+    private void upstreamEnded(boolean succeeded) {
+        if (upstreamEndHandler!=null) {
+            Handler<Boolean> handler = upstreamEndHandler;
+            upstreamEndHandler = null;
+            handler.handle(succeeded);
+        }
+    }
+
+    private void handleData(Buffer data) {
+        if (joinable) {
+            replayBytes += data.length();
+            if (replayBytes>replayLimit) {
+                complete();
+            } else {
+                replay.add(data);
+            }
+        }
+        if (tap!=null) {
+            tap.handle(data);
+        }
+        if (writer!=null) {
+            writer.write(data);
+        }
+        // Copy the list, a subscriber which falls too far behind removes itself
+        for (Subscriber subscriber : new ArrayList<>(subscribers)) {
+            subscriber.write(data);
+        }
+        if (shouldPause()) {
+            upstream.pause();
+        }
+    }
+
+    private boolean shouldPause() {
+        if (writer!=null && writer.writeQueueFull()) {
+            return true;
+        }
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.isBackedUp()) {
+                return false;
+            }
+        }
+        // With nobody left to pause for, keep reading so the connection can go back to the pool
+        return !subscribers.isEmpty();
+    }
+
+    private void checkResume() {
+        if (!ended && upstream!=null && !shouldPause()) {
+            upstream.resume();
+        }
+    }
+
+    private void complete() {
+        if (joinable) {
+            joinable = false;
+            replay.clear();
+            if (completionHandler!=null) {
+                completionHandler.handle(null);
+            }
+        }
+    }
+
+    /**
+     * A single client attached to the fetch
+     */
+    private class Subscriber {
+        private final HttpServerResponse response;
+        /**
+         * Whether this is the client whose request was sent to the Nexus server
+         */
+        private final boolean leader;
+        private final ArrayDeque<Buffer> backlog = new ArrayDeque<>();
+        private long backlogBytes = 0L;
+        private boolean finished = false;
+
+        private Subscriber(HttpServerResponse response) {
+            this.response = response;
+            this.leader = !led;
+            led = true;
+            response.closeHandler(v -> {
+                finished = true;
+                subscribers.remove(this);
+                checkResume();
+            });
+        }
+
+        private void writeHead() {
+            response.headers().addAll(upstream.headers());
+            if (!leader) {
+                // A cookie set by the Nexus server belongs to the client which started the fetch
+                response.headers().remove("Set-Cookie");
+            }
+            if (upstream.headers().get("Content-Length")==null) {
+                response.setChunked(true);
+            }
+            response.setStatusCode(upstream.statusCode());
+            response.setStatusMessage(upstream.statusMessage());
+            response.drainHandler(v -> drain());
+        }
+
+        private void write(Buffer data) {
+            if (finished) {
+                return;
+            }
+            if (backlog.isEmpty() && !response.writeQueueFull()) {
+                response.write(data);
+            } else {
+                backlog.add(data);
+                backlogBytes += data.length();
+                if (backlogBytes>backlogLimit) {
+                    // Too slow to keep up with the other clients
+                    finished = true;
+                    backlog.clear();
+                    subscribers.remove(this);
+                    response.close();
+                }
+            }
+        }
+
+        private boolean isBackedUp() {
+            return !backlog.isEmpty() || response.writeQueueFull();
+        }
+
+        private void drain() {
+            while (!backlog.isEmpty() && !response.writeQueueFull()) {
+                Buffer data = backlog.poll();
+                backlogBytes -= data.length();
+                response.write(data);
+            }
+            if (backlog.isEmpty() && ended) {
+                end();
+            }
+            checkResume();
+        }
+
+        private void end() {
+            if (!finished && backlog.isEmpty()) {
+                finished = true;
+                subscribers.remove(this);
+                response.end();
+            }
+        }
+    }
+}
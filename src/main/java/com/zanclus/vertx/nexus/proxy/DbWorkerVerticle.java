@@ -1,16 +1,25 @@
 package com.zanclus.vertx.nexus.proxy;
 
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.impl.LoggerFactory;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.UUID;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import javax.sql.DataSource;
 
 /**
@@ -21,68 +30,390 @@ public class DbWorkerVerticle extends AbstractVerticle {
 
     private static final Logger LOG = LoggerFactory.getLogger(DbWorkerVerticle.class);
 
+    private DeliveryOptions ackOptions;
+
     @Override
     public void start() throws Exception {
+        ackOptions = new DeliveryOptions().setSendTimeout(config().getLong("eventBusTimeout"));
+        MessageCodecs.register(vertx);
+        createSchema();
         listenForValidationEvents();
         listenForNewTokenEvents();
         listenForDeleteEvents();
         listenForTokenListEvent();
         listenForUserDeleteEvent();
         listenForUserListEvent();
+        listenForBulkEvents();
+        listenForUsageEvents();
+        listenForUsageListEvent();
+        long purgeInterval = config().getLong("tokenPurgeInterval");
+        if (purgeInterval>0) {
+            vertx.setPeriodic(purgeInterval, id -> purgeExpiredTokens());
+        }
+    }
+
+    /**
+     * Create the {@code user_tokens} table and its indexes if they are missing, and add the columns of later versions to
+     * a table created by an earlier one
+     * @throws SQLException If the schema cannot be created
+     */
+    private void createSchema() throws SQLException {
+        DataSource ds = SharedResources.get(vertx, "dbConnectionPool");
+        try (Connection c = ds.getConnection(); Statement s = c.createStatement()) {
+            DatabaseMetaData meta = c.getMetaData();
+            String table = identifier(meta, "user_tokens");
+            Set<String> columns = new HashSet<>();
+            try (ResultSet r = meta.getColumns(null, null, table, null)) {
+                while (r.next()) {
+                    columns.add(r.getString("COLUMN_NAME").toLowerCase(Locale.ROOT));
+                }
+            }
+            if (columns.isEmpty()) {
+                LOG.info("Creating the user_tokens table");
+                s.execute("CREATE TABLE user_tokens (token VARCHAR(255) NOT NULL PRIMARY KEY, username VARCHAR(255) NOT NULL, "
+                        +"expires BIGINT, use_count BIGINT DEFAULT 0 NOT NULL, last_used BIGINT)");
+            } else {
+                if (!columns.contains("use_count")) {
+                    LOG.info("Adding the use_count column to user_tokens");
+                    s.execute("ALTER TABLE user_tokens ADD COLUMN use_count BIGINT DEFAULT 0 NOT NULL");
+                }
+                if (!columns.contains("last_used")) {
+                    LOG.info("Adding the last_used column to user_tokens");
+                    s.execute("ALTER TABLE user_tokens ADD COLUMN last_used BIGINT");
+                }
+                if (!columns.contains("expires")) {
+                    LOG.info("Adding the expires column to user_tokens");
+                    s.execute("ALTER TABLE user_tokens ADD COLUMN expires BIGINT");
+                }
+            }
+            // Only the leading column of each index matters for the lookups; the primary key usually covers the token
+            Set<String> indexed = new HashSet<>();
+            try (ResultSet r = meta.getIndexInfo(null, null, table, false, true)) {
+                while (r.next()) {
+                    if (r.getShort("ORDINAL_POSITION")==1 && r.getString("COLUMN_NAME")!=null) {
+                        indexed.add(r.getString("COLUMN_NAME").toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+            if (!indexed.contains("token")) {
+                LOG.info("Creating the user_tokens_token index");
+                s.execute("CREATE UNIQUE INDEX user_tokens_token ON user_tokens (token)");
+            }
+            if (!indexed.contains("username")) {
+                LOG.info("Creating the user_tokens_username index");
+                s.execute("CREATE INDEX user_tokens_username ON user_tokens (username, token)");
+            }
+            if (!indexed.contains("expires")) {
+                LOG.info("Creating the user_tokens_expires index");
+                s.execute("CREATE INDEX user_tokens_expires ON user_tokens (expires)");
+            }
+        }
+    }
+
+    private static String identifier(DatabaseMetaData meta, String name) throws SQLException {
+        if (meta.storesUpperCaseIdentifiers()) {
+            return name.toUpperCase(Locale.ROOT);
+        } else if (meta.storesLowerCaseIdentifiers()) {
+            return name.toLowerCase(Locale.ROOT);
+        }
+        return name;
     }
 
     /**
-     * Register a consumer for token creation events
+     * Delete the tokens which have expired, {@code tokenPurgeBatchSize} at a time so that no statement holds its locks
+     * for long
+     */
+    private void purgeExpiredTokens() {
+        DataSource ds = SharedResources.get(vertx, "dbConnectionPool");
+        int batchSize = config().getInteger("tokenPurgeBatchSize");
+        long now = System.currentTimeMillis();
+        int purged = 0;
+        try (   Connection c = ds.getConnection();
+                PreparedStatement select = c.prepareStatement(
+                        "SELECT token FROM user_tokens WHERE expires<=? ORDER BY expires LIMIT ?");
+                PreparedStatement delete = c.prepareStatement("DELETE FROM user_tokens WHERE token=? AND expires<=?")) {
+            int found;
+            do {
+                select.setLong(1, now);
+                select.setInt(2, batchSize);
+                List<String> tokens = new ArrayList<>();
+                try (ResultSet r = select.executeQuery()) {
+                    while (r.next()) {
+                        tokens.add(r.getString(1));
+                    }
+                }
+                found = tokens.size();
+                for (String token : tokens) {
+                    delete.setString(1, token);
+                    delete.setLong(2, now);
+                    delete.addBatch();
+                }
+                if (found>0) {
+                    delete.executeBatch();
+                }
+                purged += found;
+            } while (found>=batchSize);
+        } catch (SQLException sqle) {
+            LOG.warn("Unable to purge expired tokens", sqle);
+        }
+        if (purged>0) {
+            LOG.debug("Purged "+purged+" expired tokens");
+        }
+    }
+
+    /**
+     * @param ttl The lifetime requested for a token in milliseconds, or null for {@code tokenTtl}
+     * @return The lifetime of a new token in milliseconds, 0 if it never expires
+     */
+    private long lifetime(Long ttl) {
+        return ttl!=null ? ttl : config().getLong("tokenTtl");
+    }
+
+    /**
+     * Register a consumer for batches of token usage counts, in the format of {@link TokenUsage#drain()}. The whole
+     * batch is written with one JDBC batch update.
+     */
+    private void listenForUsageEvents() {
+        vertx.eventBus().localConsumer("proxy.token.usage", (Message<JsonObject> msg) -> {
+            DataSource ds = SharedResources.get(vertx, "dbConnectionPool");
+            JsonObject response = new JsonObject();
+            try (   Connection c = ds.getConnection();
+                    PreparedStatement s = c.prepareStatement("UPDATE user_tokens SET use_count=use_count+?, "
+                            +"last_used=CASE WHEN last_used IS NULL OR last_used<? THEN ? ELSE last_used END WHERE token=?")) {
+                for (Object item : msg.body().getJsonArray("usage")) {
+                    JsonObject usage = (JsonObject)item;
+                    s.setLong(1, usage.getLong("count"));
+                    s.setLong(2, usage.getLong("lastUsed"));
+                    s.setLong(3, usage.getLong("lastUsed"));
+                    s.setString(4, usage.getString("token"));
+                    s.addBatch();
+                }
+                s.executeBatch();
+                response.put("success", "true");
+            } catch (SQLException sqle) {
+                response.put("error", sqle.getLocalizedMessage());
+            }
+            msg.reply(response);
+        });
+    }
+
+    /**
+     * Register a consumer for token usage list events. Replies with one page of the user's tokens after {@code after}
+     * with their use count and last use, and the cursor of the next page in {@code next} if the page was full.
+     */
+    private void listenForUsageListEvent() {
+        vertx.eventBus().localConsumer("proxy.token.usage.list", (Message<JsonObject> msg) -> {
+            DataSource ds = SharedResources.get(vertx, "dbConnectionPool");
+            JsonObject response = new JsonObject();
+            int limit = msg.body().getInteger("limit");
+            try (   Connection c = ds.getConnection();
+                    PreparedStatement s = c.prepareStatement("SELECT token, use_count, last_used FROM user_tokens "
+                            +"WHERE username=? AND token>? ORDER BY token LIMIT ?")) {
+                s.setString(1, msg.body().getString("username"));
+                s.setString(2, msg.body().getString("after", ""));
+                s.setInt(3, limit);
+                JsonArray items = new JsonArray();
+                try (ResultSet r = s.executeQuery()) {
+                    while (r.next()) {
+                        JsonObject item = new JsonObject().put("token", r.getString(1)).put("count", r.getLong(2));
+                        long lastUsed = r.getLong(3);
+                        if (!r.wasNull()) {
+                            item.put("lastUsed", lastUsed);
+                        }
+                        items.add(item);
+                    }
+                }
+                response.put("items", items);
+                if (items.size()>=limit) {
+                    response.put("next", items.getJsonObject(items.size()-1).getString("token"));
+                }
+            } catch (SQLException sqle) {
+                response.put("error", sqle.getLocalizedMessage());
+            }
+            msg.reply(response);
+        });
+    }
+
+    /**
+     * Register a consumer for token creation events. The optional {@code ttl} header sets the lifetime of the token in
+     * milliseconds instead of {@code tokenTtl}.
      */
     private void listenForNewTokenEvents() {
-        vertx.eventBus().consumer("proxy.create.token", (Message<String> token) -> {
+        vertx.eventBus().localConsumer("proxy.create.token", (Message<String> token) -> {
         	LOG.debug("Got create token event: "+token.body());
-            DataSource ds = context.get("dbConnectionPool");
+            DataSource ds = SharedResources.get(vertx, "dbConnectionPool");
             JsonObject response = new JsonObject();
             try (   Connection c = ds.getConnection();
-                PreparedStatement s = c.prepareStatement("INSERT INTO user_tokens (username, token) VALUES (?, ?)")) {
-                String uuid = UUID.randomUUID().toString();
+                PreparedStatement s = c.prepareStatement("INSERT INTO user_tokens (username, token, expires) VALUES (?, ?, ?)")) {
                 String username = token.body();
+                String ttl = token.headers().get("ttl");
+                long lifetime = lifetime(ttl!=null ? Long.valueOf(ttl) : null);
+                long expires = lifetime>0 ? System.currentTimeMillis()+lifetime : 0L;
+                String uuid = TokenSigner.get(vertx, config()).issue(username, lifetime);
                 s.setString(1, username);
                 s.setString(2, uuid);
+                setExpires(s, 3, expires);
                 if (s.executeUpdate()==1) {
                     response.put("token", uuid);
                     response.put("username", username);
+                    if (expires>0) {
+                        response.put("expires", expires);
+                    }
                 } else {
                     response.put("error", "Unknown error");
                 }
             } catch (SQLException sqle) {
                 response.put("error", sqle.getLocalizedMessage());
-                token.reply(response);
             }
+            token.reply(response);
         });
     }
 
     /**
-     * Register a consumer for token validation events
+     * Register a consumer for bulk token administration events. The request carries an {@code operations} array of
+     * {@code {"op":"create","username":...,"ttl":...}} and {@code {"op":"delete","username":...,"token":...}} items. All valid
+     * operations are applied in one transaction, as one JDBC batch per statement, and the reply carries a
+     * {@code results} array with one entry per operation, in the same order. If any operation is malformed, see
+     * {@link TokenRequests#checkBulk(Object)}, none is applied and the message is failed instead.
+     */
+    private void listenForBulkEvents() {
+        vertx.eventBus().localConsumer("proxy.token.bulk", (Message<JsonObject> msg) -> {
+        	LOG.debug("Got bulk token event");
+            String malformed = TokenRequests.checkBulk(msg.body().getValue("operations"));
+            if (malformed!=null) {
+                msg.fail(TokenRequests.MALFORMED, malformed);
+                return;
+            }
+            DataSource ds = SharedResources.get(vertx, "dbConnectionPool");
+            JsonArray operations = msg.body().getJsonArray("operations");
+            JsonObject[] results = new JsonObject[operations.size()];
+            List<Integer> creates = new ArrayList<>();
+            List<Integer> deletes = new ArrayList<>();
+            for (int i=0; i<operations.size(); i++) {
+                JsonObject op = operations.getJsonObject(i);
+                results[i] = new JsonObject().put("op", op.getString("op")).put("username", op.getString("username"));
+                if (op.getString("username")==null) {
+                    results[i].put("error", "Missing username");
+                } else if ("create".equals(op.getString("op"))) {
+                    long lifetime = lifetime(op.getLong("ttl"));
+                    results[i].put("token", TokenSigner.get(vertx, config()).issue(op.getString("username"), lifetime));
+                    if (lifetime>0) {
+                        results[i].put("expires", System.currentTimeMillis()+lifetime);
+                    }
+                    creates.add(i);
+                } else if ("delete".equals(op.getString("op")) && op.getString("token")!=null) {
+                    results[i].put("token", op.getString("token"));
+                    deletes.add(i);
+                } else {
+                    results[i].put("error", "Unsupported operation");
+                }
+            }
+            try (Connection c = ds.getConnection()) {
+                c.setAutoCommit(false);
+                try (   PreparedStatement insert = c.prepareStatement("INSERT INTO user_tokens (username, token, expires) VALUES (?, ?, ?)");
+                        PreparedStatement delete = c.prepareStatement("DELETE FROM user_tokens WHERE username=? AND token=?")) {
+                    for (int i : creates) {
+                        setExpires(insert, 3, results[i].getLong("expires", 0L));
+                        insert.setString(1, results[i].getString("username"));
+                        insert.setString(2, results[i].getString("token"));
+                        insert.addBatch();
+                    }
+                    int[] inserted = creates.isEmpty() ? new int[0] : insert.executeBatch();
+                    int[] deleted = executeBatch(delete, deletes, results);
+                    c.commit();
+                    for (int i=0; i<creates.size(); i++) {
+                        setOutcome(results[creates.get(i)], inserted[i], "Unknown error");
+                    }
+                    for (int i=0; i<deletes.size(); i++) {
+                        setOutcome(results[deletes.get(i)], deleted[i], "Unknown token");
+                    }
+                } catch (SQLException sqle) {
+                    c.rollback();
+                    throw sqle;
+                } finally {
+                    c.setAutoCommit(true);
+                }
+            } catch (SQLException sqle) {
+                // Nothing was applied
+                for (int i : creates) {
+                    results[i].remove("token");
+                    results[i].remove("expires");
+                    results[i].put("error", sqle.getLocalizedMessage());
+                }
+                for (int i : deletes) {
+                    results[i].put("error", sqle.getLocalizedMessage());
+                }
+            }
+            JsonArray reply = new JsonArray();
+            for (JsonObject result : results) {
+                if (result.getString("success")!=null && "delete".equals(result.getString("op"))) {
+                    vertx.eventBus().publish("proxy.token.invalidate", TokenInvalidation.ofToken(result.getString("token")));
+                }
+                reply.add(result);
+            }
+            msg.reply(new JsonObject().put("results", reply));
+        });
+    }
+
+    private static int[] executeBatch(PreparedStatement s, List<Integer> items, JsonObject[] results) throws SQLException {
+        if (items.isEmpty()) {
+            return new int[0];
+        }
+        for (int i : items) {
+            s.setString(1, results[i].getString("username"));
+            s.setString(2, results[i].getString("token"));
+            s.addBatch();
+        }
+        return s.executeBatch();
+    }
+
+    private static void setExpires(PreparedStatement s, int index, long expires) throws SQLException {
+        if (expires>0) {
+            s.setLong(index, expires);
+        } else {
+            s.setNull(index, Types.BIGINT);
+        }
+    }
+
+    private static void setOutcome(JsonObject result, int updateCount, String error) {
+        // Some drivers only report that a batched statement succeeded, not how many rows it changed
+        if (updateCount>0 || updateCount==Statement.SUCCESS_NO_INFO) {
+            result.put("success", "true");
+        } else {
+            result.put("error", error);
+        }
+    }
+
+    /**
+     * Register a consumer for token validation events, which replies with a {@link TokenValidation}
      */
     private void listenForValidationEvents() {
-        vertx.eventBus().consumer("proxy.validate.token", (Message<String> token) -> {
+        vertx.eventBus().localConsumer("proxy.validate.token", (Message<String> token) -> {
         	LOG.debug("Got token validation event: "+token.body());
-            DataSource ds = context.get("dbConnectionPool");
-            JsonObject response = new JsonObject();
+            DataSource ds = SharedResources.get(vertx, "dbConnectionPool");
+            TokenValidation response;
             try (   Connection c = ds.getConnection();
-                PreparedStatement s = c.prepareStatement("SELECT username FROM user_tokens WHERE token=?")) {
+                PreparedStatement s = c.prepareStatement("SELECT username, expires FROM user_tokens WHERE token=?")) {
                 s.setString(1, token.body());
                 try (ResultSet r = s.executeQuery()) {
-                    r.beforeFirst();
                     if (r.next()) {
-                        // We got a result from the DB, reply with a valid username
-                        response.put("username", r.getString(1));
+                        long expires = r.getLong(2);
+                        if (r.wasNull()) {
+                            // We got a result from the DB, reply with a valid username
+                            response = TokenValidation.valid(r.getString(1), 0L);
+                        } else if (expires>System.currentTimeMillis()) {
+                            response = TokenValidation.valid(r.getString(1), expires);
+                        } else {
+                            // Not purged yet
+                            response = TokenValidation.unknown("Token expired");
+                        }
                     } else {
                         // We did not get a result from the DB, reply with an response.
-                        response.put("error", "Unknown token");
+                        response = TokenValidation.unknown("Unknown token");
                     }
-                } catch (SQLException sqle) {
-                    response.put("error", sqle.getLocalizedMessage());
                 }
             } catch (SQLException sqle) {
-                response.put("error", sqle.getLocalizedMessage());
+                response = TokenValidation.failed(sqle.getLocalizedMessage());
             }
             token.reply(response);
         });
@@ -92,9 +423,9 @@ public class DbWorkerVerticle extends AbstractVerticle {
      * Register a consume for token deletion events
      */
     private void listenForDeleteEvents() {
-        vertx.eventBus().consumer("proxy.delete.token", (Message<JsonObject> token) -> {
+        vertx.eventBus().localConsumer("proxy.delete.token", (Message<JsonObject> token) -> {
         	LOG.debug("Got delete token event: "+token.body());
-            DataSource ds = context.get("dbConnectionPool");
+            DataSource ds = SharedResources.get(vertx, "dbConnectionPool");
             JsonObject response = new JsonObject();
             try (   Connection c = ds.getConnection();
                 PreparedStatement s = c.prepareStatement("DELETE FROM user_tokens WHERE username=? AND token=?")) {
@@ -102,6 +433,7 @@ public class DbWorkerVerticle extends AbstractVerticle {
                 s.setString(2, token.body().getString("token"));
                 if (s.executeUpdate()==1) {
                     response.put("success", "true");
+                    vertx.eventBus().publish("proxy.token.invalidate", TokenInvalidation.ofToken(token.body().getString("token")));
                 } else {
                     response.put("error", "Unknown error");
                 }
@@ -113,59 +445,44 @@ public class DbWorkerVerticle extends AbstractVerticle {
     }
 
     /**
-     * Register a consumer for token list events.
+     * Register a consumer for token list events. The request carries the {@code username}, the token to continue
+     * {@code after} and the page size in {@code limit}; the page is streamed back with {@link RowStream}.
      */
     private void listenForTokenListEvent() {
-        vertx.eventBus().consumer("proxy.token.list", (Message<String> msg) -> {
+        vertx.eventBus().localConsumer("proxy.token.list", (Message<JsonObject> msg) -> {
         	LOG.debug("Got list tokens event: "+msg.body());
-            DataSource ds = context.get("dbConnectionPool");
-            JsonObject response = new JsonObject();
-            String username = msg.body();
-            try (   Connection c = ds.getConnection();
-                    PreparedStatement s = c.prepareStatement("SELECT token FROM user_token WHERE username=?")) {
-                s.setString(1, username);
-                try (ResultSet r = s.executeQuery()) {
-                    r.beforeFirst();
-                    response.put("username", username);
-                    JsonArray tokens = new JsonArray();
-                    while (r.next()) {
-                        tokens.add(r.getString(1));
-                    }
-                    response.put("tokens", tokens);
-                } catch (SQLException sqle) {
-                    response.put("error", sqle.getLocalizedMessage());
-                }
+            DataSource ds = SharedResources.get(vertx, "dbConnectionPool");
+            int limit = msg.body().getInteger("limit");
+            List<String> page;
+            try {
+                page = readPage(ds, "SELECT token FROM user_tokens WHERE username=? AND token>? ORDER BY token LIMIT ?",
+                                limit, msg.body().getString("username"), msg.body().getString("after", ""));
             } catch (SQLException sqle) {
-                response.put("error", sqle.getLocalizedMessage());
+                msg.reply(new JsonObject().put("error", sqle.getLocalizedMessage()));
+                return;
             }
-            msg.reply(response);
+            new RowStream(page, limit, ackOptions).send(msg);
         });
     }
 
     /**
-     * Register a consumer to listen for user list events
+     * Register a consumer to listen for user list events. The request carries the user to continue {@code after} and
+     * the page size in {@code limit}; the page is streamed back with {@link RowStream}.
      */
     private void listenForUserListEvent() {
-        vertx.eventBus().consumer("proxy.user.list", (Message<Void> msg) -> {
+        vertx.eventBus().localConsumer("proxy.user.list", (Message<JsonObject> msg) -> {
         	LOG.debug("Got user list event: "+msg.body());
-            DataSource ds = context.get("dbConnectionPool");
-            JsonObject response = new JsonObject();
-            try (   Connection c = ds.getConnection();
-                    PreparedStatement s = c.prepareStatement("SELECT DISTINCT user FROM user_token")) {
-                try (ResultSet r = s.executeQuery()) {
-                    r.beforeFirst();
-                    JsonArray users = new JsonArray();
-                    while (r.next()) {
-                        users.add(r.getString(1));
-                    }
-                    response.put("users", users);
-                } catch (SQLException sqle) {
-                    response.put("error", sqle.getLocalizedMessage());
-                }
+            DataSource ds = SharedResources.get(vertx, "dbConnectionPool");
+            int limit = msg.body().getInteger("limit");
+            List<String> page;
+            try {
+                page = readPage(ds, "SELECT DISTINCT username FROM user_tokens WHERE username>? ORDER BY username LIMIT ?",
+                                limit, msg.body().getString("after", ""));
             } catch (SQLException sqle) {
-                response.put("error", sqle.getLocalizedMessage());
+                msg.reply(new JsonObject().put("error", sqle.getLocalizedMessage()));
+                return;
             }
-            msg.reply(response);
+            new RowStream(page, limit, ackOptions).send(msg);
         });
     }
 
@@ -173,16 +490,17 @@ public class DbWorkerVerticle extends AbstractVerticle {
      * Register a consumer ti listen for user delete events
      */
     private void listenForUserDeleteEvent() {
-        vertx.eventBus().consumer("proxy.user.delete", (Message<String> msg) -> {
+        vertx.eventBus().localConsumer("proxy.user.delete", (Message<String> msg) -> {
         	LOG.debug("Got user delete event: "+msg.body());
-            DataSource ds = context.get("dbConnectionPool");
+            DataSource ds = SharedResources.get(vertx, "dbConnectionPool");
             JsonObject response = new JsonObject();
             String username = msg.body();
             try (   Connection c = ds.getConnection();
-                    PreparedStatement s = c.prepareStatement("DELETE FROM user_token WHERE username=?")) {
+                    PreparedStatement s = c.prepareStatement("DELETE FROM user_tokens WHERE username=?")) {
                 s.setString(1, username);
                 if (s.executeUpdate()>0) {
                     response.put("success", "true");
+                    vertx.eventBus().publish("proxy.token.invalidate", TokenInvalidation.ofUser(username));
                 } else {
                     response.put("error", String.format("No tokens for user '%s' found.", username));
                 }
@@ -192,4 +510,81 @@ public class DbWorkerVerticle extends AbstractVerticle {
             msg.reply(response);
         });
     }
+
+    /**
+     * Read one page of a single-column query into memory, so the connection goes back to the pool before the page is
+     * streamed to the requester
+     * @param ds The connection pool
+     * @param sql The query, whose last parameter is the page size
+     * @param limit The page size
+     * @param values The values of the other parameters of the query, in order
+     * @return The rows of the page
+     * @throws SQLException If the query failed
+     */
+    private static List<String> readPage(DataSource ds, String sql, int limit, String... values) throws SQLException {
+        List<String> page = new ArrayList<>(limit);
+        try (   Connection c = ds.getConnection();
+                PreparedStatement s = c.prepareStatement(sql)) {
+            for (int i=0; i<values.length; i++) {
+                s.setString(i+1, values[i]);
+            }
+            s.setInt(values.length+1, limit);
+            s.setFetchSize(limit);
+            try (ResultSet r = s.executeQuery()) {
+                while (r.next()) {
+                    page.add(r.getString(1));
+                }
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Streams one page of single-column query results to the sender of a message in chunks of {@link #CHUNK_ROWS}
+     * rows. Every chunk is a reply of the form {@code {"items":[...], "more":true}}; the requester replies
+     * {@code true} to it once it is ready for the next chunk, or {@code false} to cancel. The last chunk has no
+     * {@code more} flag and carries the cursor for the next page in {@code next} if the page was full. The page has
+     * already been read by {@link #readPage(DataSource, String, int, String...)}, so no connection is held while
+     * waiting for the requester.
+     */
+    private static class RowStream {
+        private static final int CHUNK_ROWS = 100;
+
+        private final List<String> page;
+        private final int limit;
+        private final DeliveryOptions ackOptions;
+        private int rows = 0;
+
+        private RowStream(List<String> page, int limit, DeliveryOptions ackOptions) {
+            this.page = page;
+            this.limit = limit;
+            this.ackOptions = ackOptions;
+        }
+
+        /**
+         * Reply to a message with the next chunk of rows
+         * @param msg The request, or the requester's reply to the previous chunk
+         */
+        private void send(Message<?> msg) {
+            JsonObject chunk = new JsonObject();
+            JsonArray items = new JsonArray();
+            while (items.size()<CHUNK_ROWS && rows<page.size()) {
+                items.add(page.get(rows++));
+            }
+            chunk.put("items", items);
+            if (rows>=page.size()) {
+                if (page.size()>=limit && !page.isEmpty()) {
+                    chunk.put("next", page.get(page.size()-1));
+                }
+                msg.reply(chunk);
+            } else {
+                chunk.put("more", Boolean.TRUE);
+                msg.reply(chunk, ackOptions, (AsyncResult<Message<Boolean>> ack) -> {
+                    if (ack.succeeded() && Boolean.TRUE.equals(ack.result().body())) {
+                        send(ack.result());
+                    }
+                });
+            }
+        }
+    }
 }
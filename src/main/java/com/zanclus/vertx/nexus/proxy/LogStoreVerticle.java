@@ -0,0 +1,466 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.impl.LoggerFactory;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A token store which keeps every token in memory and persists changes to a memory-mapped, append-only
+ * {@link TokenLog}. It answers on the same {@code proxy.*} addresses as {@link DbWorkerVerticle} and is used instead
+ * of it when the {@code tokenStore} option is set to {@code log}. It runs on an event loop; no request ever blocks.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class LogStoreVerticle extends AbstractVerticle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogStoreVerticle.class);
+    private static final long EXPIRY_TICK = 1000L;
+
+    private final Map<String, String> tokens = new HashMap<>();
+    private final TreeMap<String, TreeSet<String>> userTokens = new TreeMap<>();
+    /**
+     * Use count and last use of each token. Kept in memory only, so it starts over when the process restarts.
+     */
+    private final Map<String, long[]> usage = new HashMap<>();
+    /**
+     * When each token which expires does so, in milliseconds since the epoch
+     */
+    private final Map<String, Long> expiries = new HashMap<>();
+    private final TimingWheel<String> expiring = new TimingWheel<>(EXPIRY_TICK, 4096);
+    private TokenLog log;
+
+    @Override
+    public void start() throws Exception {
+        MessageCodecs.register(vertx);
+        log = new TokenLog(config().getString("tokenLogPath"));
+        log.open(this::apply);
+        LOG.info("Loaded "+tokens.size()+" tokens from "+config().getString("tokenLogPath"));
+
+        // Delete tokens as they expire; those which expired while the process was down go with the first tick
+        vertx.setPeriodic(EXPIRY_TICK, id -> expiring.advance(System.currentTimeMillis(), this::expire));
+
+        // Flush the mapped pages to disk in the background
+        vertx.setPeriodic(config().getLong("tokenLogSyncInterval"), id ->
+            vertx.executeBlocking((Future<Void> f) -> {
+                log.force();
+                f.complete();
+            }, res -> {})
+        );
+
+        listenForValidationEvents();
+        listenForNewTokenEvents();
+        listenForDeleteEvents();
+        listenForTokenListEvent();
+        listenForUserDeleteEvent();
+        listenForUserListEvent();
+        listenForBulkEvents();
+        listenForUsageEvents();
+        listenForUsageListEvent();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        log.close();
+    }
+
+    /**
+     * Apply a log record to the in-memory index
+     * @param type The record type
+     * @param username The user
+     * @param token The token, null for {@link TokenLog#DELETE_USER}
+     * @param expires When the token expires, only set for {@link TokenLog#ADD_EXPIRING_TOKEN}
+     */
+    private void apply(byte type, String username, String token, long expires) {
+        if (username.isEmpty() || (type!=TokenLog.DELETE_USER && token.isEmpty())) {
+            // Written by versions which did not reject empty strings
+            LOG.warn("Ignoring token log record of type "+type+" with an empty username or token");
+            return;
+        }
+        switch (type) {
+            case TokenLog.ADD_EXPIRING_TOKEN:
+                expiries.put(token, expires);
+                expiring.schedule(token, expires);
+                // Fall through
+            case TokenLog.ADD_TOKEN:
+                tokens.put(token, username);
+                userTokens.computeIfAbsent(username, u -> new TreeSet<>()).add(token);
+                break;
+            case TokenLog.DELETE_TOKEN:
+                tokens.remove(token);
+                usage.remove(token);
+                forget(token);
+                Set<String> owned = userTokens.get(username);
+                if (owned!=null && owned.remove(token) && owned.isEmpty()) {
+                    userTokens.remove(username);
+                }
+                break;
+            case TokenLog.DELETE_USER:
+                Set<String> removed = userTokens.remove(username);
+                if (removed!=null) {
+                    removed.forEach(tokens::remove);
+                    removed.forEach(usage::remove);
+                    removed.forEach(this::forget);
+                }
+                break;
+            default:
+                LOG.warn("Ignoring unknown token log record type "+type);
+        }
+    }
+
+    private void forget(String token) {
+        if (expiries.remove(token)!=null) {
+            expiring.cancel(token);
+        }
+    }
+
+    /**
+     * Delete a token whose deadline has passed on the {@link TimingWheel}
+     * @param token The token
+     */
+    private void expire(String token) {
+        String username = tokens.get(token);
+        if (username==null) {
+            return;
+        }
+        try {
+            write(TokenLog.DELETE_TOKEN, username, token);
+            vertx.eventBus().publish("proxy.token.invalidate", TokenInvalidation.ofToken(token));
+        } catch (IOException ioe) {
+            // Validation still rejects it; try again on the next tick
+            LOG.warn("Unable to delete expired token", ioe);
+            expiring.schedule(token, expiries.get(token));
+        }
+    }
+
+    /**
+     * @param ttl The lifetime requested for a token in milliseconds, or null for {@code tokenTtl}
+     * @return The lifetime of a new token in milliseconds, 0 if it never expires
+     */
+    private long lifetime(Long ttl) {
+        return ttl!=null ? ttl : config().getLong("tokenTtl");
+    }
+
+    /**
+     * Issue and store a new token
+     * @param username The user
+     * @param lifetime The number of milliseconds until the token expires, 0 if it never does
+     * @param result Receives the {@code token}, and its {@code expires} if it expires
+     * @throws IOException If the token could not be written
+     */
+    private void create(String username, long lifetime, JsonObject result) throws IOException {
+        String token = TokenSigner.get(vertx, config()).issue(username, lifetime);
+        if (lifetime>0) {
+            long expires = System.currentTimeMillis()+lifetime;
+            write(TokenLog.ADD_EXPIRING_TOKEN, username, token, expires);
+            result.put("token", token).put("expires", expires);
+        } else {
+            write(TokenLog.ADD_TOKEN, username, token, 0L);
+            result.put("token", token);
+        }
+    }
+
+    /**
+     * Append a record to the log and apply it to the in-memory index, compacting the log if most of it is superseded
+     * @param type The record type
+     * @param username The user
+     * @param token The token, null for {@link TokenLog#DELETE_USER}
+     * @throws IOException If the record could not be written
+     */
+    private void write(byte type, String username, String token) throws IOException {
+        write(type, username, token, 0L);
+    }
+
+    /**
+     * Append a record to the log and apply it to the in-memory index, compacting the log if most of it is superseded
+     * @param type The record type
+     * @param username The user
+     * @param token The token, null for {@link TokenLog#DELETE_USER}
+     * @param expires When the token expires, only used for {@link TokenLog#ADD_EXPIRING_TOKEN}
+     * @throws IOException If the record could not be written
+     */
+    private void write(byte type, String username, String token, long expires) throws IOException {
+        log.append(type, username, token, expires);
+        apply(type, username, token, expires);
+        growLog();
+        if (log.getRecords()>=config().getInteger("tokenLogCompactThreshold") && log.getRecords()>2*tokens.size()) {
+            compactLog();
+        }
+    }
+
+    /**
+     * Grow the mapping of the log on a worker thread before it fills up
+     */
+    private void growLog() {
+        TokenLog.Growth growth = log.startGrowth();
+        if (growth==null) {
+            return;
+        }
+        vertx.executeBlocking((Future<Void> f) -> {
+            try {
+                growth.map();
+                f.complete();
+            } catch (IOException ioe) {
+                f.fail(ioe);
+            }
+        }, res -> {
+            if (res.failed()) {
+                // Appending grows it on the spot if it fills up anyway
+                LOG.warn("Unable to grow the token log", res.cause());
+            }
+            log.finishGrowth(growth);
+        });
+    }
+
+    /**
+     * Rewrite the log with only the live tokens on a worker thread, and switch to it once it has been written
+     */
+    private void compactLog() {
+        TokenLog.Compaction compaction = log.startCompaction(tokens, expiries);
+        if (compaction==null) {
+            return;
+        }
+        LOG.info("Compacting token log from "+log.getRecords()+" to "+compaction.size()+" records");
+        vertx.executeBlocking((Future<Void> f) -> {
+            try {
+                compaction.write();
+                f.complete();
+            } catch (IOException ioe) {
+                f.fail(ioe);
+            }
+        }, res -> {
+            if (res.failed()) {
+                LOG.error("Unable to compact the token log", res.cause());
+                log.abortCompaction(compaction);
+                return;
+            }
+            try {
+                log.finishCompaction(compaction);
+            } catch (IOException ioe) {
+                LOG.error("Unable to replace the token log with its compacted copy", ioe);
+            }
+        });
+    }
+
+    /**
+     * Register a consumer for token creation events. The optional {@code ttl} header sets the lifetime of the token in
+     * milliseconds instead of {@code tokenTtl}.
+     */
+    private void listenForNewTokenEvents() {
+        vertx.eventBus().localConsumer("proxy.create.token", (Message<String> msg) -> {
+        	LOG.debug("Got create token event: "+msg.body());
+            JsonObject response = new JsonObject();
+            String username = msg.body();
+            String ttl = msg.headers().get("ttl");
+            try {
+                create(username, lifetime(ttl!=null ? Long.valueOf(ttl) : null), response);
+                response.put("username", username);
+            } catch (IOException | IllegalArgumentException ioe) {
+                response.put("error", ioe.getLocalizedMessage());
+            }
+            msg.reply(response);
+        });
+    }
+
+    /**
+     * Register a consumer for bulk token administration events, with the same request and reply format as
+     * {@link DbWorkerVerticle}. The operations are appended to the log one after the other; the log is flushed as
+     * usual by the periodic sync.
+     */
+    private void listenForBulkEvents() {
+        vertx.eventBus().localConsumer("proxy.token.bulk", (Message<JsonObject> msg) -> {
+        	LOG.debug("Got bulk token event");
+            String malformed = TokenRequests.checkBulk(msg.body().getValue("operations"));
+            if (malformed!=null) {
+                msg.fail(TokenRequests.MALFORMED, malformed);
+                return;
+            }
+            JsonArray results = new JsonArray();
+            for (Object item : msg.body().getJsonArray("operations")) {
+                JsonObject op = (JsonObject)item;
+                String username = op.getString("username");
+                String token = op.getString("token");
+                JsonObject result = new JsonObject().put("op", op.getString("op")).put("username", username);
+                try {
+                    if (username==null) {
+                        result.put("error", "Missing username");
+                    } else if ("create".equals(op.getString("op"))) {
+                        create(username, lifetime(op.getLong("ttl")), result);
+                        result.put("success", "true");
+                    } else if ("delete".equals(op.getString("op")) && token!=null) {
+                        result.put("token", token);
+                        if (username.equals(tokens.get(token))) {
+                            write(TokenLog.DELETE_TOKEN, username, token);
+                            result.put("success", "true");
+                            vertx.eventBus().publish("proxy.token.invalidate", TokenInvalidation.ofToken(token));
+                        } else {
+                            result.put("error", "Unknown token");
+                        }
+                    } else {
+                        result.put("error", "Unsupported operation");
+                    }
+                } catch (IOException | IllegalArgumentException ioe) {
+                    result.remove("success");
+                    result.put("error", ioe.getLocalizedMessage());
+                }
+                results.add(result);
+            }
+            msg.reply(new JsonObject().put("results", results));
+        });
+    }
+
+    /**
+     * Register a consumer for token validation events, which replies with a {@link TokenValidation}
+     */
+    private void listenForValidationEvents() {
+        vertx.eventBus().localConsumer("proxy.validate.token", (Message<String> msg) -> {
+            String username = tokens.get(msg.body());
+            Long expires = expiries.get(msg.body());
+            if (username!=null && expires==null) {
+                msg.reply(TokenValidation.valid(username, 0L));
+            } else if (username!=null && expires>System.currentTimeMillis()) {
+                msg.reply(TokenValidation.valid(username, expires));
+            } else if (username!=null) {
+                // The wheel has not come around to it yet
+                msg.reply(TokenValidation.unknown("Token expired"));
+            } else {
+                msg.reply(TokenValidation.unknown("Unknown token"));
+            }
+        });
+    }
+
+    /**
+     * Register a consumer for token deletion events
+     */
+    private void listenForDeleteEvents() {
+        vertx.eventBus().localConsumer("proxy.delete.token", (Message<JsonObject> msg) -> {
+        	LOG.debug("Got delete token event: "+msg.body());
+            JsonObject response = new JsonObject();
+            String username = msg.body().getString("username");
+            String token = msg.body().getString("token");
+            if (token!=null && username!=null && username.equals(tokens.get(token))) {
+                try {
+                    write(TokenLog.DELETE_TOKEN, username, token);
+                    response.put("success", "true");
+                    vertx.eventBus().publish("proxy.token.invalidate", TokenInvalidation.ofToken(token));
+                } catch (IOException ioe) {
+                    response.put("error", ioe.getLocalizedMessage());
+                }
+            } else {
+                response.put("error", "Unknown error");
+            }
+            msg.reply(response);
+        });
+    }
+
+    /**
+     * Register a consumer for token list events. Replies with one page of the user's tokens after {@code after}, in
+     * the same format as the last chunk streamed by {@link DbWorkerVerticle}.
+     */
+    private void listenForTokenListEvent() {
+        vertx.eventBus().localConsumer("proxy.token.list", (Message<JsonObject> msg) -> {
+        	LOG.debug("Got list tokens event: "+msg.body());
+            TreeSet<String> owned = userTokens.get(msg.body().getString("username"));
+            msg.reply(page(owned==null ? new TreeSet<>() : owned.tailSet(msg.body().getString("after", ""), false),
+                           msg.body().getInteger("limit")));
+        });
+    }
+
+    /**
+     * Register a consumer to listen for user list events. Replies with one page of the users after {@code after}.
+     */
+    private void listenForUserListEvent() {
+        vertx.eventBus().localConsumer("proxy.user.list", (Message<JsonObject> msg) -> {
+        	LOG.debug("Got user list event: "+msg.body());
+            msg.reply(page(userTokens.tailMap(msg.body().getString("after", ""), false).keySet(),
+                           msg.body().getInteger("limit")));
+        });
+    }
+
+    /**
+     * Register a consumer for batches of token usage counts, in the format of {@link TokenUsage#drain()}
+     */
+    private void listenForUsageEvents() {
+        vertx.eventBus().localConsumer("proxy.token.usage", (Message<JsonObject> msg) -> {
+            for (Object item : msg.body().getJsonArray("usage")) {
+                JsonObject used = (JsonObject)item;
+                if (tokens.containsKey(used.getString("token"))) {
+                    long[] counts = usage.computeIfAbsent(used.getString("token"), t -> new long[2]);
+                    counts[0] += used.getLong("count");
+                    counts[1] = Math.max(counts[1], used.getLong("lastUsed"));
+                }
+            }
+            msg.reply(new JsonObject().put("success", "true"));
+        });
+    }
+
+    /**
+     * Register a consumer for token usage list events. Replies with one page of the user's tokens after {@code after}
+     * with their use count and last use.
+     */
+    private void listenForUsageListEvent() {
+        vertx.eventBus().localConsumer("proxy.token.usage.list", (Message<JsonObject> msg) -> {
+            TreeSet<String> owned = userTokens.get(msg.body().getString("username"));
+            JsonObject page = page(owned==null ? new TreeSet<>() : owned.tailSet(msg.body().getString("after", ""), false),
+                                   msg.body().getInteger("limit"));
+            JsonArray items = new JsonArray();
+            for (Object token : page.getJsonArray("items")) {
+                long[] counts = usage.get((String)token);
+                JsonObject item = new JsonObject().put("token", token).put("count", counts==null ? 0L : counts[0]);
+                if (counts!=null) {
+                    item.put("lastUsed", counts[1]);
+                }
+                items.add(item);
+            }
+            msg.reply(page.put("items", items));
+        });
+    }
+
+    private static JsonObject page(Set<String> sorted, int limit) {
+        JsonArray items = new JsonArray();
+        String last = null;
+        for (String item : sorted) {
+            if (items.size()>=limit) {
+                break;
+            }
+            items.add(item);
+            last = item;
+        }
+        JsonObject page = new JsonObject().put("items", items);
+        if (items.size()>=limit) {
+            page.put("next", last);
+        }
+        return page;
+    }
+
+    /**
+     * Register a consumer to listen for user delete events
+     */
+    private void listenForUserDeleteEvent() {
+        vertx.eventBus().localConsumer("proxy.user.delete", (Message<String> msg) -> {
+        	LOG.debug("Got user delete event: "+msg.body());
+            JsonObject response = new JsonObject();
+            String username = msg.body();
+            if (username!=null && userTokens.containsKey(username)) {
+                try {
+                    write(TokenLog.DELETE_USER, username, null);
+                    response.put("success", "true");
+                    vertx.eventBus().publish("proxy.token.invalidate", TokenInvalidation.ofUser(username));
+                } catch (IOException ioe) {
+                    response.put("error", ioe.getLocalizedMessage());
+                }
+            } else {
+                response.put("error", String.format("No tokens for user '%s' found.", username));
+            }
+            msg.reply(response);
+        });
+    }
+}
@@ -1,30 +1,20 @@
 package com.zanclus.vertx.nexus.proxy;
 
-import static io.vertx.core.http.HttpMethod.DELETE;
-import static io.vertx.core.http.HttpMethod.GET;
-import static io.vertx.core.http.HttpMethod.POST;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.DeploymentOptions;
-import io.vertx.core.MultiMap;
+import io.vertx.core.Future;
 import io.vertx.core.Verticle;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
-import io.vertx.core.http.HttpClient;
-import io.vertx.core.http.HttpClientRequest;
-import io.vertx.core.http.HttpMethod;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.impl.LoggerFactory;
-import io.vertx.core.streams.Pump;
-import io.vertx.ext.apex.Router;
-import io.vertx.ext.apex.RoutingContext;
-import io.vertx.ext.apex.handler.SessionHandler;
-import io.vertx.ext.apex.handler.StaticHandler;
-import io.vertx.ext.apex.sstore.LocalSessionStore;
-import io.vertx.ext.apex.sstore.SessionStore;
 
+import java.io.IOException;
 import java.util.Map;
 
 import org.apache.commons.dbcp2.BasicDataSource;
@@ -33,7 +23,8 @@ import com.beust.jcommander.JCommander;
 import com.zanclus.vertx.nexus.proxy.config.Config;
 
 /**
- *
+ * Bootstraps the proxy: creates the shared database connection pool and deploys the worker verticles and the
+ * {@link ProxyVerticle} instances.
  * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
  */
 public class Main extends AbstractVerticle {
@@ -42,12 +33,30 @@ public class Main extends AbstractVerticle {
 
     private JsonObject cfg;
 
+    private BasicDataSource dataSource;
+
     public static void main(String[] args) {
         LOG.debug("Starting");
         JsonObject config = parseArguments(args);
         DeploymentOptions dOpts = new DeploymentOptions();
         dOpts.setConfig(config);
-        Vertx.vertx().deployVerticle(new Main(), dOpts);
+        if (config.getBoolean("clustered")) {
+            // Join the other proxy nodes so that sessions and token invalidation events are shared between them. The
+            // cluster manager is discovered from the classpath (Hazelcast by default).
+            VertxOptions vOpts = new VertxOptions()
+                                        .setClustered(true)
+                                        .setClusterHost(config.getString("clusterHost"))
+                                        .setClusterPort(config.getInteger("clusterPort"));
+            Vertx.clusteredVertx(vOpts, res -> {
+                if (res.succeeded()) {
+                    res.result().deployVerticle(new Main(), dOpts);
+                } else {
+                    LOG.error("Unable to join the cluster", res.cause());
+                }
+            });
+        } else {
+            Vertx.vertx().deployVerticle(new Main(), dOpts);
+        }
     }
 
     /**
@@ -68,18 +77,21 @@ public class Main extends AbstractVerticle {
     }
 
     /**
-     * Create a new instance of {@link BasicDataSource} for using an embedded HSQLDB for storing user->token mappings
+     * Create a new instance of {@link BasicDataSource} for storing user->token mappings. By default this is an embedded
+     * HSQLDB database in {@code dbPath}; nodes of a cluster set {@code dbUrl} to a database server which they all share.
      * @param config The application's JSON configuration object.
-     * @return An instance of {@link BasicDataSource} which connects to an embedded HSQLDB database engine
+     * @return An instance of {@link BasicDataSource} which connects to the token database
      */
     private BasicDataSource createDatabaseConnectionPool(JsonObject config) {
-        String url = "jdbc:hsqldb:file:"+config.getString("dbPath");
+        String url = config.getString("dbUrl");
         BasicDataSource ds = new BasicDataSource();
-        ds.addConnectionProperty("username", "SA");
-        ds.addConnectionProperty("password", "");
-        ds.addConnectionProperty("url", url);
-        ds.addConnectionProperty("driverClassName", "org.hsqldb.jdbc.JDBCDriver");
-        ds.addConnectionProperty("shutdown", "true");
+        ds.setDriverClassName(config.getString("dbDriver"));
+        ds.setUrl(url);
+        ds.setUsername(config.getString("dbUser"));
+        ds.setPassword(config.getString("dbPassword"));
+        if (url.startsWith("jdbc:hsqldb:file:")) {
+            ds.addConnectionProperty("shutdown", "true");
+        }
         ds.setMinIdle(config.getInteger("minDbConnections"));
         ds.setMaxTotal(config.getInteger("maxDbConnections"));
         ds.setTimeBetweenEvictionRunsMillis(60000);
@@ -87,302 +99,242 @@ public class Main extends AbstractVerticle {
     }
 
     /**
-     * The main {@link Verticle} for this proxy application.
-     * @throws Exception
+     * Create the shared {@link ArtifactCache} and index its contents in the background. Until indexing has finished,
+     * previously cached artifacts are simply fetched from Nexus again.
+     * @param config The application's JSON configuration object.
      */
-    @Override
-    public void start() throws Exception {
-    	this.cfg = context.config();
-        LOG.error("Config:\n\n"+cfg.encodePrettily()+"\n\n");
-        context.put("dbConnectionPool", createDatabaseConnectionPool(cfg));
-
-        // Deploy database worker verticle
-        final DeploymentOptions workerOpts = new DeploymentOptions().setWorker(true).setMultiThreaded(true);
-        vertx.deployVerticle(new DbWorkerVerticle(), workerOpts, res0 -> {
-        	LOG.debug("Deployed DbWorkerVerticle");
-            
-            // After the database worker verticle is loaded, load the BasicAuthVerticle
-            vertx.deployVerticle(new BasicAuthVerticle(), workerOpts, res1 -> {
-            	LOG.debug("Deployed BasicAuthVerticle");
-                configureHttpRequestRouter();
-            });
+    private void createArtifactCache(JsonObject config) {
+        ArtifactCache cache = new ArtifactCache(
+                                    vertx,
+                                    config.getString("artifactCachePath"),
+                                    config.getLong("artifactCacheMaxBytes"),
+                                    config.getString("artifactCacheRepositories"));
+        vertx.executeBlocking((Future<Void> future) -> {
+            try {
+                cache.load();
+                future.complete();
+            } catch (IOException ioe) {
+                future.fail(ioe);
+            }
+        }, res -> {
+            if (res.succeeded()) {
+                SharedResources.put(vertx, "artifactCache", cache);
+            } else {
+                LOG.error("Unable to initialize the artifact cache, artifacts will not be cached", res.cause());
+            }
         });
     }
 
     /**
-     * Send an event on the event bus to get a user list and reply via HTTP and JSON
-     * @param ctx The {@link RoutingContext} of the request
+     * Create the {@link AccessLog} and start its writer thread before any {@link ProxyVerticle} is deployed, so every
+     * instance finds it in the {@link SharedResources}.
+     * @param config The application's JSON configuration object.
+     * @throws IOException If the log file cannot be opened
      */
-    public void getUserList(RoutingContext ctx) {
-        UserInfo info = this.processAuth((JsonObject)ctx.session().data().get("user_info"));
-        if (info.isAdmin()) {
-            vertx.eventBus().send("proxy.user.list", null, (AsyncResult<Message<JsonObject>> reply) -> {
-                ctx .response()
-                    .setStatusCode(200)
-                    .putHeader("Content-Type", "application/json")
-                    .end(reply.result().body().encodePrettily());
-            });
-        } else {
-            ctx.response().setStatusCode(401).setStatusMessage("Must be admin to list users.").end();
-        }
+    private void createAccessLog(JsonObject config) throws IOException {
+        AccessLog accessLog = new AccessLog(
+                                    config.getString("accessLogPath"),
+                                    config.getString("accessLogFormat"),
+                                    config.getInteger("accessLogBufferSize"),
+                                    config.getLong("accessLogFlushInterval"),
+                                    config.getLong("accessLogMaxBytes"),
+                                    config.getInteger("accessLogMaxFiles"));
+        accessLog.start();
+        SharedResources.put(vertx, "accessLog", accessLog);
+        ProxyMetrics metrics = ProxyMetrics.get(vertx);
+        metrics.gauge("nexus_proxy_access_log_pending_records", "Access log records waiting to be written",
+                accessLog::getPending);
+        metrics.gauge("nexus_proxy_access_log_dropped_records", "Access log records dropped because the buffer was full",
+                accessLog::getDropped);
     }
 
     /**
-     * Send an event on the event bus to get a user and reply via HTTP and JSON
-     * @param ctx The {@link RoutingContext} of the request
+     * Write the token usage counted by the {@link ProxyVerticle} instances to the token store every
+     * {@code usageFlushInterval} milliseconds, in one batch. Counts which could not be written are kept for the next
+     * attempt.
+     * @param config The application's JSON configuration object.
      */
-    public void getUser(RoutingContext ctx) {
-        UserInfo info = this.processAuth((JsonObject)ctx.session().data().get("user_info"));
-        String username = ctx.request().params().get("username");
-        if (info.isAdmin() || (info.isAuthenticated() && info.username.contentEquals(username))) {
-            vertx.eventBus().send("proxy.user.list", null, (AsyncResult<Message<JsonObject>> reply) -> {
-                ctx .response()
-                    .setStatusCode(200)
-                    .putHeader("Content-Type", "application/json")
-                    .end(reply.result().body().encodePrettily());
+    private void startUsageTracking(JsonObject config) {
+        TokenUsage usage = TokenUsage.get(vertx);
+        DeliveryOptions opts = new DeliveryOptions().setSendTimeout(config.getLong("eventBusTimeout"));
+        vertx.setPeriodic(config.getLong("usageFlushInterval"), id -> {
+            JsonArray batch = usage.drain();
+            if (batch.isEmpty()) {
+                return;
+            }
+            vertx.eventBus().send("proxy.token.usage", new JsonObject().put("usage", batch), opts,
+                    (AsyncResult<Message<JsonObject>> reply) -> {
+                if (reply.failed() || reply.result().body().getString("error")!=null) {
+                    LOG.warn("Unable to write the usage of "+batch.size()+" tokens: "
+                            +(reply.failed() ? reply.cause().getMessage() : reply.result().body().getString("error")));
+                    usage.restore(batch);
+                }
             });
-        } else {
-            ctx.response().setStatusCode(401).setStatusMessage("Must be admin to view other users.").end();
-        }
+        });
     }
 
     /**
-     * Send an event on the event bus to delete all of a user's tokens and reply via HTTP and JSON
-     * @param ctx The {@link RoutingContext} of the request
-     */
-    public void deleteUser(RoutingContext ctx) {
-        UserInfo info = this.processAuth((JsonObject)ctx.session().data().get("user_info"));
-        String username = ctx.request().params().get("username");
-        if (info.isAdmin() || (info.isAuthenticated() && info.username.contentEquals(username))) {
-            vertx.eventBus().send("proxy.user.delete", null, (AsyncResult<Message<JsonObject>> reply) -> {
-                ctx .response()
-                    .setStatusCode(200)
-                    .putHeader("Content-Type", "application/json")
-                    .end(reply.result().body().encodePrettily());
-            });
-        } else {
-            ctx.response().setStatusCode(401).setStatusMessage("Must be admin to delete users.").end();
-        }
-    }
-    
-    /**
-     * Send an event on the event bus to delete a user token and reply via HTTP and JSON
-     * @param ctx The {@link RoutingContext} of the request
-     */
-    public void deleteToken(RoutingContext ctx) {
-        UserInfo info = this.processAuth((JsonObject)ctx.session().data().get("user_info"));
-        String username = ctx.request().params().get("username");
-        if (info.isAdmin() || (info.isAuthenticated() && info.username.contentEquals(username))) {
-            JsonObject params = new JsonObject()
-                    .put("username", info.getUsername())
-                    .put("token", ctx.request().params().get("token"));
-            vertx.eventBus().send("proxy.delete.token", params, (AsyncResult<Message<JsonObject>> reply) -> {
-                ctx .response()
-                    .setStatusCode(200)
-                    .putHeader("Content-Type", "application/json")
-                    .end(reply.result().body().encodePrettily());
-            });
-        } else {
-            ctx.response().setStatusCode(401).setStatusMessage("Must be admin to delete tokens from other users.").end();
-        }
-    }
-    
-    /**
-     * Send an event on the event bus to create a user token and reply via HTTP and JSON
-     * @param ctx The {@link RoutingContext} of the request
-     */
-    public void createToken(RoutingContext ctx) {
-        UserInfo info = this.processAuth((JsonObject)ctx.session().data().get("user_info"));
-        String username = ctx.request().params().get("username");
-        if (info.isAdmin() || (info.isAuthenticated() && info.username.contentEquals(username))) {
-            vertx.eventBus().send("proxy.delete.token", username, (AsyncResult<Message<JsonObject>> reply) -> {
-                ctx .response()
-                    .setStatusCode(200)
-                    .putHeader("Content-Type", "application/json")
-                    .end(reply.result().body().encodePrettily());
-            });
-        } else {
-            ctx.response().setStatusCode(401).setStatusMessage("Must be admin to create tokens for other users.").end();
-        }
-    }
-    
-    /**
-     * Make proxy requests to the Nexus server and set the REMOTE_USER header where appropriate.
-     * @param ctx The {@link RoutingContext} of the request
+     * Keep the shared {@link TokenRevocations} up to date with the tokens and users deleted on any node, and
+     * periodically forget revocations of tokens which have expired anyway.
+     * @param config The application's JSON configuration object.
      */
-    public void proxyNexus(RoutingContext ctx) {
-        // If some nefarious party tried to pass their own REMOTE_USER header, remove it here
-        ctx.request().headers().remove(cfg.getString("rutHeader"));
-        
-        // Only allow REMOTE_USER token auth for GET requests
-        if (GET.equals(ctx.request().method())) {
-        	final MultiMap hdrs = ctx.request().headers();
-            if (hdrs.get("Authorization")!=null && hdrs.get("Authorization").toLowerCase().contains("bearer")) {
-                String authHeader = hdrs.get("Authorization");
-                String credentials = authHeader.split(" ")[1];
-                // Verify bearer token and get associated user
-                vertx.eventBus().send("proxy.validate.token", credentials, (AsyncResult<Message<JsonObject>> event) -> {
-                    JsonObject result = event.result().body();
-                    if (result.getString("error")!=null) {
-                        LOG.warn(result.getString("error"));
-                        JsonObject error = new JsonObject()
-                                                    .put("error", Boolean.TRUE)
-                                                    .put("message", result.getString("error"));
-                        ctx.response()
-                                .setStatusCode(401)
-                                .setStatusMessage("Unauthorized: "+result.getString("error"))
-                                .putHeader("Content-Type", "application/json")
-                                .end(error.encodePrettily());
-                    } else {
-                        ctx.request().headers().add(cfg.getString("rutHeader"), result.getString("username"));
+    private void startTokenRevocations(JsonObject config) {
+        TokenSigner signer = TokenSigner.get(vertx, config);
+        TokenRevocations revocations = TokenRevocations.get(vertx, config);
+        vertx.eventBus().consumer("proxy.token.invalidate", (Message<TokenInvalidation> msg) -> {
+            String token = msg.body().getToken();
+            if (token!=null) {
+                try {
+                    TokenSigner.Claims claims = signer.verify(token);
+                    if (claims!=null) {
+                        revocations.revokeToken(token, claims.getExpires());
                     }
-                    sendProxyRequest(ctx);
-                });
-            } else {
-                ctx.request().headers().remove(cfg.getString("rutHeader"));
-                sendProxyRequest(ctx);
+                } catch (SecurityException se) {
+                    // Not a token we issued, so it can never be accepted anyway
+                }
             }
-        }
-    }
-
-    /**
-     * Send a request received by the proxy, forward it to the Nexus server, and send back the results
-     * @param ctx The {@link RoutingContext} of the request
-     */
-    private void sendProxyRequest(RoutingContext ctx) {
-        HttpClient client = vertx.createHttpClient();
-        LOG.error("Sending proxied request.");
-        HttpClientRequest clientReq = client.request(
-        										ctx.request().method(), 
-        										cfg.getInteger("targetPort"), 
-        										cfg.getString("targetHost"), 
-        										ctx.request().uri());
-        clientReq.headers().addAll(ctx.request().headers().remove("Host"));
-        clientReq.putHeader("Host",	cfg.getString(	"targetHost")
-        							+ ":" +cfg.getInteger("targetPort"));
-        if (	ctx.request().method().equals(POST) || 
-        		ctx.request().method().equals(HttpMethod.PUT)) {
-            if (ctx.request().headers().get("Content-Length")==null) {
-                clientReq.setChunked(true);
+            if (msg.body().getUsername()!=null) {
+                revocations.revokeUser(msg.body().getUsername());
             }
-        }
-        clientReq.handler(pResponse -> {
-          LOG.error("Getting response from target");
-          ctx.response().headers().addAll(pResponse.headers());
-          if (pResponse.headers().get("Content-Length") == null) {
-            ctx.response().setChunked(true);
-          }
-          ctx.response().setStatusCode(pResponse.statusCode());
-          ctx.response().setStatusMessage(pResponse.statusMessage());
-          Pump targetToProxy = Pump.pump(pResponse, ctx.response());
-          targetToProxy.start();
-          pResponse.endHandler(v -> ctx.response().end());
         });
-        Pump proxyToTarget = Pump.pump(ctx.request(), clientReq);
-        proxyToTarget.start();
-        ctx.request().endHandler(v -> clientReq.end());
+        vertx.setPeriodic(60000L, id -> revocations.sweep());
+        ProxyMetrics.get(vertx).gauge("nexus_proxy_revoked_tokens", "Signed tokens revoked since the process started",
+                revocations::size);
     }
 
     /**
-     * Configure the {@link Router} to route requests to the appropriate handlers.
-     */
-    private void configureHttpRequestRouter() {
-        // Create a session handler which uses cookies to maintain state across HTTP requests.
-        SessionStore store = LocalSessionStore.create(vertx);
-        SessionHandler sessionHandler = SessionHandler.create(store);
-        
-        // Create a Router which will route requeests to the appropriate haandlers
-        Router router = Router.router(vertx);
-        
-        // Attach the session handler to the Router
-        router.route().handler(sessionHandler);
-        
-        router.route(DELETE, "/nexus-proxy/api/user/:username/:token")
-				.handler(this::deleteToken);
-        
-        router.route(GET, "/nexus-proxy/api/user/:username")
-        		.handler(this::getUser);
-    	
-        router.route(DELETE, "/nexus-proxy/api/user/:username")
-				.handler(this::deleteUser);
-        
-        router.route(POST, "/nexus-proxy/api/user/:username")
-				.handler(this::createToken);
-        
-        router.route(GET, "/nexus-proxy/api/user")
-        		.handler(this::getUserList);
-
-        // Configure the various routes
-        StaticHandler sHandler = StaticHandler
-        							.create("webroot")
-        							.setDirectoryListing(false)
-        							.setIndexPage("index.html")
-        							.setFilesReadOnly(true)
-        							.setCachingEnabled(true)
-        							.setAlwaysAsyncFS(true);
-        router.route(GET, "/nexus-proxy/")
-        		.handler(sHandler)
-        		.failureHandler(ctx -> {
-        			String uri = ctx.request().uri();
-        			ctx.response().setStatusCode(404).setStatusMessage("Not Found").end("Requested resource '"+uri+"' was not found");
-        		});
-        
-        router.routeWithRegex("^/nexus/.*").handler(this::proxyNexus);
-        vertx.createHttpServer().requestHandler(router::accept).listen(cfg.getInteger("proxyPort"), cfg.getString("proxyHost"));
-    }
-
-    /**
-     * Check the user's authentication and return a {@link UserInfo} instance with the authorization information
-     * @param userInfo A {@link JsonObject} containing the Nexus supplied user information.
-     * @return An instance of {@link UserInfo} which is calculated from the user information from Nexus
+     * Create the shared rate limiters, admission control and token store circuit breaker used by the
+     * {@link ProxyVerticle} instances, export their state as metrics and periodically forget idle rate limit buckets.
+     * @param config The application's JSON configuration object.
      */
-    private UserInfo processAuth(JsonObject userInfo) {
-        UserInfo info = new UserInfo();
-        if (	userInfo!=null && 
-        		userInfo.getJsonObject("data")!=null && userInfo.getJsonObject("data").getString("userId")!=null) {
-            info.setUsername(userInfo.getJsonObject("data").getString("userId"));
-            if (userInfo.getJsonObject("data")!=null && userInfo.getJsonObject("data").getJsonArray("roles")!=null) {
-                JsonArray roles = userInfo.getJsonObject("data").getJsonArray("roles");
-                if (roles.contains("nx-admin")) {
-                    info.setAdmin(true);
-                }
-            }
-            info.setAuthenticated(true);
+    private void startAdmissionControl(JsonObject config) {
+        AdmissionControl admission = AdmissionControl.get(vertx, config);
+        RateLimiter tokenLimiter = RateLimiter.forTokens(vertx, config);
+        RateLimiter userLimiter = RateLimiter.forUsers(vertx, config);
+        ProxyMetrics metrics = ProxyMetrics.get(vertx);
+        metrics.gauge("nexus_proxy_upstream_inflight_requests", "Requests admitted to the Nexus server and still in flight",
+                admission::getInflight);
+        metrics.gauge("nexus_proxy_upstream_queued_requests", "Requests waiting to be admitted to the Nexus server",
+                admission::getQueued);
+        AdmissionControl uploads = AdmissionControl.forUploads(vertx, config);
+        metrics.gauge("nexus_proxy_upstream_inflight_uploads", "Uploads being streamed to the Nexus server",
+                uploads::getInflight);
+        CircuitBreaker storeCircuit = CircuitBreaker.forTokenStore(vertx, config);
+        metrics.gauge("nexus_proxy_token_store_circuit_state", "State of the token store's circuit breaker (0 closed, 1 open, 2 half open)",
+                () -> storeCircuit.getState().ordinal());
+        if (tokenLimiter.isEnabled() || userLimiter.isEnabled()) {
+            vertx.setPeriodic(60000L, id -> {
+                tokenLimiter.sweep();
+                userLimiter.sweep();
+            });
         }
-        
-        return info;
     }
 
     /**
-     * A Bean which contains information about a User
+     * The main {@link Verticle} for this proxy application.
+     * @throws Exception
      */
-    private class UserInfo {
-        private boolean authenticated = false;
-        private boolean admin = false;
-        private String username = null;
+    @Override
+    public void start() throws Exception {
+    	this.cfg = context.config();
+        LOG.error("Config:\n\n"+cfg.encodePrettily()+"\n\n");
+        // Before anything is sent on the event bus, so that every message can use its codec
+        MessageCodecs.register(vertx);
+        if (cfg.getBoolean("artifactCacheEnabled")) {
+            createArtifactCache(cfg);
+        }
+        SharedResources.getOrCreate(vertx, "upstreamBalancer", () -> new UpstreamBalancer(cfg))
+                       .startHealthChecks(vertx);
+        startAdmissionControl(cfg);
+        if (cfg.getBoolean("handle100Continue")) {
+            // Vert.x cannot answer "Expect: 100-continue" per request, only for every HTTP server in the JVM. The
+            // property is read when the first connection is accepted, which is after this point.
+            System.setProperty("vertx.handle100Continue", "true");
+        }
+        if (cfg.getBoolean("accessLogEnabled")) {
+            createAccessLog(cfg);
+        }
 
-        public String getUsername() {
-            return username;
+        if (cfg.getBoolean("usageTrackingEnabled")) {
+            startUsageTracking(cfg);
         }
 
-        public void setUsername(String username) {
-            this.username = username;
+        if (cfg.getBoolean("signedTokens")) {
+            if (cfg.getString("tokenSigningKey").isEmpty()) {
+                // A random key would invalidate every token on restart, and differ between nodes
+                throw new IllegalStateException("signedTokens requires a tokenSigningKey shared by all nodes");
+            }
+            startTokenRevocations(cfg);
         }
 
-        public boolean isAdmin() {
-            return admin;
+        if (cfg.getInteger("proxyTlsPort")>0 && cfg.getString("proxyTlsKeyStore").isEmpty()
+                && (cfg.getString("proxyTlsKeyPath").isEmpty() || cfg.getString("proxyTlsCertPath").isEmpty())) {
+            throw new IllegalStateException("proxyTlsPort requires a proxyTlsKeyStore, or a proxyTlsKeyPath and proxyTlsCertPath");
         }
 
-        public boolean isAuthenticated() {
-            return authenticated;
+        if (cfg.getBoolean("clustered") && "log".equals(cfg.getString("tokenStore"))) {
+            // Every node would answer from its own log, so a token created on one node would be unknown on the others
+            throw new IllegalStateException("The log token store cannot be shared between nodes, use a JDBC token store with dbUrl when clustered");
         }
 
-        public void setAdmin(boolean admin) {
-            this.admin = admin;
+        // Deploy the token store: either the JDBC based database worker verticle or the in-memory log store
+        final DeploymentOptions workerOpts = new DeploymentOptions().setConfig(cfg).setWorker(true).setMultiThreaded(true);
+        Verticle tokenStore;
+        DeploymentOptions storeOpts;
+        if ("log".equals(cfg.getString("tokenStore"))) {
+            tokenStore = new LogStoreVerticle();
+            storeOpts = new DeploymentOptions().setConfig(cfg);
+        } else {
+            dataSource = createDatabaseConnectionPool(cfg);
+            SharedResources.put(vertx, "dbConnectionPool", dataSource);
+            ProxyMetrics metrics = ProxyMetrics.get(vertx);
+            metrics.gauge("nexus_proxy_db_connections", "Connections in the JDBC connection pool, by state",
+                    dataSource::getNumActive, "state", "active");
+            metrics.gauge("nexus_proxy_db_connections", "Connections in the JDBC connection pool, by state",
+                    dataSource::getNumIdle, "state", "idle");
+            tokenStore = new DbWorkerVerticle();
+            storeOpts = workerOpts;
         }
+        vertx.deployVerticle(tokenStore, storeOpts, res0 -> {
+            if (res0.failed()) {
+                LOG.error("Failed to deploy the token store", res0.cause());
+                return;
+            }
+        	LOG.debug("Deployed "+tokenStore.getClass().getSimpleName());
+            
+            // After the token store is loaded, load the BasicAuthVerticle. It only makes non-blocking HTTP calls, so it
+            // runs on an event loop
+            vertx.deployVerticle(new BasicAuthVerticle(), new DeploymentOptions().setConfig(cfg), res1 -> {
+            	LOG.debug("Deployed BasicAuthVerticle");
 
-        public void setAuthenticated(boolean authenticated) {
-            this.authenticated = authenticated;
+                // Finally, deploy one instance of the HTTP front end per event loop
+                int instances = cfg.getInteger("proxyInstances");
+                DeploymentOptions proxyOpts = new DeploymentOptions()
+                                                    .setConfig(cfg)
+                                                    .setInstances(instances>0 ? instances : Runtime.getRuntime().availableProcessors());
+                vertx.deployVerticle(ProxyVerticle.class.getName(), proxyOpts, res2 -> {
+                    if (res2.failed()) {
+                        LOG.error("Failed to deploy ProxyVerticle", res2.cause());
+                    } else {
+                        LOG.debug("Deployed "+proxyOpts.getInstances()+" ProxyVerticle instances");
+                    }
+                });
+            });
+        });
+    }
+
+    /**
+     * Close the database connection pool when this {@link Verticle} is undeployed.
+     * @throws Exception
+     */
+    @Override
+    public void stop() throws Exception {
+        if (dataSource!=null) {
+            dataSource.close();
+        }
+        AccessLog accessLog = SharedResources.get(vertx, "accessLog");
+        if (accessLog!=null) {
+            accessLog.close();
         }
     }
 }
@@ -0,0 +1,87 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.JsonObject;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Registers the {@link MessageCodec}s of the immutable messages sent between the verticles. Within the JVM a message
+ * is passed by reference, with no copy and no serialization; only a message which crosses the wire to another node
+ * of a cluster is encoded, as JSON.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public final class MessageCodecs {
+
+    private static final String REGISTERED = "messageCodecs";
+
+    private MessageCodecs() {
+    }
+
+    /**
+     * Register the codecs as the default codecs of their message classes, unless that was already done for this
+     * {@link Vertx} instance. Every verticle sending or receiving the messages calls this when it starts, whichever
+     * way it was deployed.
+     * @param vertx The {@link Vertx} instance
+     */
+    public static void register(Vertx vertx) {
+        synchronized (MessageCodecs.class) {
+            if (SharedResources.get(vertx, REGISTERED)!=null) {
+                return;
+            }
+            vertx.eventBus().registerDefaultCodec(TokenValidation.class,
+                    new JsonCodec<>("tokenValidation", TokenValidation::toJson, TokenValidation::fromJson));
+            vertx.eventBus().registerDefaultCodec(TokenInvalidation.class,
+                    new JsonCodec<>("tokenInvalidation", TokenInvalidation::toJson, TokenInvalidation::fromJson));
+            SharedResources.put(vertx, REGISTERED, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * A codec for an immutable message class, which passes local messages by reference and encodes the others as
+     * a length-prefixed JSON object
+     * @param <T> The message class
+     */
+    private static class JsonCodec<T> implements MessageCodec<T, T> {
+        private final String name;
+        private final Function<T, JsonObject> toJson;
+        private final Function<JsonObject, T> fromJson;
+
+        private JsonCodec(String name, Function<T, JsonObject> toJson, Function<JsonObject, T> fromJson) {
+            this.name = name;
+            this.toJson = toJson;
+            this.fromJson = fromJson;
+        }
+
+        @Override
+        public void encodeToWire(Buffer buffer, T message) {
+            byte[] encoded = toJson.apply(message).encode().getBytes(StandardCharsets.UTF_8);
+            buffer.appendInt(encoded.length);
+            buffer.appendBytes(encoded);
+        }
+
+        @Override
+        public T decodeFromWire(int pos, Buffer buffer) {
+            int length = buffer.getInt(pos);
+            return fromJson.apply(new JsonObject(buffer.getString(pos+4, pos+4+length, StandardCharsets.UTF_8.name())));
+        }
+
+        @Override
+        public T transform(T message) {
+            // Immutable, so the receiver can have the sender's instance
+            return message;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public byte systemCodecID() {
+            return -1;
+        }
+    }
+}
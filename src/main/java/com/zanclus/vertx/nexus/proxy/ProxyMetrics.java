@@ -0,0 +1,190 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.Vertx;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A small registry of counters, gauges and latency histograms which renders them in the Prometheus text exposition
+ * format. Recording a value never takes a lock: counters and histogram buckets are {@link LongAdder}s, so the hot
+ * paths on different event loops do not contend with each other. One instance is shared by every verticle, see
+ * {@link #get(Vertx)}.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class ProxyMetrics {
+
+    /**
+     * Upper bounds of the histogram buckets, in seconds
+     */
+    private static final double[] BUCKETS = {
+        0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0, 30.0
+    };
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param vertx The {@link Vertx} instance
+     * @return The {@link ProxyMetrics} shared by all verticles of the {@link Vertx} instance
+     */
+    public static ProxyMetrics get(Vertx vertx) {
+        return SharedResources.getOrCreate(vertx, "metrics", ProxyMetrics::new);
+    }
+
+    /**
+     * Get or create a counter
+     * @param name The metric name
+     * @param help The description of the metric
+     * @param labels The label names and values, as alternating elements
+     * @return The counter
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder)family(name, help, "counter").metrics.computeIfAbsent(labels(labels), l -> new LongAdder());
+    }
+
+    /**
+     * Register a gauge whose value is read when the metrics are rendered
+     * @param name The metric name
+     * @param help The description of the metric
+     * @param value Supplies the current value
+     * @param labels The label names and values, as alternating elements
+     */
+    public void gauge(String name, String help, Supplier<Number> value, String... labels) {
+        family(name, help, "gauge").metrics.put(labels(labels), value);
+    }
+
+    /**
+     * Get or create a latency histogram
+     * @param name The metric name
+     * @param help The description of the metric
+     * @param labels The label names and values, as alternating elements
+     * @return The histogram
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram)family(name, help, "histogram").metrics.computeIfAbsent(labels(labels), l -> new Histogram());
+    }
+
+    /**
+     * Render every metric in the Prometheus text exposition format (version 0.0.4)
+     * @return The rendered metrics
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                Object value = metric.getValue();
+                if (value instanceof Histogram) {
+                    ((Histogram)value).render(out, name, labels);
+                } else if (value instanceof LongAdder) {
+                    sample(out, name, labels, ((LongAdder)value).sum());
+                } else {
+                    sample(out, name, labels, ((Supplier<?>)value).get());
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric "+name+" is already registered as a "+family.type);
+        }
+        return family;
+    }
+
+    private static String labels(String... labels) {
+        if (labels.length==0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i+1<labels.length; i+=2) {
+            if (sb.length()>0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"")
+              .append(labels[i+1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+              .append('"');
+        }
+        return sb.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, Object value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * All metrics sharing a name
+     */
+    private static class Family {
+        private final String help;
+        private final String type;
+        private final Map<String, Object> metrics = new ConcurrentHashMap<>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * A fixed-bucket latency histogram
+     */
+    public static class Histogram {
+        private final LongAdder[] counts = new LongAdder[BUCKETS.length+1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram() {
+            for (int i=0; i<counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Record a duration
+         * @param nanos The duration in nanoseconds
+         */
+        public void record(long nanos) {
+            double seconds = nanos/1e9;
+            int i = 0;
+            while (i<BUCKETS.length && seconds>BUCKETS[i]) {
+                i++;
+            }
+            counts[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * Record the time elapsed since a starting point
+         * @param startNanos A value of {@link System#nanoTime()}
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime()-startNanos);
+        }
+
+        private void render(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "" : labels+",";
+            long cumulative = 0L;
+            for (int i=0; i<BUCKETS.length; i++) {
+                cumulative += counts[i].sum();
+                sample(out, name+"_bucket", prefix+"le=\""+BUCKETS[i]+"\"", cumulative);
+            }
+            cumulative += counts[BUCKETS.length].sum();
+            sample(out, name+"_bucket", prefix+"le=\"+Inf\"", cumulative);
+            sample(out, name+"_sum", labels, sumNanos.sum()/(double)TimeUnit.SECONDS.toNanos(1));
+            sample(out, name+"_count", labels, cumulative);
+        }
+    }
+}
@@ -0,0 +1,1783 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import static io.vertx.core.http.HttpMethod.DELETE;
+import static io.vertx.core.http.HttpMethod.GET;
+import static io.vertx.core.http.HttpMethod.POST;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Verticle;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.impl.LoggerFactory;
+import io.vertx.core.net.JksOptions;
+import io.vertx.core.net.PemKeyCertOptions;
+import io.vertx.core.streams.Pump;
+import io.vertx.ext.apex.Router;
+import io.vertx.ext.apex.RoutingContext;
+import io.vertx.ext.apex.handler.BodyHandler;
+import io.vertx.ext.apex.handler.SessionHandler;
+import io.vertx.ext.apex.handler.StaticHandler;
+import io.vertx.ext.apex.sstore.ClusteredSessionStore;
+import io.vertx.ext.apex.sstore.LocalSessionStore;
+import io.vertx.ext.apex.sstore.SessionStore;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The HTTP front end of the proxy. Handles the management API and proxies requests to the Nexus server.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class ProxyVerticle extends AbstractVerticle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProxyVerticle.class);
+
+    private static final String SESSION_MAP = "nexus.proxy.sessions";
+
+    /**
+     * {@link RoutingContext} key of the time spent on the upstream request, for the {@link AccessLog}
+     */
+    private static final String UPSTREAM_NANOS = "nexus.proxy.upstreamNanos";
+
+    /**
+     * {@link RoutingContext} key of the number of body bytes sent for a chunked response, for the {@link AccessLog}
+     */
+    private static final String BYTES_SENT = "nexus.proxy.bytesSent";
+
+    /**
+     * {@link RoutingContext} key of the {@link ChecksumCache} key of the artifact whose checksum file is being fetched
+     * to verify the digests computed by the proxy
+     */
+    private static final String CHECKSUM_VERIFY = "nexus.proxy.checksumVerify";
+
+    /**
+     * The largest checksum file read for verification; a SHA-1 file is 40 hex digits plus an optional file name
+     */
+    private static final int MAX_CHECKSUM_FILE = 1024;
+
+    /**
+     * The request headers the Nexus server may choose the representation of a response by
+     */
+    private static final String[] NEGOTIATION_HEADERS = {"Accept", "Accept-Encoding", "Accept-Language"};
+
+    private JsonObject cfg;
+
+    private HttpClient upstreamClient;
+
+    private TokenCache tokenCache;
+
+    private ValidatorCache validatorCache;
+
+    private ChecksumCache checksumCache;
+
+    // Published once the cache has been indexed, see artifactCache()
+    private ArtifactCache artifactCache;
+
+    private AccessLog accessLog;
+
+    private TokenSigner tokenSigner;
+
+    private TokenRevocations revocations;
+
+    private TokenUsage tokenUsage;
+
+    private UpstreamBalancer balancer;
+
+    private AdmissionControl admission;
+
+    private AdmissionControl uploads;
+
+    private RateLimiter tokenLimiter;
+
+    private RateLimiter userLimiter;
+
+    private CircuitBreaker storeCircuit;
+
+    private DeliveryOptions requestOptions;
+
+    private final Map<String, CoalescedFetch> inflightFetches = new HashMap<>();
+
+    private ProxyMetrics metrics;
+
+    private final Map<String, ProxyMetrics.Histogram> eventBusTimers = new HashMap<>();
+
+    private ProxyMetrics.Histogram upstreamFirstByte;
+
+    private ProxyMetrics.Histogram upstreamTotal;
+
+    private LongAdder tokenCacheHits;
+
+    private LongAdder tokenCacheNegativeHits;
+
+    private LongAdder tokenCacheMisses;
+
+    private LongAdder artifactCacheHits;
+
+    private LongAdder artifactCacheMisses;
+
+    private LongAdder validatorCacheHits;
+
+    private LongAdder validatorCacheMisses;
+
+    private LongAdder checksumCacheHits;
+
+    private LongAdder checksumCacheMisses;
+
+    private LongAdder checksumMismatches;
+
+    private LongAdder shedTokenRate;
+
+    private LongAdder shedUserRate;
+
+    private LongAdder shedQueueFull;
+
+    private LongAdder shedQueueTimeout;
+
+    private LongAdder shedUploadLimit;
+
+    private LongAdder uploadsTooLarge;
+
+    private LongAdder coalescedJoined;
+
+    private LongAdder coalescedStarted;
+
+    /**
+     * Create the long-lived, pooled {@link HttpClient} used to proxy requests to the Nexus server. Connections are
+     * kept alive and reused between requests and closed again after sitting idle for {@code upstreamIdleTimeout} seconds,
+     * which also cuts off a response body that stops arriving. Connecting gives up after {@code upstreamConnectTimeout}
+     * milliseconds.
+     * @param config The application's JSON configuration object.
+     * @return An instance of {@link HttpClient} which is shared by all proxied requests handled by this verticle
+     */
+    private HttpClient createUpstreamClient(JsonObject config) {
+        HttpClientOptions opts = new HttpClientOptions()
+                                        .setMaxPoolSize(config.getInteger("upstreamMaxPoolSize"))
+                                        .setKeepAlive(config.getBoolean("upstreamKeepAlive"))
+                                        .setIdleTimeout(config.getInteger("upstreamIdleTimeout"))
+                                        .setConnectTimeout(config.getInteger("upstreamConnectTimeout"))
+                                        .setPipelining(config.getBoolean("upstreamPipelining"));
+        return vertx.createHttpClient(opts);
+    }
+
+    /**
+     * Start one instance of the HTTP front end. Several instances may be deployed, each running on its own event loop
+     * and sharing the listening socket.
+     * @throws Exception
+     */
+    @Override
+    public void start() throws Exception {
+    	this.cfg = context.config();
+        MessageCodecs.register(vertx);
+        upstreamClient = createUpstreamClient(cfg);
+        tokenCache = new TokenCache(
+                            cfg.getInteger("tokenCacheMaxSize"),
+                            cfg.getLong("tokenCacheTtl"),
+                            cfg.getLong("tokenCacheNegativeTtl"));
+        validatorCache = new ValidatorCache(
+                            cfg.getInteger("validatorCacheMaxSize"),
+                            cfg.getLong("validatorCacheTtl"));
+        checksumCache = new ChecksumCache(
+                            cfg.getInteger("checksumCacheMaxSize"),
+                            cfg.getLong("checksumCacheTtl"));
+        accessLog = SharedResources.get(vertx, "accessLog");
+        balancer = SharedResources.getOrCreate(vertx, "upstreamBalancer", () -> new UpstreamBalancer(cfg));
+        admission = AdmissionControl.get(vertx, cfg);
+        uploads = AdmissionControl.forUploads(vertx, cfg);
+        tokenLimiter = RateLimiter.forTokens(vertx, cfg);
+        userLimiter = RateLimiter.forUsers(vertx, cfg);
+        storeCircuit = CircuitBreaker.forTokenStore(vertx, cfg);
+        tokenUsage = TokenUsage.get(vertx);
+        if (cfg.getBoolean("signedTokens")) {
+            tokenSigner = TokenSigner.get(vertx, cfg);
+            revocations = TokenRevocations.get(vertx, cfg);
+        }
+        requestOptions = new DeliveryOptions().setSendTimeout(cfg.getLong("eventBusTimeout"));
+        registerMetrics();
+        listenForTokenInvalidationEvents();
+        configureHttpRequestRouter();
+    }
+
+    /**
+     * Look up the metrics recorded on the hot paths once, so handling a request never has to go through the registry.
+     */
+    private void registerMetrics() {
+        metrics = ProxyMetrics.get(vertx);
+        upstreamFirstByte = metrics.histogram("nexus_proxy_upstream_first_byte_seconds",
+                "Time from sending a request to the Nexus server until its response headers arrived");
+        upstreamTotal = metrics.histogram("nexus_proxy_upstream_duration_seconds",
+                "Time from sending a request to the Nexus server until its response body was received");
+        String tokenCacheHelp = "Bearer token lookups in the local token cache";
+        tokenCacheHits = metrics.counter("nexus_proxy_token_cache_total", tokenCacheHelp, "result", "hit");
+        tokenCacheNegativeHits = metrics.counter("nexus_proxy_token_cache_total", tokenCacheHelp, "result", "negative_hit");
+        tokenCacheMisses = metrics.counter("nexus_proxy_token_cache_total", tokenCacheHelp, "result", "miss");
+        String artifactCacheHelp = "Lookups of cacheable artifacts in the artifact cache";
+        artifactCacheHits = metrics.counter("nexus_proxy_artifact_cache_total", artifactCacheHelp, "result", "hit");
+        artifactCacheMisses = metrics.counter("nexus_proxy_artifact_cache_total", artifactCacheHelp, "result", "miss");
+        String validatorCacheHelp = "Conditional GET requests checked against the validators of recent responses";
+        validatorCacheHits = metrics.counter("nexus_proxy_validator_cache_total", validatorCacheHelp, "result", "hit");
+        validatorCacheMisses = metrics.counter("nexus_proxy_validator_cache_total", validatorCacheHelp, "result", "miss");
+        String checksumCacheHelp = "GET requests for checksum files checked against the digests computed by the proxy";
+        checksumCacheHits = metrics.counter("nexus_proxy_checksum_cache_total", checksumCacheHelp, "result", "hit");
+        checksumCacheMisses = metrics.counter("nexus_proxy_checksum_cache_total", checksumCacheHelp, "result", "miss");
+        checksumMismatches = metrics.counter("nexus_proxy_checksum_mismatches_total",
+                "Checksum files of the Nexus server which did not match the digests computed by the proxy");
+        String shedHelp = "Proxied requests rejected by rate limits or admission control, by reason";
+        shedTokenRate = metrics.counter("nexus_proxy_shed_requests_total", shedHelp, "reason", "token_rate");
+        shedUserRate = metrics.counter("nexus_proxy_shed_requests_total", shedHelp, "reason", "user_rate");
+        shedQueueFull = metrics.counter("nexus_proxy_shed_requests_total", shedHelp, "reason", "queue_full");
+        shedQueueTimeout = metrics.counter("nexus_proxy_shed_requests_total", shedHelp, "reason", "queue_timeout");
+        shedUploadLimit = metrics.counter("nexus_proxy_shed_requests_total", shedHelp, "reason", "upload_limit");
+        uploadsTooLarge = metrics.counter("nexus_proxy_uploads_too_large_total",
+                "Uploads rejected because they were larger than maxUploadBytes");
+        String coalescedHelp = "Coalescable GET requests, by whether they joined a fetch already in flight";
+        coalescedJoined = metrics.counter("nexus_proxy_coalesced_requests_total", coalescedHelp, "result", "joined");
+        coalescedStarted = metrics.counter("nexus_proxy_coalesced_requests_total", coalescedHelp, "result", "started");
+    }
+
+    /**
+     * Send a request to the token store on the event bus and record how long it took for the reply to arrive. The
+     * request fails if no reply arrives within {@code eventBusTimeout} milliseconds, and fails at once while the token
+     * store's {@link CircuitBreaker} is open.
+     * @param address The address to send to
+     * @param body The message body
+     * @param replyHandler Receives the reply
+     */
+    private <T> void request(String address, Object body, Handler<AsyncResult<Message<T>>> replyHandler) {
+        request(address, body, requestOptions, replyHandler);
+    }
+
+    /**
+     * Send a request to the token store like {@link #request(String, Object, Handler)}, with headers
+     * @param address The address to send to
+     * @param body The message body
+     * @param options The delivery options, which must carry the {@code eventBusTimeout}
+     * @param replyHandler Receives the reply
+     */
+    private <T> void request(String address, Object body, DeliveryOptions options, Handler<AsyncResult<Message<T>>> replyHandler) {
+        if (!storeCircuit.tryAcquire()) {
+            replyHandler.handle(Future.failedFuture("The token store is unavailable"));
+            return;
+        }
+        final ProxyMetrics.Histogram timer = eventBusTimers.computeIfAbsent(address, a ->
+                metrics.histogram("nexus_proxy_eventbus_request_seconds",
+                        "Round trip time of requests sent on the event bus", "address", a));
+        final long start = System.nanoTime();
+        vertx.eventBus().send(address, body, options, (AsyncResult<Message<T>> reply) -> {
+            timer.recordSince(start);
+            // A store which rejected the request is still answering, so only timeouts and missing handlers count
+            if (reply.succeeded() || isRejection(reply.cause())) {
+                storeCircuit.onSuccess();
+            } else {
+                storeCircuit.onFailure();
+            }
+            replyHandler.handle(reply);
+        });
+    }
+
+    /**
+     * @param cause Why a request to the token store failed
+     * @return true if the token store received the request and failed it, rather than not replying in time
+     */
+    private static boolean isRejection(Throwable cause) {
+        return cause instanceof ReplyException
+                && ((ReplyException)cause).failureType()==ReplyFailure.RECIPIENT_FAILURE;
+    }
+
+    /**
+     * Answer a request whose request to the token store failed: with a 400 if the store rejected it as
+     * {@link TokenRequests#MALFORMED}, a 500 if it failed otherwise, and a 503 if it did not reply in time or its
+     * circuit is open
+     * @param ctx The {@link RoutingContext} of the request
+     * @param cause Why the request to the token store failed
+     */
+    private void sendStoreFailure(RoutingContext ctx, Throwable cause) {
+        LOG.warn("Token store request for "+ctx.request().uri()+" failed: "+cause.getMessage());
+        if (isRejection(cause)) {
+            ctx.response()
+                    .setStatusCode(((ReplyException)cause).failureCode()==TokenRequests.MALFORMED ? 400 : 500)
+                    .putHeader("Content-Type", "application/json")
+                    .end(new JsonObject().put("error", cause.getMessage()).encodePrettily());
+            return;
+        }
+        ctx.response()
+                .setStatusCode(503)
+                .setStatusMessage("Service Unavailable")
+                .putHeader("Retry-After", Long.toString(cfg.getLong("shedRetryAfter")))
+                .putHeader("Content-Type", "application/json")
+                .end(new JsonObject().put("error", cause.getMessage()).encodePrettily());
+    }
+
+    /**
+     * Wrap a route handler so that the time until its response is fully written is recorded, and the request is
+     * written to the {@link AccessLog}
+     * @param route The name of the route, used as the value of the {@code route} label
+     * @param handler The handler to wrap
+     * @return The wrapped handler
+     */
+    private Handler<RoutingContext> timed(String route, Handler<RoutingContext> handler) {
+        final ProxyMetrics.Histogram timer = metrics.histogram("nexus_proxy_route_duration_seconds",
+                "Time from receiving a request until its response was written, by route", "route", route);
+        return ctx -> {
+            final long start = System.nanoTime();
+            ctx.addBodyEndHandler(v -> {
+                long elapsed = System.nanoTime()-start;
+                timer.record(elapsed);
+                if (accessLog!=null) {
+                    logAccess(ctx, elapsed);
+                }
+            });
+            handler.handle(ctx);
+        };
+    }
+
+    private void logAccess(RoutingContext ctx, long elapsed) {
+        Long upstreamNanos = ctx.get(UPSTREAM_NANOS);
+        Long bytes = ctx.get(BYTES_SENT);
+        if (bytes==null) {
+            String contentLength = ctx.response().headers().get("Content-Length");
+            try {
+                bytes = contentLength==null ? -1L : Long.parseLong(contentLength);
+            } catch (NumberFormatException nfe) {
+                bytes = -1L;
+            }
+        }
+        String user = ctx.request().headers().get(cfg.getString("rutHeader"));
+        if (user==null && ctx.session()!=null) {
+            user = processAuth((JsonObject)ctx.session().data().get("user_info")).getUsername();
+        }
+        accessLog.log(
+                ctx.request().remoteAddress().host(),
+                ctx.request().method().name(),
+                ctx.request().uri(),
+                user,
+                ctx.response().getStatusCode(),
+                bytes,
+                upstreamNanos==null ? -1L : upstreamNanos,
+                elapsed);
+    }
+
+    /**
+     * Render the metrics of the whole process in the Prometheus text format
+     * @param ctx The {@link RoutingContext} of the request
+     */
+    public void getMetrics(RoutingContext ctx) {
+        ctx .response()
+            .setStatusCode(200)
+            .putHeader("Content-Type", "text/plain; version=0.0.4")
+            .end(metrics.scrape());
+    }
+
+    /**
+     * Register a consumer which evicts deleted tokens from the local {@link TokenCache}
+     */
+    private void listenForTokenInvalidationEvents() {
+        vertx.eventBus().consumer("proxy.token.invalidate", (Message<TokenInvalidation> msg) -> {
+            if (msg.body().getToken()!=null) {
+                tokenCache.invalidateToken(msg.body().getToken());
+            }
+            if (msg.body().getUsername()!=null) {
+                tokenCache.invalidateUser(msg.body().getUsername());
+            }
+        });
+    }
+
+    /**
+     * Release the pooled upstream connections when this {@link Verticle} is undeployed.
+     * @throws Exception
+     */
+    @Override
+    public void stop() throws Exception {
+        if (upstreamClient!=null) {
+            upstreamClient.close();
+        }
+    }
+
+    /**
+     * Send an event on the event bus to get a page of the user list and stream it via HTTP as compact JSON
+     * @param ctx The {@link RoutingContext} of the request
+     */
+    public void getUserList(RoutingContext ctx) {
+        UserInfo info = processAuth((JsonObject)ctx.session().data().get("user_info"));
+        if (info.isAdmin()) {
+            streamList(ctx, "proxy.user.list", pageQuery(ctx), "{\"users\":[");
+        } else {
+            ctx.response().setStatusCode(401).setStatusMessage("Must be admin to list users.").end();
+        }
+    }
+
+    /**
+     * Send an event on the event bus to get a page of a user's tokens and stream it via HTTP as compact JSON
+     * @param ctx The {@link RoutingContext} of the request
+     */
+    public void getUser(RoutingContext ctx) {
+        UserInfo info = processAuth((JsonObject)ctx.session().data().get("user_info"));
+        String username = ctx.request().params().get("username");
+        if (info.isAdmin() || (info.isAuthenticated() && info.username.contentEquals(username))) {
+            streamList(ctx, "proxy.token.list", pageQuery(ctx).put("username", username),
+                       "{\"username\":"+Json.encode(username)+",\"tokens\":[");
+        } else {
+            ctx.response().setStatusCode(401).setStatusMessage("Must be admin to view other users.").end();
+        }
+    }
+
+    /**
+     * Send an event on the event bus to get a page of a user's tokens with their use count and last use (in
+     * milliseconds since the epoch), including uses not yet written to the token store, and reply via HTTP and JSON
+     * @param ctx The {@link RoutingContext} of the request
+     */
+    public void getUsage(RoutingContext ctx) {
+        UserInfo info = processAuth((JsonObject)ctx.session().data().get("user_info"));
+        String username = ctx.request().params().get("username");
+        if (info.isAdmin() || (info.isAuthenticated() && info.username.contentEquals(username))) {
+            request("proxy.token.usage.list", pageQuery(ctx).put("username", username), (AsyncResult<Message<JsonObject>> reply) -> {
+                if (reply.failed()) {
+                    sendStoreFailure(ctx, reply.cause());
+                    return;
+                }
+                JsonObject page = reply.result().body();
+                if (page.getString("error")!=null) {
+                    ctx.response().setStatusCode(500).putHeader("Content-Type", "application/json").end(page.encodePrettily());
+                    return;
+                }
+                JsonArray tokens = (JsonArray)page.remove("items");
+                tokens.forEach(item -> tokenUsage.merge((JsonObject)item));
+                JsonObject body = new JsonObject().put("username", username).put("tokens", tokens);
+                if (page.getString("next")!=null) {
+                    body.put("next", page.getString("next"));
+                }
+                ctx .response()
+                    .setStatusCode(200)
+                    .putHeader("Content-Type", "application/json")
+                    .end(body.encodePrettily());
+            });
+        } else {
+            ctx.response().setStatusCode(401).setStatusMessage("Must be admin to view the token usage of other users.").end();
+        }
+    }
+
+    /**
+     * Read the keyset pagination parameters of a listing request: {@code after} is the last item of the previous page
+     * and {@code limit} the page size, capped at {@code listMaxPageSize}.
+     * @param ctx The {@link RoutingContext} of the request
+     * @return The query to send to the token store
+     */
+    private JsonObject pageQuery(RoutingContext ctx) {
+        int limit = cfg.getInteger("listPageSize");
+        String requested = ctx.request().params().get("limit");
+        if (requested!=null) {
+            try {
+                limit = Integer.parseInt(requested);
+            } catch (NumberFormatException nfe) {
+                // Keep the default page size
+            }
+        }
+        limit = Math.max(1, Math.min(limit, cfg.getInteger("listMaxPageSize")));
+        String after = ctx.request().params().get("after");
+        return new JsonObject().put("after", after==null ? "" : after).put("limit", limit);
+    }
+
+    /**
+     * Request a listing from the token store and write it to the response chunk by chunk as it arrives, so that the
+     * whole document is never built in memory. The next chunk is only requested once the response has room for it.
+     * The response is {@code prefix}, the items, and the cursor of the next page in {@code next} if there is one.
+     * @param ctx The {@link RoutingContext} of the request
+     * @param address The event bus address of the listing
+     * @param query The listing request
+     * @param prefix The start of the JSON document, up to and including the opening bracket of the item array
+     */
+    private void streamList(RoutingContext ctx, String address, JsonObject query, String prefix) {
+        final HttpServerResponse response = ctx.response();
+        final boolean[] first = {true};
+        request(address, query, new Handler<AsyncResult<Message<JsonObject>>>() {
+            @Override
+            public void handle(AsyncResult<Message<JsonObject>> reply) {
+                if (reply.failed() && !response.headWritten()) {
+                    sendStoreFailure(ctx, reply.cause());
+                    return;
+                }
+                if (reply.failed() || reply.result().body().getString("error")!=null) {
+                    String error = reply.failed() ? reply.cause().getMessage() : reply.result().body().getString("error");
+                    if (response.headWritten()) {
+                        response.close();
+                    } else {
+                        response.setStatusCode(500)
+                                .putHeader("Content-Type", "application/json")
+                                .end(new JsonObject().put("error", error).encode());
+                    }
+                    return;
+                }
+                Message<JsonObject> chunk = reply.result();
+                StringBuilder sb = new StringBuilder(4096);
+                if (!response.headWritten()) {
+                    response.setStatusCode(200).setChunked(true).putHeader("Content-Type", "application/json");
+                    sb.append(prefix);
+                }
+                for (Object item : chunk.body().getJsonArray("items")) {
+                    if (!first[0]) {
+                        sb.append(',');
+                    }
+                    first[0] = false;
+                    sb.append(Json.encode(item));
+                }
+                if (!chunk.body().getBoolean("more", Boolean.FALSE)) {
+                    sb.append(']');
+                    if (chunk.body().getString("next")!=null) {
+                        sb.append(",\"next\":").append(Json.encode(chunk.body().getString("next")));
+                    }
+                    response.end(sb.append('}').toString());
+                    return;
+                }
+                response.write(sb.toString());
+                final Handler<AsyncResult<Message<JsonObject>>> next = this;
+                if (response.writeQueueFull()) {
+                    response.closeHandler(v -> chunk.reply(Boolean.FALSE));
+                    response.drainHandler(v -> {
+                        response.closeHandler(null);
+                        chunk.reply(Boolean.TRUE, requestOptions, next);
+                    });
+                } else {
+                    chunk.reply(Boolean.TRUE, requestOptions, next);
+                }
+            }
+        });
+    }
+
+    /**
+     * Send an event on the event bus to delete all of a user's tokens and reply via HTTP and JSON
+     * @param ctx The {@link RoutingContext} of the request
+     */
+    public void deleteUser(RoutingContext ctx) {
+        UserInfo info = processAuth((JsonObject)ctx.session().data().get("user_info"));
+        String username = ctx.request().params().get("username");
+        if (info.isAdmin() || (info.isAuthenticated() && info.username.contentEquals(username))) {
+            request("proxy.user.delete", username, (AsyncResult<Message<JsonObject>> reply) -> {
+                if (reply.failed()) {
+                    sendStoreFailure(ctx, reply.cause());
+                    return;
+                }
+                ctx .response()
+                    .setStatusCode(200)
+                    .putHeader("Content-Type", "application/json")
+                    .end(reply.result().body().encodePrettily());
+            });
+        } else {
+            ctx.response().setStatusCode(401).setStatusMessage("Must be admin to delete users.").end();
+        }
+    }
+    
+    /**
+     * Send an event on the event bus to delete a user token and reply via HTTP and JSON
+     * @param ctx The {@link RoutingContext} of the request
+     */
+    public void deleteToken(RoutingContext ctx) {
+        UserInfo info = processAuth((JsonObject)ctx.session().data().get("user_info"));
+        String username = ctx.request().params().get("username");
+        if (info.isAdmin() || (info.isAuthenticated() && info.username.contentEquals(username))) {
+            JsonObject params = new JsonObject()
+                    .put("username", username)
+                    .put("token", ctx.request().params().get("token"));
+            request("proxy.delete.token", params, (AsyncResult<Message<JsonObject>> reply) -> {
+                if (reply.failed()) {
+                    sendStoreFailure(ctx, reply.cause());
+                    return;
+                }
+                ctx .response()
+                    .setStatusCode(200)
+                    .putHeader("Content-Type", "application/json")
+                    .end(reply.result().body().encodePrettily());
+            });
+        } else {
+            ctx.response().setStatusCode(401).setStatusMessage("Must be admin to delete tokens from other users.").end();
+        }
+    }
+    
+    /**
+     * Send an event on the event bus to create a user token and reply via HTTP and JSON. The optional {@code ttl} query
+     * parameter sets the number of milliseconds until the token expires, instead of {@code tokenTtl}.
+     * @param ctx The {@link RoutingContext} of the request
+     */
+    public void createToken(RoutingContext ctx) {
+        UserInfo info = processAuth((JsonObject)ctx.session().data().get("user_info"));
+        String username = ctx.request().params().get("username");
+        if (!TokenRequests.isValidUsername(username)) {
+            ctx.response().setStatusCode(400).setStatusMessage("The username must not be empty or too long.").end();
+            return;
+        }
+        if (info.isAdmin() || (info.isAuthenticated() && info.username.contentEquals(username))) {
+            DeliveryOptions options = requestOptions;
+            String ttl = ctx.request().params().get("ttl");
+            if (ttl!=null) {
+                try {
+                    if (Long.parseLong(ttl)<=0) {
+                        throw new NumberFormatException(ttl);
+                    }
+                } catch (NumberFormatException nfe) {
+                    ctx.response().setStatusCode(400).setStatusMessage("The ttl must be a positive number of milliseconds.").end();
+                    return;
+                }
+                options = new DeliveryOptions().setSendTimeout(cfg.getLong("eventBusTimeout")).addHeader("ttl", ttl);
+            }
+            request("proxy.create.token", username, options, (AsyncResult<Message<JsonObject>> reply) -> {
+                if (reply.failed()) {
+                    sendStoreFailure(ctx, reply.cause());
+                    return;
+                }
+                ctx .response()
+                    .setStatusCode(200)
+                    .putHeader("Content-Type", "application/json")
+                    .end(reply.result().body().encodePrettily());
+            });
+        } else {
+            ctx.response().setStatusCode(401).setStatusMessage("Must be admin to create tokens for other users.").end();
+        }
+    }
+    
+    /**
+     * Create and delete many tokens in one request. The body is a JSON object with an {@code operations} array of
+     * {@code {"op":"create","username":...}} (with an optional {@code "ttl"} in milliseconds) and
+     * {@code {"op":"delete","username":...,"token":...}} items, which the
+     * token store applies together. The reply has one result per operation, in the same order.
+     * @param ctx The {@link RoutingContext} of the request
+     */
+    public void bulkTokens(RoutingContext ctx) {
+        UserInfo info = processAuth((JsonObject)ctx.session().data().get("user_info"));
+        JsonArray operations;
+        try {
+            operations = new JsonObject(ctx.getBodyAsString()).getJsonArray("operations");
+        } catch (DecodeException | ClassCastException e) {
+            operations = null;
+        }
+        if (operations==null || operations.size()>cfg.getInteger("bulkMaxOperations")) {
+            ctx.response().setStatusCode(400).setStatusMessage("Expected an operations array of at most "
+                    +cfg.getInteger("bulkMaxOperations")+" items.").end();
+            return;
+        }
+        String malformed = TokenRequests.checkBulk(operations);
+        if (malformed!=null) {
+            ctx.response().setStatusCode(400).setStatusMessage(malformed).end();
+            return;
+        }
+        for (Object op : operations) {
+            String username = ((JsonObject)op).getString("username");
+            if (!(info.isAdmin() || (info.isAuthenticated() && info.username.contentEquals(username)))) {
+                ctx.response().setStatusCode(401).setStatusMessage("Must be admin to manage tokens of other users.").end();
+                return;
+            }
+        }
+        request("proxy.token.bulk", new JsonObject().put("operations", operations), (AsyncResult<Message<JsonObject>> reply) -> {
+            if (reply.failed()) {
+                sendStoreFailure(ctx, reply.cause());
+                return;
+            }
+            ctx .response()
+                .setStatusCode(200)
+                .putHeader("Content-Type", "application/json")
+                .end(reply.result().body().encode());
+        });
+    }
+
+    /**
+     * Make proxy requests to the Nexus server and set the REMOTE_USER header where appropriate.
+     * @param ctx The {@link RoutingContext} of the request
+     */
+    public void proxyNexus(RoutingContext ctx) {
+        // If some nefarious party tried to pass their own REMOTE_USER header, remove it here
+        ctx.request().headers().remove(cfg.getString("rutHeader"));
+        
+        // Only allow REMOTE_USER token auth for GET requests
+        if (GET.equals(ctx.request().method())) {
+        	final MultiMap hdrs = ctx.request().headers();
+            final String credentials = bearerToken(hdrs.get("Authorization"));
+            if (credentials!=null) {
+                if (tokenSigner!=null && sendSignedTokenRequest(ctx, credentials)) {
+                    return;
+                }
+                TokenCache.Entry cached = tokenCache.get(credentials);
+                if (cached!=null) {
+                    if (cached.isKnown()) {
+                        tokenCacheHits.increment();
+                        sendAuthenticatedRequest(ctx, credentials, cached.getUsername());
+                    } else {
+                        tokenCacheNegativeHits.increment();
+                        rejectToken(ctx, "Unknown token");
+                    }
+                    return;
+                }
+                tokenCacheMisses.increment();
+                // Verify bearer token and get associated user. The request is paused until the token has been
+                // validated, otherwise it could be fully read before the proxied request attaches its handlers.
+                final long generation = tokenCache.getGeneration();
+                ctx.request().pause();
+                request("proxy.validate.token", credentials, (AsyncResult<Message<TokenValidation>> event) -> {
+                    if (event.failed()) {
+                        sendStoreFailure(ctx, event.cause());
+                        ctx.request().resume();
+                        return;
+                    }
+                    TokenValidation result = event.result().body();
+                    if (result.getError()!=null) {
+                        if (result.isUnknown()) {
+                            tokenCache.putUnknown(credentials);
+                        }
+                        rejectToken(ctx, result.getError());
+                        ctx.request().resume();
+                    } else {
+                        tokenCache.put(credentials, result.getUsername(), generation, result.getExpires());
+                        sendAuthenticatedRequest(ctx, credentials, result.getUsername());
+                    }
+                });
+            } else {
+                ctx.request().headers().remove(cfg.getString("rutHeader"));
+                sendProxyRequest(ctx);
+            }
+        } else {
+            // Deploys and everything else are passed through with the client's own Authorization header
+            sendProxyRequest(ctx);
+        }
+    }
+
+    /**
+     * Verify a signed bearer token on the event loop, without asking the token store, and proxy the request if it is
+     * valid. Tokens which are not signed, or were issued before this process could have seen their revocation, are
+     * left to the token store.
+     * @param ctx The {@link RoutingContext} of the request
+     * @param token The bearer token
+     * @return true if the request has been handled, false if the token has to be looked up in the token store
+     */
+    private boolean sendSignedTokenRequest(RoutingContext ctx, String token) {
+        TokenSigner.Claims claims;
+        try {
+            claims = tokenSigner.verify(token);
+        } catch (SecurityException se) {
+            rejectToken(ctx, se.getMessage());
+            return true;
+        }
+        if (claims==null) {
+            return false;
+        }
+        if (claims.isExpired()) {
+            rejectToken(ctx, "Expired token");
+        } else if (!revocations.covers(claims)) {
+            return false;
+        } else if (revocations.isRevoked(token, claims)) {
+            rejectToken(ctx, "Unknown token");
+        } else {
+            sendAuthenticatedRequest(ctx, token, claims.getUsername());
+        }
+        return true;
+    }
+
+    /**
+     * Apply the per-token and per-user rate limits to a request with a valid bearer token, then proxy it as the user
+     * which owns the token
+     * @param ctx The {@link RoutingContext} of the request
+     * @param token The bearer token
+     * @param username The user which owns the token
+     */
+    private void sendAuthenticatedRequest(RoutingContext ctx, String token, String username) {
+        long wait = tokenLimiter.tryAcquire(token);
+        if (wait>0) {
+            shedTokenRate.increment();
+            sendTooManyRequests(ctx, wait);
+            return;
+        }
+        wait = userLimiter.tryAcquire(username);
+        if (wait>0) {
+            shedUserRate.increment();
+            sendTooManyRequests(ctx, wait);
+            return;
+        }
+        if (cfg.getBoolean("usageTrackingEnabled")) {
+            tokenUsage.record(token);
+        }
+        ctx.request().headers().add(cfg.getString("rutHeader"), username);
+        sendProxyRequest(ctx);
+    }
+
+    private void sendTooManyRequests(RoutingContext ctx, long waitNanos) {
+        long retryAfter = Math.max(1L, TimeUnit.NANOSECONDS.toSeconds(waitNanos+TimeUnit.SECONDS.toNanos(1)-1));
+        ctx.response()
+            .setStatusCode(429)
+            .setStatusMessage("Too Many Requests")
+            .putHeader("Retry-After", Long.toString(retryAfter))
+            .end();
+        ctx.request().resume();
+    }
+
+    /**
+     * Answer a request which could not be admitted to the Nexus server with a 503
+     * @param ctx The {@link RoutingContext} of the request
+     * @param outcome Why the request was not admitted
+     */
+    private void shed(RoutingContext ctx, AdmissionControl.Outcome outcome) {
+        shed(ctx.response(), outcome);
+    }
+
+    private void shed(HttpServerResponse response, AdmissionControl.Outcome outcome) {
+        if (outcome==AdmissionControl.Outcome.QUEUE_FULL) {
+            shedQueueFull.increment();
+        } else {
+            shedQueueTimeout.increment();
+        }
+        response.setStatusCode(503)
+                .setStatusMessage("Service Unavailable")
+                .putHeader("Retry-After", Long.toString(cfg.getLong("shedRetryAfter")))
+                .end();
+    }
+
+    /**
+     * Extract the token from a bearer Authorization header
+     * @param authHeader The value of the Authorization header, may be null
+     * @return The token, or null if the header is missing or is not a bearer token
+     */
+    static String bearerToken(String authHeader) {
+        if (authHeader==null || !authHeader.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return null;
+        }
+        String token = authHeader.substring(7).trim();
+        return token.isEmpty() ? null : token;
+    }
+
+    /**
+     * Reply with a 401 for a bearer token which could not be validated
+     * @param ctx The {@link RoutingContext} of the request
+     * @param message The reason the token was rejected
+     */
+    private void rejectToken(RoutingContext ctx, String message) {
+        LOG.warn(message);
+        JsonObject error = new JsonObject()
+                                    .put("error", Boolean.TRUE)
+                                    .put("message", message);
+        ctx.response()
+                .setStatusCode(401)
+                .setStatusMessage("Unauthorized: "+message)
+                .putHeader("Content-Type", "application/json")
+                .end(error.encodePrettily());
+    }
+
+    /**
+     * Send a request received by the proxy, forward it to the Nexus server, and send back the results
+     * @param ctx The {@link RoutingContext} of the request
+     */
+    private void sendProxyRequest(RoutingContext ctx) {
+        // Paused until the upstream request (if any) has attached its handlers, it may have to wait for admission
+        ctx.request().pause();
+        if (isUpload(ctx)) {
+            sendUpload(ctx);
+            return;
+        }
+        final String validatorKey = GET.equals(ctx.request().method()) ? identityKey(ctx) : null;
+        if (validatorKey!=null && isConditional(ctx)) {
+            ValidatorCache.Entry validators = validatorCache.match(validatorKey, ctx.request().headers());
+            if (validators!=null) {
+                validatorCacheHits.increment();
+                sendNotModified(ctx, validators);
+                ctx.request().resume();
+                return;
+            }
+            validatorCacheMisses.increment();
+        }
+        final int checksum = validatorKey!=null && !isConditional(ctx) && checksumCache.isEnabled()
+                                ? ChecksumCache.algorithmOf(ctx.request().path())
+                                : -1;
+        if (checksum>=0 && ctx.request().query()==null) {
+            String artifactKey = identityKey(ctx, ChecksumCache.artifactUri(ctx.request().uri(), checksum));
+            ChecksumCache.Entry digests = checksumCache.get(artifactKey);
+            if (digests!=null && (digests.isVerified(checksum) || !cfg.getBoolean("checksumVerify"))) {
+                checksumCacheHits.increment();
+                sendChecksum(ctx, digests.getHex(checksum));
+                ctx.request().resume();
+                return;
+            }
+            checksumCacheMisses.increment();
+            if (digests!=null) {
+                // The first request for it goes to Nexus on its own so that its answer can be compared
+                ctx.put(CHECKSUM_VERIFY, artifactKey);
+            }
+        }
+        final String cacheKey = artifactCacheKey(ctx);
+        if (cacheKey!=null) {
+            ArtifactCache.Entry cached = artifactCache.lookup(cacheKey);
+            if (cached!=null) {
+                artifactCacheHits.increment();
+                sendAuthorizedCachedArtifact(ctx, cached, cacheKey, validatorKey);
+                return;
+            }
+            artifactCacheMisses.increment();
+        }
+        sendUncachedRequest(ctx, cacheKey, validatorKey);
+    }
+
+    /**
+     * Send a GET (or any other request which is not an upload) to the Nexus server, sharing the fetch with identical
+     * requests where possible
+     * @param ctx The {@link RoutingContext} of the request, which is paused
+     * @param cacheKey The {@link ArtifactCache} key of the request, or null if the response should not be cached
+     * @param validatorKey The {@link ValidatorCache} key of the request, or null if it is not a GET
+     */
+    private void sendUncachedRequest(RoutingContext ctx, String cacheKey, String validatorKey) {
+        if (isCoalescable(ctx) && ctx.get(CHECKSUM_VERIFY)==null) {
+            sendCoalescedRequest(ctx, cacheKey, validatorKey);
+            ctx.request().resume();
+            return;
+        }
+        admission.acquire(outcome -> {
+            if (outcome==AdmissionControl.Outcome.ADMITTED) {
+                sendUpstreamRequest(ctx, cacheKey, validatorKey);
+            } else {
+                shed(ctx, outcome);
+            }
+            ctx.request().resume();
+        });
+    }
+
+    /**
+     * @param ctx The {@link RoutingContext} of the request
+     * @return true if the request is a PUT or POST, which carries an artifact being deployed
+     */
+    private boolean isUpload(RoutingContext ctx) {
+        HttpMethod method = ctx.request().method();
+        return POST.equals(method) || HttpMethod.PUT.equals(method);
+    }
+
+    /**
+     * Stream an upload to the Nexus server. An upload can take minutes, so instead of a slot of the general
+     * {@link AdmissionControl} it takes one of at most {@code maxConcurrentUploads} upload slots, without waiting in a
+     * queue. An upload declaring a Content-Length above {@code maxUploadBytes} is rejected before any of it is sent.
+     * @param ctx The {@link RoutingContext} of the request, which is paused
+     */
+    private void sendUpload(RoutingContext ctx) {
+        final long maxBytes = cfg.getLong("maxUploadBytes");
+        final String length = ctx.request().headers().get("Content-Length");
+        if (maxBytes>0 && length!=null) {
+            long declared;
+            try {
+                declared = Long.parseLong(length.trim());
+            } catch (NumberFormatException nfe) {
+                declared = Long.MAX_VALUE;
+            }
+            if (declared>maxBytes) {
+                uploadsTooLarge.increment();
+                abortUpload(ctx.response(), 413);
+                return;
+            }
+        }
+        uploads.acquire(outcome -> {
+            if (outcome==AdmissionControl.Outcome.ADMITTED) {
+                sendUploadRequest(ctx);
+            } else {
+                shedUploadLimit.increment();
+                ctx.response().setStatusCode(503)
+                        .setStatusMessage("Service Unavailable")
+                        .putHeader("Retry-After", Long.toString(cfg.getLong("shedRetryAfter")))
+                        .end();
+            }
+            ctx.request().resume();
+        });
+    }
+
+    /**
+     * Send an admitted upload to the primary Nexus server through an {@link UploadStream}, and stream the response
+     * back. Each upload gets a connection of its own which is closed afterwards: the idle timeout of the pooled
+     * connections only counts data received, so it would cut off a long upload, and an aborted upload can only be
+     * stopped without Nexus storing a truncated artifact by closing its connection.
+     * @param ctx The {@link RoutingContext} of the request
+     */
+    private void sendUploadRequest(RoutingContext ctx) {
+        final UpstreamBalancer.Backend backend = balancer.primary();
+        if (backend==null) {
+            uploads.release();
+            sendUpstreamUnavailable(ctx.response());
+            return;
+        }
+        final HttpClient client = vertx.createHttpClient(new HttpClientOptions()
+                                        .setKeepAlive(false)
+                                        .setConnectTimeout(cfg.getInteger("upstreamConnectTimeout")));
+        final HttpServerRequest request = ctx.request();
+        HttpClientRequest clientReq = client.request(
+                                                request.method(),
+                                                backend.getPort(),
+                                                backend.getHost(),
+                                                request.uri());
+        clientReq.headers().addAll(request.headers().remove("Host"));
+        clientReq.putHeader("Host", backend.getAddress());
+        // The proxy has already answered the client's "Expect: 100-continue" and sends the body right away
+        clientReq.headers().remove("Expect");
+        if (request.headers().get("Content-Length")==null) {
+            clientReq.setChunked(true);
+        }
+        final long upstreamStart = backend.begin();
+        final UploadStream upload = new UploadStream(
+                                            vertx,
+                                            request,
+                                            clientReq,
+                                            cfg.getLong("maxUploadBytes"),
+                                            TimeUnit.SECONDS.toMillis(cfg.getInteger("upstreamIdleTimeout")),
+                                            cfg.getLong("upstreamResponseTimeout"));
+        final boolean[] finished = {false};
+        final Handler<Boolean> finish = succeeded -> {
+            finished[0] = true;
+            balancer.end(backend, succeeded);
+            uploads.release();
+            client.close();
+        };
+        clientReq.handler(pResponse -> {
+            upstreamFirstByte.recordSince(upstreamStart);
+            backend.responded(upstreamStart);
+            ctx.response().headers().addAll(pResponse.headers());
+            ctx.response().setStatusCode(pResponse.statusCode());
+            ctx.response().setStatusMessage(pResponse.statusMessage());
+            if (pResponse.headers().get("Content-Length")==null) {
+                ctx.response().setChunked(true);
+            }
+            Pump targetToProxy = Pump.pump(pResponse, ctx.response());
+            targetToProxy.start();
+            pResponse.endHandler(v -> {
+                long upstreamNanos = System.nanoTime()-upstreamStart;
+                upstreamTotal.record(upstreamNanos);
+                ctx.put(UPSTREAM_NANOS, upstreamNanos);
+                ctx.response().end();
+                if (!finished[0]) {
+                    finish.handle(pResponse.statusCode()<500);
+                }
+                if (!upload.isDone()) {
+                    // Nexus answered before the upload was complete (e.g. a 401), don't read the rest of it
+                    upload.cancel();
+                    ctx.response().close();
+                }
+            });
+        });
+        clientReq.exceptionHandler(t -> {
+            if (finished[0]) {
+                return;
+            }
+            LOG.warn("Upload of "+request.uri()+" to "+backend.getAddress()+" failed", t);
+            finish.handle(false);
+            upload.cancel();
+            if (ctx.response().headWritten()) {
+                ctx.response().close();
+            } else {
+                abortUpload(ctx.response(), t instanceof TimeoutException ? 504 : 502);
+            }
+        });
+        upload.abortHandler(status -> {
+            if (status==413) {
+                uploadsTooLarge.increment();
+            }
+            // Not the fault of the Nexus server
+            finish.handle(true);
+            abortUpload(ctx.response(), status);
+        });
+        upload.start();
+    }
+
+    /**
+     * Answer an upload which cannot be completed and close the connection, so the client stops sending the rest of it
+     * @param response The response
+     * @param status The status code
+     */
+    private void abortUpload(HttpServerResponse response, int status) {
+        if (!response.headWritten()) {
+            // The standard reason phrase of the status code is used
+            response.setStatusCode(status)
+                    .putHeader("Connection", "close")
+                    .end();
+        }
+        response.close();
+    }
+
+    /**
+     * Send a request to the Nexus server and stream the response back. The request holds a slot of the
+     * {@link AdmissionControl} until the upstream response has been received. If the response headers do not arrive
+     * within {@code upstreamResponseTimeout} milliseconds the request fails with a 504.
+     * @param ctx The {@link RoutingContext} of the request
+     * @param cacheKey The {@link ArtifactCache} key of the request, or null if the response should not be cached
+     * @param validatorKey The {@link ValidatorCache} key of the request, or null if it is not a GET
+     */
+    private void sendUpstreamRequest(RoutingContext ctx, String cacheKey, String validatorKey) {
+        // Reads may go to any replica, everything else goes to the primary Nexus server
+        final HttpMethod method = ctx.request().method();
+        final UpstreamBalancer.Backend backend = GET.equals(method) || HttpMethod.HEAD.equals(method)
+                                                    ? balancer.select()
+                                                    : balancer.primary();
+        if (backend==null) {
+            admission.release();
+            sendUpstreamUnavailable(ctx.response());
+            return;
+        }
+        HttpClientRequest clientReq = upstreamClient.request(
+        										method,
+        										backend.getPort(),
+        										backend.getHost(),
+        										ctx.request().uri());
+        clientReq.headers().addAll(ctx.request().headers().remove("Host"));
+        clientReq.putHeader("Host", backend.getAddress());
+        clientReq.setTimeout(cfg.getLong("upstreamResponseTimeout"));
+        final long upstreamStart = backend.begin();
+        final boolean[] finished = {false};
+        clientReq.handler(pResponse -> {
+          upstreamFirstByte.recordSince(upstreamStart);
+          backend.responded(upstreamStart);
+          if (validatorKey!=null) {
+              validatorCache.put(validatorKey, pResponse.statusCode(), pResponse.headers());
+          }
+          final ChecksumCache.Digester digester = trackChecksums(ctx, validatorKey, pResponse);
+          final Buffer checksumFile = ctx.get(CHECKSUM_VERIFY)!=null && pResponse.statusCode()==200 ? Buffer.buffer() : null;
+          ctx.response().headers().addAll(pResponse.headers());
+          ctx.response().setStatusCode(pResponse.statusCode());
+          ctx.response().setStatusMessage(pResponse.statusMessage());
+          if (cacheKey!=null && ArtifactCache.isCacheable(pResponse.statusCode(), pResponse.headers())) {
+              ArtifactCache.Writer writer = artifactCache.newWriter(cacheKey, pResponse.headers());
+              pResponse.pause();
+              writer.open(opened -> {
+                  relayUpstreamResponse(ctx, backend, upstreamStart, finished, pResponse, digester, checksumFile,
+                                        opened.succeeded() ? writer : null);
+                  pResponse.resume();
+              });
+          } else {
+              relayUpstreamResponse(ctx, backend, upstreamStart, finished, pResponse, digester, checksumFile, null);
+          }
+        });
+        clientReq.exceptionHandler(t -> {
+            LOG.warn("Upstream request for "+ctx.request().uri()+" to "+backend.getAddress()+" failed", t);
+            if (!finished[0]) {
+                finished[0] = true;
+                balancer.end(backend, false);
+                admission.release();
+                if (ctx.response().headWritten()) {
+                    ctx.response().close();
+                } else if (t instanceof TimeoutException) {
+                    ctx.response().setStatusCode(504).setStatusMessage("Gateway Timeout").end();
+                } else {
+                    ctx.response().setStatusCode(502).setStatusMessage("Bad Gateway").end();
+                }
+            }
+        });
+        Pump proxyToTarget = Pump.pump(ctx.request(), clientReq);
+        proxyToTarget.start();
+        ctx.request().endHandler(v -> clientReq.end());
+    }
+
+    /**
+     * Stream the body of an upstream response back to the client, and into the {@link ArtifactCache} if a writer is
+     * given. The upstream response is paused while either of them cannot keep up.
+     * @param ctx The {@link RoutingContext} of the request
+     * @param backend The backend which sent the response
+     * @param upstreamStart When the upstream request was sent, as returned by {@link UpstreamBalancer.Backend#begin()}
+     * @param finished Whether the upstream request has been accounted for, shared with its exception handler
+     * @param pResponse The upstream response
+     * @param digester Receives the body to compute its checksums, may be null
+     * @param checksumFile Receives a checksum file to verify, may be null
+     * @param writer Receives a copy of the body to cache, may be null
+     */
+    private void relayUpstreamResponse(RoutingContext ctx, UpstreamBalancer.Backend backend, long upstreamStart,
+                                       boolean[] finished, HttpClientResponse pResponse,
+                                       ChecksumCache.Digester digester, Buffer checksumFile, ArtifactCache.Writer writer) {
+        final long[] sent = {-1L};
+        if (pResponse.headers().get("Content-Length") == null || digester!=null || checksumFile!=null || writer!=null) {
+            if (pResponse.headers().get("Content-Length") == null) {
+                ctx.response().setChunked(true);
+            }
+            // Without a Content-Length the body has to be counted for the access log, and the checksums and the
+            // artifact cache need to see it, so pump it by hand
+            sent[0] = 0L;
+            final HttpServerResponse response = ctx.response();
+            final Handler<Void> drained = d -> {
+                if (!response.writeQueueFull() && (writer==null || !writer.writeQueueFull())) {
+                    pResponse.resume();
+                }
+            };
+            response.drainHandler(drained);
+            if (writer!=null) {
+                writer.drainHandler(drained);
+                pResponse.exceptionHandler(t -> writer.abort());
+            }
+            pResponse.handler(data -> {
+                sent[0] += data.length();
+                if (digester!=null) {
+                    digester.handle(data);
+                }
+                if (checksumFile!=null && checksumFile.length()<MAX_CHECKSUM_FILE) {
+                    checksumFile.appendBuffer(data);
+                }
+                if (writer!=null) {
+                    writer.write(data);
+                }
+                response.write(data);
+                if (response.writeQueueFull() || (writer!=null && writer.writeQueueFull())) {
+                    pResponse.pause();
+                }
+            });
+        } else {
+            Pump targetToProxy = Pump.pump(pResponse, ctx.response());
+            targetToProxy.start();
+        }
+        pResponse.endHandler(v -> {
+            long upstreamNanos = System.nanoTime()-upstreamStart;
+            upstreamTotal.record(upstreamNanos);
+            ctx.put(UPSTREAM_NANOS, upstreamNanos);
+            if (sent[0]>=0) {
+                ctx.put(BYTES_SENT, sent[0]);
+            }
+            if (digester!=null) {
+                digester.finish();
+            }
+            if (checksumFile!=null) {
+                verifyChecksum(ctx, checksumFile);
+            }
+            if (writer!=null) {
+                String contentLength = pResponse.headers().get("Content-Length");
+                writer.finish(contentLength==null ? -1L : Long.parseLong(contentLength));
+            }
+            if (!finished[0]) {
+                finished[0] = true;
+                balancer.end(backend, pResponse.statusCode()<500);
+                admission.release();
+            }
+            ctx.response().end();
+        });
+    }
+
+    /**
+     * Answer a request with a 503 because the circuits of all Nexus backends which could serve it are open
+     * @param response The response
+     */
+    private void sendUpstreamUnavailable(HttpServerResponse response) {
+        response.setStatusCode(503)
+                .setStatusMessage("Service Unavailable")
+                .putHeader("Retry-After", Long.toString(Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(cfg.getLong("circuitResetTimeout")))))
+                .end();
+    }
+
+    /**
+     * Determine whether a request may be served from (and stored in) the {@link ArtifactCache}. Only GET requests
+     * for artifacts in the configured release repositories which carry a validated bearer token are cached, so a
+     * cached file is never served without a token which is still known to the token store. Whether that token's user
+     * may read the artifact is still checked with Nexus on every hit.
+     * @param ctx The {@link RoutingContext} of the request
+     * @return The cache key, or null if the request must always be sent to the Nexus server
+     */
+    private String artifactCacheKey(RoutingContext ctx) {
+        ArtifactCache cache = artifactCache();
+        if (cache==null || !GET.equals(ctx.request().method())
+                || ctx.request().headers().get(cfg.getString("rutHeader"))==null
+                || ctx.request().headers().get("Range")!=null) {
+            return null;
+        }
+        return cache.keyFor(ctx.request().uri());
+    }
+
+    /**
+     * The {@link ArtifactCache} is indexed in the background and only published once that has finished, which is
+     * usually after this verticle has started, so it is looked up until it is found.
+     * @return The artifact cache, or null if it is disabled or not ready yet
+     */
+    private ArtifactCache artifactCache() {
+        if (artifactCache==null && cfg.getBoolean("artifactCacheEnabled")) {
+            artifactCache = SharedResources.get(vertx, "artifactCache");
+        }
+        return artifactCache;
+    }
+
+    /**
+     * The {@link ArtifactCache} is shared by all users, but Nexus may only let some of them read an artifact. Before a
+     * cached artifact is served, Nexus is asked with a HEAD request as the requesting user. A refusal is passed on to
+     * the client, and so is a 304 for a conditional request; if Nexus cannot be asked, the request is proxied as if
+     * the artifact was not cached.
+     * @param ctx The {@link RoutingContext} of the request, which is paused
+     * @param cached The cached artifact
+     * @param cacheKey The {@link ArtifactCache} key of the request
+     * @param validatorKey The {@link ValidatorCache} key of the request
+     */
+    private void sendAuthorizedCachedArtifact(RoutingContext ctx, ArtifactCache.Entry cached, String cacheKey, String validatorKey) {
+        final UpstreamBalancer.Backend backend = balancer.select();
+        if (backend==null) {
+            sendUncachedRequest(ctx, cacheKey, validatorKey);
+            return;
+        }
+        HttpClientRequest clientReq = upstreamClient.request(
+        										HttpMethod.HEAD,
+        										backend.getPort(),
+        										backend.getHost(),
+        										ctx.request().uri());
+        clientReq.headers().addAll(ctx.request().headers().remove("Host"));
+        clientReq.putHeader("Host", backend.getAddress());
+        clientReq.setTimeout(cfg.getLong("upstreamResponseTimeout"));
+        final long upstreamStart = backend.begin();
+        final boolean[] finished = {false};
+        clientReq.handler(pResponse -> {
+            finished[0] = true;
+            backend.responded(upstreamStart);
+            balancer.end(backend, pResponse.statusCode()<500);
+            int status = pResponse.statusCode();
+            if (status==304) {
+                // The client's copy is current
+                putValidators(ctx.response().setStatusCode(304), cached).end();
+                ctx.request().resume();
+            } else if (status<300) {
+                sendCachedArtifact(ctx, cached, cacheKey, validatorKey);
+            } else if (status>=400 && status<500) {
+                // Not allowed to read it, or it is gone
+                HttpServerResponse response = ctx.response().setStatusCode(status).setStatusMessage(pResponse.statusMessage());
+                if (pResponse.headers().get("WWW-Authenticate")!=null) {
+                    response.putHeader("WWW-Authenticate", pResponse.headers().get("WWW-Authenticate"));
+                }
+                response.end();
+                ctx.request().resume();
+            } else {
+                sendUncachedRequest(ctx, cacheKey, validatorKey);
+            }
+        });
+        clientReq.exceptionHandler(t -> {
+            if (!finished[0]) {
+                finished[0] = true;
+                balancer.end(backend, false);
+                sendUncachedRequest(ctx, cacheKey, validatorKey);
+            }
+        });
+        clientReq.end();
+    }
+
+    /**
+     * Serve an artifact from the {@link ArtifactCache} with the Content-Type and validators it was stored with, letting
+     * the kernel copy the file to the socket. If the file cannot be sent, e.g. because it was evicted in the meantime,
+     * the request is proxied as if the artifact was not cached; if part of the response was already sent, the
+     * connection is closed instead.
+     * @param ctx The {@link RoutingContext} of the request, which is paused
+     * @param cached The cached artifact
+     * @param cacheKey The {@link ArtifactCache} key of the request
+     * @param validatorKey The {@link ValidatorCache} key of the request
+     */
+    private void sendCachedArtifact(RoutingContext ctx, ArtifactCache.Entry cached, String cacheKey, String validatorKey) {
+        String cachedFile = cached.getPath();
+        String path = ctx.request().path();
+        String contentType = "application/octet-stream";
+        if (cached.getHeader("Content-Type")!=null) {
+            contentType = cached.getHeader("Content-Type");
+        } else if (path.endsWith(".pom") || path.endsWith(".xml")) {
+            contentType = "application/xml";
+        } else if (path.endsWith(".jar")) {
+            contentType = "application/java-archive";
+        } else if (path.endsWith(".sha1") || path.endsWith(".md5") || path.endsWith(".asc")) {
+            contentType = "text/plain";
+        }
+        putValidators(ctx.response().setStatusCode(200), cached)
+                .putHeader("Content-Type", contentType)
+                .sendFile(cachedFile, res -> {
+                    if (res.succeeded()) {
+                        ctx.request().resume();
+                        return;
+                    }
+                    LOG.warn("Unable to send cached artifact "+cachedFile, res.cause());
+                    if (ctx.response().headWritten()) {
+                        ctx.response().close();
+                        ctx.request().resume();
+                    } else {
+                        ctx.response().headers().remove("Content-Type").remove("Content-Length")
+                                                 .remove("ETag").remove("Last-Modified");
+                        sendUncachedRequest(ctx, cacheKey, validatorKey);
+                    }
+                });
+    }
+
+    private static HttpServerResponse putValidators(HttpServerResponse response, ArtifactCache.Entry cached) {
+        if (cached.getHeader("ETag")!=null) {
+            response.putHeader("ETag", cached.getHeader("ETag"));
+        }
+        if (cached.getHeader("Last-Modified")!=null) {
+            response.putHeader("Last-Modified", cached.getHeader("Last-Modified"));
+        }
+        return response;
+    }
+
+    /**
+     * Only plain GETs are coalesced; conditional and partial requests get responses which depend on the individual
+     * client, so they are always sent to the Nexus server on their own.
+     * @param ctx The {@link RoutingContext} of the request
+     * @return true if the request may share an upstream fetch with other identical requests
+     */
+    private boolean isCoalescable(RoutingContext ctx) {
+        return cfg.getBoolean("coalesceEnabled")
+                && GET.equals(ctx.request().method())
+                && ctx.request().headers().get("Range")==null
+                && !isConditional(ctx);
+    }
+
+    private static boolean isConditional(RoutingContext ctx) {
+        MultiMap hdrs = ctx.request().headers();
+        return hdrs.get("If-None-Match")!=null || hdrs.get("If-Modified-Since")!=null;
+    }
+
+    /**
+     * Identify a request by its URI and its authenticated identity: the user from a validated bearer token, or
+     * otherwise the Authorization header passed through to Nexus, along with any cookies, which may carry a Nexus
+     * session. Responses are only shared between requests with the same key, so one user can never learn anything
+     * from another user's request.
+     * @param ctx The {@link RoutingContext} of the request
+     * @return The key
+     */
+    private String identityKey(RoutingContext ctx) {
+        return identityKey(ctx, ctx.request().uri());
+    }
+
+    /**
+     * Identify another resource fetched with the same identity as a request, like {@link #identityKey(RoutingContext)}
+     * @param ctx The {@link RoutingContext} of the request
+     * @param uri The URI of the resource
+     * @return The key
+     */
+    private String identityKey(RoutingContext ctx, String uri) {
+        String identity = ctx.request().headers().get(cfg.getString("rutHeader"));
+        if (identity==null) {
+            identity = ctx.request().headers().get("Authorization");
+        }
+        return uri+"\n"+(identity==null ? "" : identity)+"\n"+String.join("; ", ctx.request().headers().getAll("Cookie"));
+    }
+
+    /**
+     * Start computing the digests of an artifact's response body for the {@link ChecksumCache}
+     * @param ctx The {@link RoutingContext} of the request
+     * @param key The {@link #identityKey(RoutingContext)} of the request, or null if it is not a GET
+     * @param pResponse The response from the Nexus server
+     * @return The {@link ChecksumCache.Digester} to feed the body to, or null if its digests are not cached
+     */
+    private ChecksumCache.Digester trackChecksums(RoutingContext ctx, String key, HttpClientResponse pResponse) {
+        if (key==null || ChecksumCache.algorithmOf(ctx.request().path())>=0) {
+            return null;
+        }
+        return checksumCache.track(key, pResponse.statusCode(), pResponse.headers());
+    }
+
+    /**
+     * Answer a request for a checksum file with a digest computed by the proxy
+     * @param ctx The {@link RoutingContext} of the request
+     * @param hex The digest in hex
+     */
+    private void sendChecksum(RoutingContext ctx, String hex) {
+        ctx.response()
+                .setStatusCode(200)
+                .putHeader("Content-Type", "text/plain")
+                .end(hex);
+    }
+
+    /**
+     * Compare the Nexus server's checksum file with the digest computed by the proxy. If they match, later requests
+     * for it are answered by the proxy; otherwise the digests are dropped.
+     * @param ctx The {@link RoutingContext} of the request for the checksum file
+     * @param checksumFile The body of the checksum file
+     */
+    private void verifyChecksum(RoutingContext ctx, Buffer checksumFile) {
+        String artifactKey = ctx.get(CHECKSUM_VERIFY);
+        ChecksumCache.Entry digests = checksumCache.get(artifactKey);
+        int checksum = ChecksumCache.algorithmOf(ctx.request().path());
+        if (digests!=null && !digests.verify(checksum, checksumFile.toString())) {
+            checksumMismatches.increment();
+            checksumCache.remove(artifactKey);
+            LOG.warn("The checksum of "+ctx.request().uri()+" does not match the digest computed by the proxy");
+        }
+    }
+
+    /**
+     * Answer a conditional request whose validators match a recent upstream response
+     * @param ctx The {@link RoutingContext} of the request
+     * @param validators The validators of the upstream response
+     */
+    private void sendNotModified(RoutingContext ctx, ValidatorCache.Entry validators) {
+        HttpServerResponse response = ctx.response().setStatusCode(304).setStatusMessage("Not Modified");
+        if (validators.getEtag()!=null) {
+            response.putHeader("ETag", validators.getEtag());
+        }
+        if (validators.getLastModified()!=null) {
+            response.putHeader("Last-Modified", validators.getLastModified());
+        }
+        response.end();
+    }
+
+    /**
+     * Attach a GET request to an identical upstream fetch which is already in flight, or start a new one. Requests are
+     * only considered identical if they have the same {@link #identityKey(RoutingContext)} and ask for the same
+     * representation, see {@link #coalesceKey(RoutingContext, String)}.
+     * @param ctx The {@link RoutingContext} of the request
+     * @param cacheKey The {@link ArtifactCache} key of the request, or null if the response should not be cached
+     * @param key The {@link #identityKey(RoutingContext)} of the request
+     */
+    private void sendCoalescedRequest(RoutingContext ctx, String cacheKey, String key) {
+        final String inflightKey = coalesceKey(ctx, key);
+        CoalescedFetch inflight = inflightFetches.get(inflightKey);
+        if (inflight!=null && inflight.subscribe(ctx.response())) {
+            coalescedJoined.increment();
+            return;
+        }
+        coalescedStarted.increment();
+
+        final CoalescedFetch fetch = new CoalescedFetch(
+                                            cfg.getLong("coalesceReplayBytes"),
+                                            cfg.getLong("coalesceMaxBacklogBytes"));
+        fetch.subscribe(ctx.response());
+        fetch.completionHandler(v -> inflightFetches.remove(inflightKey, fetch));
+        inflightFetches.put(inflightKey, fetch);
+
+        admission.acquire(outcome -> {
+            if (outcome==AdmissionControl.Outcome.ADMITTED) {
+                sendCoalescedUpstreamRequest(ctx, cacheKey, key, fetch);
+            } else {
+                fetch.reject(response -> shed(response, outcome));
+            }
+        });
+    }
+
+    /**
+     * The Nexus server may send a different representation of the same resource, e.g. a compressed one, depending on
+     * the content negotiation headers of a request, so only requests which agree on them share a fetch
+     * @param ctx The {@link RoutingContext} of the request
+     * @param key The {@link #identityKey(RoutingContext)} of the request
+     * @return The key of the request in {@code inflightFetches}
+     */
+    private String coalesceKey(RoutingContext ctx, String key) {
+        StringBuilder inflightKey = new StringBuilder(key);
+        for (String name : NEGOTIATION_HEADERS) {
+            inflightKey.append('\n').append(String.join(",", ctx.request().headers().getAll(name)));
+        }
+        return inflightKey.toString();
+    }
+
+    /**
+     * Send the upstream request of a {@link CoalescedFetch} once it has been admitted
+     * @param ctx The {@link RoutingContext} of the request which started the fetch
+     * @param cacheKey The {@link ArtifactCache} key of the request, or null if the response should not be cached
+     * @param key The {@link #identityKey(RoutingContext)} of the request
+     * @param fetch The fetch
+     */
+    private void sendCoalescedUpstreamRequest(RoutingContext ctx, String cacheKey, String key, CoalescedFetch fetch) {
+        final UpstreamBalancer.Backend backend = balancer.select();
+        if (backend==null) {
+            admission.release();
+            fetch.reject(this::sendUpstreamUnavailable);
+            return;
+        }
+        HttpClientRequest clientReq = upstreamClient.request(
+        										GET,
+        										backend.getPort(),
+        										backend.getHost(),
+        										ctx.request().uri());
+        clientReq.headers().addAll(ctx.request().headers().remove("Host"));
+        clientReq.putHeader("Host", backend.getAddress());
+        clientReq.setTimeout(cfg.getLong("upstreamResponseTimeout"));
+        final long upstreamStart = backend.begin();
+        final int[] status = {0};
+        final ChecksumCache.Digester[] digester = {null};
+        fetch.upstreamEndHandler(succeeded -> {
+            if (succeeded) {
+                long upstreamNanos = System.nanoTime()-upstreamStart;
+                upstreamTotal.record(upstreamNanos);
+                ctx.put(UPSTREAM_NANOS, upstreamNanos);
+                if (digester[0]!=null) {
+                    digester[0].finish();
+                }
+            }
+            balancer.end(backend, succeeded && status[0]<500);
+            admission.release();
+        });
+        clientReq.handler(pResponse -> {
+            status[0] = pResponse.statusCode();
+            upstreamFirstByte.recordSince(upstreamStart);
+            backend.responded(upstreamStart);
+            validatorCache.put(key, pResponse.statusCode(), pResponse.headers());
+            digester[0] = trackChecksums(ctx, key, pResponse);
+            fetch.tap(digester[0]);
+            if (cacheKey!=null && ArtifactCache.isCacheable(pResponse.statusCode(), pResponse.headers())) {
+                ArtifactCache.Writer writer = artifactCache.newWriter(cacheKey, pResponse.headers());
+                pResponse.pause();
+                writer.open(opened -> {
+                    fetch.start(pResponse, opened.succeeded() ? writer : null);
+                    pResponse.resume();
+                });
+            } else {
+                fetch.start(pResponse, null);
+            }
+        });
+        clientReq.exceptionHandler(t -> {
+            LOG.warn("Upstream request for "+ctx.request().uri()+" failed", t);
+            fetch.fail(t);
+        });
+        clientReq.end();
+    }
+
+    /**
+     * Configure the {@link Router} to route requests to the appropriate handlers.
+     */
+    private void configureHttpRequestRouter() {
+        // Create a session handler which uses cookies to maintain state across HTTP requests.
+        // Backed by a shared local map, so every instance of this verticle sees the same sessions. When clustered,
+        // the sessions are kept in a cluster-wide map so that the load balancer may send a request to any node.
+        SessionStore store = vertx.isClustered()
+                                ? ClusteredSessionStore.create(vertx, SESSION_MAP)
+                                : LocalSessionStore.create(vertx, SESSION_MAP);
+        SessionHandler sessionHandler = SessionHandler.create(store);
+        
+        // Create a Router which will route requeests to the appropriate haandlers
+        Router router = Router.router(vertx);
+        
+        // Attach the session handler to the Router. Only the management application uses sessions, proxied Nexus
+        // requests must not create one each.
+        // The metrics endpoint is scraped without a session
+        router.route(GET, "/nexus-proxy/metrics").handler(this::getMetrics);
+
+        router.route("/nexus-proxy/*").handler(sessionHandler);
+        
+        router.route(DELETE, "/nexus-proxy/api/user/:username/:token")
+				.handler(timed("deleteToken", this::deleteToken));
+        
+        router.route(GET, "/nexus-proxy/api/user/:username/usage")
+        		.handler(timed("getUsage", this::getUsage));
+
+        router.route(GET, "/nexus-proxy/api/user/:username")
+        		.handler(timed("getUser", this::getUser));
+    	
+        router.route(DELETE, "/nexus-proxy/api/user/:username")
+				.handler(timed("deleteUser", this::deleteUser));
+        
+        router.route(POST, "/nexus-proxy/api/user/:username")
+				.handler(timed("createToken", this::createToken));
+        
+        router.route(GET, "/nexus-proxy/api/user")
+        		.handler(timed("getUserList", this::getUserList));
+
+        router.route(POST, "/nexus-proxy/api/tokens")
+                .handler(BodyHandler.create().setBodyLimit(cfg.getLong("bulkMaxBodyBytes")));
+        router.route(POST, "/nexus-proxy/api/tokens")
+                .handler(timed("bulkTokens", this::bulkTokens));
+
+        // Configure the various routes
+        StaticHandler sHandler = StaticHandler
+        							.create("webroot")
+        							.setDirectoryListing(false)
+        							.setIndexPage("index.html")
+        							.setFilesReadOnly(true)
+        							.setCachingEnabled(true)
+        							.setAlwaysAsyncFS(true);
+        router.route(GET, "/nexus-proxy/")
+        		.handler(timed("static", sHandler))
+        		.failureHandler(ctx -> {
+        			String uri = ctx.request().uri();
+        			ctx.response().setStatusCode(404).setStatusMessage("Not Found").end("Requested resource '"+uri+"' was not found");
+        		});
+        
+        router.routeWithRegex("^/nexus/.*").handler(timed("proxy", this::proxyNexus));
+        vertx.createHttpServer(createServerOptions(cfg, false)).requestHandler(router::accept)
+                .listen(cfg.getInteger("proxyPort"), cfg.getString("proxyHost"));
+        if (cfg.getInteger("proxyTlsPort")>0) {
+            vertx.createHttpServer(createServerOptions(cfg, true)).requestHandler(router::accept)
+                    .listen(cfg.getInteger("proxyTlsPort"), cfg.getString("proxyHost"), res -> {
+                        if (res.failed()) {
+                            LOG.error("Unable to listen for TLS on port "+cfg.getInteger("proxyTlsPort"), res.cause());
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Build the options of a listener. Build tools open many connections at once and keep them alive for the whole
+     * build, so the accept backlog is raised and idle connections are only closed after {@code proxyIdleTimeout}
+     * seconds. Requests pipelined on a connection are answered in order.
+     * @param config The application's JSON configuration object.
+     * @param tls true for the TLS listener, which uses either the {@code proxyTlsKeyStore} (JKS) or the PEM files in
+     *            {@code proxyTlsKeyPath} and {@code proxyTlsCertPath}
+     * @return The {@link HttpServerOptions}
+     */
+    private static HttpServerOptions createServerOptions(JsonObject config, boolean tls) {
+        HttpServerOptions opts = new HttpServerOptions()
+                                        .setAcceptBacklog(config.getInteger("proxyAcceptBacklog"))
+                                        .setIdleTimeout(config.getInteger("proxyIdleTimeout"))
+                                        .setTcpNoDelay(true);
+        if (tls) {
+            opts.setSsl(true);
+            if (!config.getString("proxyTlsKeyStore").isEmpty()) {
+                opts.setKeyStoreOptions(new JksOptions()
+                                                .setPath(config.getString("proxyTlsKeyStore"))
+                                                .setPassword(config.getString("proxyTlsKeyStorePassword")));
+            } else {
+                opts.setPemKeyCertOptions(new PemKeyCertOptions()
+                                                .setKeyPath(config.getString("proxyTlsKeyPath"))
+                                                .setCertPath(config.getString("proxyTlsCertPath")));
+            }
+        }
+        return opts;
+    }
+
+    /**
+     * Check the user's authentication and return a {@link UserInfo} instance with the authorization information
+     * @param userInfo A {@link JsonObject} containing the Nexus supplied user information.
+     * @return An instance of {@link UserInfo} which is calculated from the user information from Nexus
+     */
+    static UserInfo processAuth(JsonObject userInfo) {
+        UserInfo info = new UserInfo();
+        if (	userInfo!=null && 
+        		userInfo.getJsonObject("data")!=null && userInfo.getJsonObject("data").getString("userId")!=null) {
+            info.setUsername(userInfo.getJsonObject("data").getString("userId"));
+            if (userInfo.getJsonObject("data")!=null && userInfo.getJsonObject("data").getJsonArray("roles")!=null) {
+                JsonArray roles = userInfo.getJsonObject("data").getJsonArray("roles");
+                if (roles.contains("nx-admin")) {
+                    info.setAdmin(true);
+                }
+            }
+            info.setAuthenticated(true);
+        }
+        
+        return info;
+    }
+
+    /**
+     * A Bean which contains information about a User
+     */
+    static class UserInfo {
+        private boolean authenticated = false;
+        private boolean admin = false;
+        private String username = null;
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public boolean isAdmin() {
+            return admin;
+        }
+
+        public boolean isAuthenticated() {
+            return authenticated;
+        }
+
+        public void setAdmin(boolean admin) {
+            this.admin = admin;
+        }
+
+        public void setAuthenticated(boolean authenticated) {
+            this.authenticated = authenticated;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token-bucket rate limits for many keys (tokens or users), shared by all {@link ProxyVerticle} instances. Each bucket
+ * is a single {@link AtomicLong} holding the time at which the bucket will be full again (the generic cell rate
+ * algorithm), so taking from a bucket is one compare-and-set and never blocks.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class RateLimiter {
+
+    private final long interval;
+    private final long tolerance;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param rate The sustained number of requests per second allowed for each key, 0 to disable the limit
+     * @param burst The number of requests a key may make at once after being idle
+     */
+    public RateLimiter(double rate, int burst) {
+        this.interval = rate>0 ? (long)(TimeUnit.SECONDS.toNanos(1)/rate) : 0L;
+        this.tolerance = interval*Math.max(0, burst-1);
+    }
+
+    /**
+     * @param vertx The {@link Vertx} instance
+     * @param config The application's JSON configuration object
+     * @return The per-token {@link RateLimiter} shared by all verticles of the {@link Vertx} instance
+     */
+    public static RateLimiter forTokens(Vertx vertx, JsonObject config) {
+        return SharedResources.getOrCreate(vertx, "tokenRateLimiter", () -> new RateLimiter(
+                                                                            config.getDouble("tokenRateLimit"),
+                                                                            config.getInteger("tokenRateBurst")));
+    }
+
+    /**
+     * @param vertx The {@link Vertx} instance
+     * @param config The application's JSON configuration object
+     * @return The per-user {@link RateLimiter} shared by all verticles of the {@link Vertx} instance
+     */
+    public static RateLimiter forUsers(Vertx vertx, JsonObject config) {
+        return SharedResources.getOrCreate(vertx, "userRateLimiter", () -> new RateLimiter(
+                                                                            config.getDouble("userRateLimit"),
+                                                                            config.getInteger("userRateBurst")));
+    }
+
+    /**
+     * @return true if the limit is enabled
+     */
+    public boolean isEnabled() {
+        return interval>0;
+    }
+
+    /**
+     * Take one request from a key's bucket
+     * @param key The token or user
+     * @return 0 if the request is allowed, otherwise the number of nanoseconds until it would be
+     */
+    public long tryAcquire(String key) {
+        if (!isEnabled()) {
+            return 0L;
+        }
+        AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(System.nanoTime()));
+        while (true) {
+            long now = System.nanoTime();
+            long full = bucket.get();
+            // nanoTime may be negative, so compare by subtraction
+            long start = full-now>0 ? full : now;
+            long wait = start-tolerance-now;
+            if (wait>0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(full, start+interval)) {
+                return 0L;
+            }
+        }
+    }
+
+    /**
+     * Forget the buckets which are full again, they behave exactly like new ones. A request racing with the removal
+     * may be counted against the forgotten bucket, which at worst lets one extra request through.
+     */
+    public void sweep() {
+        long now = System.nanoTime();
+        buckets.forEach((key, bucket) -> {
+            if (bucket.get()-now<=0) {
+                buckets.remove(key, bucket);
+            }
+        });
+    }
+}
@@ -0,0 +1,80 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import java.util.function.Supplier;
+
+/**
+ * Publishes thread-safe objects (such as the database connection pool) to every verticle deployed in the same
+ * {@link Vertx} instance. Values stored via {@link io.vertx.core.Context#put(String, Object)} are only visible to the
+ * verticle which stored them, so resources which must be shared across verticles and instances are kept in a
+ * {@link LocalMap} instead.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public final class SharedResources {
+
+    private static final String MAP_NAME = "nexus.proxy.resources";
+
+    private SharedResources() {
+    }
+
+    /**
+     * Store a shared resource. The value MUST be safe for concurrent use from multiple event loops and worker threads.
+     * @param vertx The {@link Vertx} instance
+     * @param key The name of the resource
+     * @param value The resource to share
+     */
+    public static void put(Vertx vertx, String key, Object value) {
+        LocalMap<String, Holder> map = vertx.sharedData().getLocalMap(MAP_NAME);
+        map.put(key, new Holder(value));
+    }
+
+    /**
+     * Retrieve a shared resource
+     * @param <T> The type of the resource
+     * @param vertx The {@link Vertx} instance
+     * @param key The name of the resource
+     * @return The resource, or null if no resource has been stored under that name
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(Vertx vertx, String key) {
+        LocalMap<String, Holder> map = vertx.sharedData().getLocalMap(MAP_NAME);
+        Holder holder = map.get(key);
+        return holder==null ? null : (T)holder.value;
+    }
+
+    /**
+     * Retrieve a shared resource, creating it if it does not exist yet. If several verticles race to create the
+     * resource, all of them get the same instance.
+     * @param <T> The type of the resource
+     * @param vertx The {@link Vertx} instance
+     * @param key The name of the resource
+     * @param factory Creates the resource. It may be called more than once, but only one result is ever shared.
+     * @return The resource
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T getOrCreate(Vertx vertx, String key, Supplier<T> factory) {
+        LocalMap<String, Holder> map = vertx.sharedData().getLocalMap(MAP_NAME);
+        Holder holder = map.get(key);
+        if (holder==null) {
+            Holder created = new Holder(factory.get());
+            holder = map.putIfAbsent(key, created);
+            if (holder==null) {
+                holder = created;
+            }
+        }
+        return (T)holder.value;
+    }
+
+    /**
+     * Wraps a shared resource so that the {@link LocalMap} hands out the same reference instead of a copy.
+     */
+    private static class Holder implements Shareable {
+        private final Object value;
+
+        private Holder(Object value) {
+            this.value = value;
+        }
+    }
+}
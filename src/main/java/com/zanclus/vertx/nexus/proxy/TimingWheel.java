@@ -0,0 +1,124 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel of deadlines. Each deadline lands in one of a fixed number of buckets according to the tick
+ * it falls in, so scheduling and cancelling are O(1) and advancing the wheel only looks at the buckets of the ticks
+ * which have passed. Deadlines further away than one revolution of the wheel stay in their bucket and are skipped
+ * until their tick comes around.
+ * <p>
+ * Instances are not thread-safe and are meant to be owned by a single event loop.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class TimingWheel<K> {
+
+    private final long tickMillis;
+    private final List<Timeout<K>>[] buckets;
+    private final int mask;
+    private final Map<K, Timeout<K>> timeouts = new HashMap<>();
+    /**
+     * The next tick to be processed by {@link #advance(long, Consumer)}
+     */
+    private long tick;
+
+    /**
+     * @param tickMillis The resolution of the wheel in milliseconds; deadlines are rounded up to the next tick
+     * @param size The number of buckets, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMillis, int size) {
+        this.tickMillis = tickMillis;
+        int capacity = Integer.highestOneBit(Math.max(2, size)-1)<<1;
+        this.buckets = new List[capacity];
+        for (int i=0; i<capacity; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.mask = capacity-1;
+        this.tick = System.currentTimeMillis()/tickMillis;
+    }
+
+    /**
+     * Schedule a key to expire, replacing any earlier deadline of the same key
+     * @param key The key
+     * @param deadline When the key expires, in milliseconds since the epoch
+     */
+    public void schedule(K key, long deadline) {
+        cancel(key);
+        long deadlineTick = Math.max(tick, (deadline+tickMillis-1)/tickMillis);
+        Timeout<K> timeout = new Timeout<>(key, deadlineTick);
+        timeouts.put(key, timeout);
+        buckets[(int)(deadlineTick & mask)].add(timeout);
+    }
+
+    /**
+     * Forget the deadline of a key. The entry is dropped from its bucket when that bucket is next processed.
+     * @param key The key
+     */
+    public void cancel(K key) {
+        Timeout<K> timeout = timeouts.remove(key);
+        if (timeout!=null) {
+            timeout.cancelled = true;
+        }
+    }
+
+    /**
+     * @return The number of keys scheduled
+     */
+    public int size() {
+        return timeouts.size();
+    }
+
+    /**
+     * Process every tick up to now
+     * @param now The current time in milliseconds since the epoch
+     * @param expired Receives each key whose deadline has passed
+     */
+    public void advance(long now, Consumer<K> expired) {
+        long target = now/tickMillis;
+        if (target<tick) {
+            return;
+        }
+        List<K> due = new ArrayList<>();
+        // After a long pause every bucket is due; each one needs to be looked at only once
+        long last = Math.min(target, tick+mask);
+        for (long t=tick; t<=last; t++) {
+            List<Timeout<K>> bucket = buckets[(int)(t & mask)];
+            int kept = 0;
+            for (int i=0; i<bucket.size(); i++) {
+                Timeout<K> timeout = bucket.get(i);
+                if (timeout.cancelled) {
+                    continue;
+                }
+                if (timeout.deadlineTick<=target) {
+                    timeouts.remove(timeout.key);
+                    due.add(timeout.key);
+                } else {
+                    bucket.set(kept++, timeout);
+                }
+            }
+            bucket.subList(kept, bucket.size()).clear();
+        }
+        tick = target+1;
+        // Only now, so that the consumer may schedule keys again
+        due.forEach(expired);
+    }
+
+    /**
+     * A scheduled deadline
+     */
+    private static class Timeout<K> {
+        private final K key;
+        private final long deadlineTick;
+        private boolean cancelled = false;
+
+        private Timeout(K key, long deadlineTick) {
+            this.key = key;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
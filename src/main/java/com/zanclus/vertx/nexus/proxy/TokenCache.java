@@ -0,0 +1,141 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of bearer token to username mappings. Unknown tokens are cached as well (for a
+ * shorter time) so that repeated requests with a bad token do not each cost a database lookup. Instances are not
+ * thread-safe and are meant to be owned by a single event loop.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class TokenCache {
+
+    private final int maxSize;
+    private final long ttl;
+    private final long negativeTtl;
+    private final LinkedHashMap<String, Entry> entries;
+    private long generation = 0L;
+
+    /**
+     * @param maxSize The maximum number of tokens to keep before the least recently used ones are evicted
+     * @param ttl The number of milliseconds a known token stays cached
+     * @param negativeTtl The number of milliseconds an unknown token stays cached
+     */
+    public TokenCache(int maxSize, long ttl, long negativeTtl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size()>TokenCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Look up a token in the cache
+     * @param token The bearer token
+     * @return The cached {@link Entry}, or null if the token is not cached or has expired
+     */
+    public Entry get(String token) {
+        Entry entry = entries.get(token);
+        if (entry!=null && entry.expires<System.currentTimeMillis()) {
+            entries.remove(token);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * The generation changes every time tokens are invalidated. Callers capture it before starting a lookup and pass
+     * it back when caching the result, so that a lookup racing with a deletion cannot re-cache a deleted token.
+     * @return The current invalidation generation
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache a token which was successfully validated
+     * @param token The bearer token
+     * @param username The user which owns the token
+     * @param lookupGeneration The value of {@link #getGeneration()} when the lookup was started
+     */
+    public void put(String token, String username, long lookupGeneration) {
+        put(token, username, lookupGeneration, 0L);
+    }
+
+    /**
+     * Cache a token which was successfully validated and expires, so that it is not served from the cache any longer
+     * @param token The bearer token
+     * @param username The user which owns the token
+     * @param lookupGeneration The value of {@link #getGeneration()} when the lookup was started
+     * @param tokenExpires When the token expires in milliseconds since the epoch, 0 if it never does
+     */
+    public void put(String token, String username, long lookupGeneration, long tokenExpires) {
+        if (maxSize>0 && lookupGeneration==generation) {
+            long expires = System.currentTimeMillis()+ttl;
+            entries.put(token, new Entry(username, tokenExpires>0 ? Math.min(expires, tokenExpires) : expires));
+        }
+    }
+
+    /**
+     * Cache a token which is not known to the token store
+     * @param token The bearer token
+     */
+    public void putUnknown(String token) {
+        if (maxSize>0 && negativeTtl>0) {
+            entries.put(token, new Entry(null, System.currentTimeMillis()+negativeTtl));
+        }
+    }
+
+    /**
+     * Remove a single token from the cache
+     * @param token The bearer token
+     */
+    public void invalidateToken(String token) {
+        generation++;
+        entries.remove(token);
+    }
+
+    /**
+     * Remove all of the tokens belonging to a user from the cache
+     * @param username The user whose tokens should be removed
+     */
+    public void invalidateUser(String username) {
+        generation++;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (username.equals(it.next().username)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * A cached validation result
+     */
+    public static class Entry {
+        private final String username;
+        private final long expires;
+
+        private Entry(String username, long expires) {
+            this.username = username;
+            this.expires = expires;
+        }
+
+        /**
+         * @return The user owning the token, or null if the token is unknown
+         */
+        public String getUsername() {
+            return username;
+        }
+
+        public boolean isKnown() {
+            return username!=null;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * An immutable {@code proxy.token.invalidate} event, published whenever a token or all tokens of a user are deleted so
+ * that every node evicts them from its caches. Local consumers receive the published instance itself; other nodes
+ * of a cluster receive it in its JSON form.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public final class TokenInvalidation {
+
+    private final String token;
+    private final String username;
+
+    private TokenInvalidation(String token, String username) {
+        this.token = token;
+        this.username = username;
+    }
+
+    /**
+     * @param token The deleted token
+     * @return The event
+     */
+    public static TokenInvalidation ofToken(String token) {
+        return new TokenInvalidation(token, null);
+    }
+
+    /**
+     * @param username The user whose tokens were all deleted
+     * @return The event
+     */
+    public static TokenInvalidation ofUser(String username) {
+        return new TokenInvalidation(null, username);
+    }
+
+    /**
+     * @return The deleted token, or null if the event is about a user
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @return The user whose tokens were all deleted, or null if the event is about a single token
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return The event in the JSON format which used to be published, for the wire
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        if (token!=null) {
+            json.put("token", token);
+        }
+        if (username!=null) {
+            json.put("username", username);
+        }
+        return json;
+    }
+
+    /**
+     * @param json An event as returned by {@link #toJson()}
+     * @return The event
+     */
+    public static TokenInvalidation fromJson(JsonObject json) {
+        return new TokenInvalidation(json.getString("token"), json.getString("username"));
+    }
+}
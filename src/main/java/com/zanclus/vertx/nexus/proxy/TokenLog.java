@@ -0,0 +1,382 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only, memory-mapped log of token additions and deletions. The log is replayed into memory on startup and
+ * can be compacted by rewriting it with only the live tokens.
+ * <p>
+ * Each record is laid out as {@code [type:1][username length:2][username][token length:2][token]}, followed by
+ * {@code [expires:8]} for {@link #ADD_EXPIRING_TOKEN} records. The type byte is written last, so a record which was
+ * only partially written when the process died reads as the end of the log.
+ * <p>
+ * Appending a record only copies it into the mapping. The slow work of compacting the log and of growing the mapping
+ * is split into a part which is started and finished by the appending thread and a part which does the I/O and may
+ * run on any other thread, so that the appending thread never waits for the disk: see {@link #startCompaction(Map, Map)}
+ * and {@link #startGrowth()}. Instances are not thread-safe otherwise, except for {@link #force()}.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class TokenLog implements AutoCloseable {
+
+    public static final byte ADD_TOKEN = 1;
+    public static final byte DELETE_TOKEN = 2;
+    public static final byte DELETE_USER = 3;
+    public static final byte ADD_EXPIRING_TOKEN = 4;
+
+    /** The longest username or token which can be logged, in UTF-8 bytes */
+    public static final int MAX_STRING_BYTES = 0xFFFE;
+
+    private static final int INITIAL_SIZE = 1024*1024;
+    /** The length written in place of a missing token, distinct from that of any string */
+    private static final int NO_STRING = 0xFFFF;
+
+    private final Path path;
+    private FileChannel channel;
+    private volatile MappedByteBuffer buffer;
+    private int records = 0;
+    private Compaction compaction;
+    private Growth growth;
+
+    /**
+     * @param path The file the log is stored in
+     */
+    public TokenLog(String path) {
+        this.path = Paths.get(path);
+    }
+
+    /**
+     * Open the log and replay every record in it
+     * @param replay Receives the type, username, token and expiry of every record, in the order they were written.
+     *               The token is null for {@link #DELETE_USER} records (empty in logs written before empty strings
+     *               were rejected), the expiry is 0 unless the record is an {@link #ADD_EXPIRING_TOKEN}.
+     * @throws IOException If the log cannot be opened
+     */
+    public void open(RecordHandler replay) throws IOException {
+        if (path.getParent()!=null) {
+            Files.createDirectories(path.getParent());
+        }
+        map(path, Math.max(INITIAL_SIZE, Files.exists(path) ? Files.size(path) : 0L));
+        while (buffer.remaining()>0) {
+            int start = buffer.position();
+            byte type = buffer.get();
+            if (type==0) {
+                buffer.position(start);
+                break;
+            }
+            String username = readString();
+            String token = readString();
+            long expires = type==ADD_EXPIRING_TOKEN ? buffer.getLong() : 0L;
+            replay.handle(type, username, token, expires);
+            records++;
+        }
+    }
+
+    /**
+     * Append a record to the log
+     * @param type One of {@link #ADD_TOKEN}, {@link #DELETE_TOKEN} or {@link #DELETE_USER}
+     * @param username The user
+     * @param token The token, or null for {@link #DELETE_USER}
+     * @throws IOException If the log had to grow and could not be remapped
+     */
+    public void append(byte type, String username, String token) throws IOException {
+        append(type, username, token, 0L);
+    }
+
+    /**
+     * Append a record to the log. If the mapping is full because it was not grown in time with
+     * {@link #startGrowth()}, it is grown on the spot.
+     * @param type One of {@link #ADD_TOKEN}, {@link #ADD_EXPIRING_TOKEN}, {@link #DELETE_TOKEN} or
+     *             {@link #DELETE_USER}
+     * @param username The user
+     * @param token The token, or null for {@link #DELETE_USER}
+     * @param expires When the token expires, in milliseconds since the epoch. Only written for
+     *                {@link #ADD_EXPIRING_TOKEN}.
+     * @throws IOException If the log had to grow and could not be remapped
+     * @throws IllegalArgumentException If the username or token is empty or longer than {@link #MAX_STRING_BYTES}, or
+     *                                  the token is missing from a record which needs one. Nothing is written then.
+     */
+    public void append(byte type, String username, String token, long expires) throws IOException {
+        byte[] user = encode("username", username);
+        byte[] tok = token==null && type==DELETE_USER ? null : encode("token", token);
+        ByteBuffer record = ByteBuffer.allocate(1 + 2 + user.length + 2 + (tok==null ? 0 : tok.length) + (type==ADD_EXPIRING_TOKEN ? 8 : 0));
+        record.put(type);
+        record.putShort((short)user.length).put(user);
+        if (tok==null) {
+            record.putShort((short)NO_STRING);
+        } else {
+            record.putShort((short)tok.length).put(tok);
+        }
+        if (type==ADD_EXPIRING_TOKEN) {
+            record.putLong(expires);
+        }
+        write(record.array());
+        if (compaction!=null) {
+            compaction.pending.add(record.array());
+        }
+    }
+
+    private void write(byte[] record) throws IOException {
+        if (buffer.remaining()<record.length+1) {
+            int position = buffer.position();
+            map(path, Math.max(buffer.capacity()*2L, buffer.capacity()+record.length+1L));
+            buffer.position(position);
+        }
+        int start = buffer.position();
+        buffer.position(start+1);
+        buffer.put(record, 1, record.length-1);
+        buffer.put(start, record[0]);
+        records++;
+    }
+
+    /**
+     * @return The number of records in the log, including ones which have since been superseded
+     */
+    public int getRecords() {
+        return records;
+    }
+
+    /**
+     * Rewrite the log so that it only contains the given tokens, all on the calling thread
+     * @param tokens The live token to username mappings
+     * @param expiries The expiry of each live token which expires
+     * @throws IOException If the new log could not be written
+     */
+    public void compact(Map<String, String> tokens, Map<String, Long> expiries) throws IOException {
+        Compaction started = startCompaction(tokens, expiries);
+        if (started!=null) {
+            started.write();
+            finishCompaction(started);
+        }
+    }
+
+    /**
+     * Start rewriting the log so that it only contains the given tokens. The tokens are copied, the new log is
+     * written by {@link Compaction#write()}, on any thread, and it replaces the current one in
+     * {@link #finishCompaction(Compaction)}. Records appended in the meantime go to the current log and are copied to
+     * the new one when it replaces the current one, so a crash during compaction leaves the old log intact.
+     * @param tokens The live token to username mappings
+     * @param expiries The expiry of each live token which expires
+     * @return The compaction, or null if one is already running
+     */
+    public Compaction startCompaction(Map<String, String> tokens, Map<String, Long> expiries) {
+        if (compaction!=null) {
+            return null;
+        }
+        compaction = new Compaction(new HashMap<>(tokens), new HashMap<>(expiries));
+        return compaction;
+    }
+
+    /**
+     * Replace the current log with a compacted one, once {@link Compaction#write()} has succeeded. The records
+     * appended since the compaction started are copied to it and it is moved over the current log, which is only a
+     * rename.
+     * @param finished The compaction
+     * @throws IOException If the new log could not replace the current one, which is then kept
+     */
+    public void finishCompaction(Compaction finished) throws IOException {
+        if (finished!=compaction) {
+            return;
+        }
+        try {
+            for (byte[] record : finished.pending) {
+                finished.target.write(record);
+            }
+            Files.move(finished.file, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            abortCompaction(finished);
+            throw ioe;
+        }
+        // The pages of the old log are superseded, so it is closed without flushing them
+        FileChannel old = channel;
+        channel = finished.target.channel;
+        buffer = finished.target.buffer;
+        records = finished.target.records;
+        finished.target.channel = null;
+        compaction = null;
+        growth = null;
+        old.close();
+    }
+
+    /**
+     * Give up on a compaction, e.g. because {@link Compaction#write()} failed, and keep the current log
+     * @param failed The compaction
+     */
+    public void abortCompaction(Compaction failed) {
+        if (failed!=compaction) {
+            return;
+        }
+        compaction = null;
+        try {
+            failed.target.close();
+            Files.deleteIfExists(failed.file);
+        } catch (IOException ioe) {
+            // It is deleted before the next compaction is written anyway
+        }
+    }
+
+    /**
+     * Start growing the mapping ahead of time if less than a quarter of it is left. The bigger mapping is created by
+     * {@link Growth#map()}, on any thread, and replaces the current one in {@link #finishGrowth(Growth)}.
+     * @return The growth, or null if the log does not need to grow yet or is already growing
+     */
+    public Growth startGrowth() {
+        if (growth!=null || buffer.remaining()>=buffer.capacity()/4) {
+            return null;
+        }
+        growth = new Growth(channel, buffer.capacity()*2L);
+        return growth;
+    }
+
+    /**
+     * Switch to the bigger mapping created by {@link Growth#map()}. Records appended in the meantime are in the
+     * same file, so they are visible through either mapping. If the mapping could not be created, or was replaced
+     * in the meantime, the current mapping is kept.
+     * @param finished The growth
+     */
+    public void finishGrowth(Growth finished) {
+        if (finished!=growth) {
+            return;
+        }
+        growth = null;
+        if (finished.mapped!=null && finished.channel==channel && finished.mapped.capacity()>buffer.capacity()) {
+            finished.mapped.position(buffer.position());
+            buffer = finished.mapped;
+        }
+    }
+
+    /**
+     * Flush the mapped pages to disk. Safe to call from a thread other than the one appending to the log.
+     */
+    public void force() {
+        MappedByteBuffer current = buffer;
+        if (current!=null) {
+            current.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compaction!=null) {
+            abortCompaction(compaction);
+        }
+        if (channel!=null) {
+            force();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void map(Path file, long size) throws IOException {
+        if (channel==null) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private static byte[] encode(String field, String value) {
+        if (value==null || value.isEmpty()) {
+            throw new IllegalArgumentException("The "+field+" must not be empty");
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length>MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("The "+field+" must not be longer than "+MAX_STRING_BYTES+" bytes");
+        }
+        return bytes;
+    }
+
+    private String readString() {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length==NO_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A compaction of the log, see {@link #startCompaction(Map, Map)}
+     */
+    public final class Compaction {
+        private final Map<String, String> tokens;
+        private final Map<String, Long> expiries;
+        private final List<byte[]> pending = new ArrayList<>();
+        private final Path file = Paths.get(path.toString()+".compact");
+        private final TokenLog target = new TokenLog(file.toString());
+
+        private Compaction(Map<String, String> tokens, Map<String, Long> expiries) {
+            this.tokens = tokens;
+            this.expiries = expiries;
+        }
+
+        /**
+         * Write the live tokens to a new log next to the current one and flush it to disk. May block for a while, so
+         * it should not run on the thread appending to the log.
+         * @throws IOException If the new log could not be written
+         */
+        public void write() throws IOException {
+            Files.deleteIfExists(file);
+            target.open((type, username, token, expires) -> {});
+            for (Map.Entry<String, String> entry : tokens.entrySet()) {
+                Long expires = expiries.get(entry.getKey());
+                if (expires==null) {
+                    target.append(ADD_TOKEN, entry.getValue(), entry.getKey());
+                } else {
+                    target.append(ADD_EXPIRING_TOKEN, entry.getValue(), entry.getKey(), expires);
+                }
+            }
+            target.force();
+        }
+
+        /**
+         * @return The number of live tokens being written
+         */
+        public int size() {
+            return tokens.size();
+        }
+    }
+
+    /**
+     * A growth of the mapping, see {@link #startGrowth()}
+     */
+    public static final class Growth {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer mapped;
+
+        private Growth(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        /**
+         * Create the bigger mapping, which extends the file. May block for a while, so it should not run on the
+         * thread appending to the log.
+         * @throws IOException If the file could not be mapped
+         */
+        public void map() throws IOException {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Receives records while the log is replayed
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void handle(byte type, String username, String token, long expires);
+    }
+}
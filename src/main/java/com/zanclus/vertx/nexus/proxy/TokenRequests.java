@@ -0,0 +1,64 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks of token administration requests, shared by {@link ProxyVerticle} and the token stores so that a malformed
+ * request is rejected as a whole before anything is applied. A store which rejects a request fails the message with
+ * {@link #MALFORMED} instead of replying.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public final class TokenRequests {
+
+    /**
+     * The failure code of a request which a token store rejected as malformed
+     */
+    public static final int MALFORMED = 400;
+
+    private TokenRequests() {
+    }
+
+    /**
+     * @param username The username of a request
+     * @return true if it is a non-empty string which every token store can keep, at most
+     *         {@link TokenLog#MAX_STRING_BYTES} UTF-8 bytes long
+     */
+    public static boolean isValidUsername(Object username) {
+        return username instanceof String && !((String)username).isEmpty()
+                && ((String)username).getBytes(StandardCharsets.UTF_8).length<=TokenLog.MAX_STRING_BYTES;
+    }
+
+    /**
+     * Check the {@code operations} of a {@code proxy.token.bulk} request
+     * @param operations The value of the request's {@code operations} field
+     * @return Why the operations are malformed, or null if every one of them is well formed
+     */
+    public static String checkBulk(Object operations) {
+        if (!(operations instanceof JsonArray)) {
+            return "Expected an operations array.";
+        }
+        for (Object item : (JsonArray)operations) {
+            if (!(item instanceof JsonObject)) {
+                return "Each operation must be an object.";
+            }
+            JsonObject op = (JsonObject)item;
+            if (!"create".equals(op.getValue("op")) && !"delete".equals(op.getValue("op"))) {
+                return "Each operation must have an op of \"create\" or \"delete\".";
+            }
+            if (!isValidUsername(op.getValue("username"))) {
+                return "Each operation must have a non-empty string username.";
+            }
+            Object token = op.getValue("token");
+            if (token!=null && !(token instanceof String)) {
+                return "The token must be a string.";
+            }
+            Object ttl = op.getValue("ttl");
+            if (ttl!=null && !(ttl instanceof Number && ((Number)ttl).longValue()>0)) {
+                return "The ttl must be a positive number of milliseconds.";
+            }
+        }
+        return null;
+    }
+}
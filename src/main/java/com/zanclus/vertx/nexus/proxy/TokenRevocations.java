@@ -0,0 +1,158 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The signed tokens which were revoked (deleted) while this process was running. Checking a token is usually a few
+ * bit tests in a bloom filter; only if the filter reports a possible match is the exact set consulted. Deleting all of
+ * a user's tokens revokes every token issued to the user up to that moment.
+ * <p>
+ * Revocations are learned from {@code proxy.token.invalidate} events and are not persisted, so they only cover tokens
+ * issued after this process started (less a margin for clock skew between nodes). Older signed tokens have to be
+ * checked against the token store like unsigned ones, see {@link #covers(TokenSigner.Claims)}.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class TokenRevocations {
+
+    /**
+     * Tolerated difference between the clocks of the nodes issuing and verifying tokens
+     */
+    private static final long CLOCK_SKEW = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int FILTER_BITS = 1<<20;
+
+    private static final int FILTER_HASHES = 4;
+
+    private final long since;
+    private final long ttl;
+    private final ConcurrentHashMap<String, Long> tokens = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> users = new ConcurrentHashMap<>();
+    private volatile AtomicLongArray filter = new AtomicLongArray(FILTER_BITS/64);
+
+    /**
+     * @param ttl The number of milliseconds a signed token stays valid
+     */
+    public TokenRevocations(long ttl) {
+        this.since = System.currentTimeMillis()+CLOCK_SKEW;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param vertx The {@link Vertx} instance
+     * @param config The application's JSON configuration object
+     * @return The {@link TokenRevocations} shared by all verticles of the {@link Vertx} instance
+     */
+    public static TokenRevocations get(Vertx vertx, JsonObject config) {
+        return SharedResources.getOrCreate(vertx, "tokenRevocations", () -> new TokenRevocations(
+                                                                            config.getLong("signedTokenTtl")));
+    }
+
+    /**
+     * @param claims The claims of a signed token
+     * @return true if every revocation of the token would have been seen by this process
+     */
+    public boolean covers(TokenSigner.Claims claims) {
+        return claims.getIssued()>=since;
+    }
+
+    /**
+     * @param token The bearer token
+     * @param claims Its verified claims
+     * @return true if the token, or all tokens of its user, have been revoked
+     */
+    public boolean isRevoked(String token, TokenSigner.Claims claims) {
+        Long userRevoked = users.get(claims.getUsername());
+        if (userRevoked!=null && claims.getIssued()<=userRevoked) {
+            return true;
+        }
+        return mightContain(filter, token) && tokens.containsKey(token);
+    }
+
+    /**
+     * Revoke a single token
+     * @param token The bearer token
+     * @param expires When the token would have expired, after which it no longer needs to be remembered
+     */
+    public void revokeToken(String token, long expires) {
+        tokens.put(token, expires);
+        add(filter, token);
+    }
+
+    /**
+     * Revoke every token issued to a user until now
+     * @param username The user
+     */
+    public void revokeUser(String username) {
+        users.put(username, System.currentTimeMillis());
+    }
+
+    /**
+     * @return The number of individually revoked tokens remembered
+     */
+    public int size() {
+        return tokens.size();
+    }
+
+    /**
+     * Forget revocations of tokens which have expired anyway, rebuilding the bloom filter without them
+     */
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        users.forEach((username, revoked) -> {
+            if (revoked+ttl<now) {
+                users.remove(username, revoked);
+            }
+        });
+        if (!tokens.values().removeIf(expires -> expires<=now)) {
+            return;
+        }
+        AtomicLongArray rebuilt = new AtomicLongArray(FILTER_BITS/64);
+        tokens.keySet().forEach(token -> add(rebuilt, token));
+        filter = rebuilt;
+        // A token revoked while the filter was rebuilt may have missed it
+        tokens.keySet().forEach(token -> add(rebuilt, token));
+    }
+
+    private static void add(AtomicLongArray bits, String token) {
+        int h1 = token.hashCode();
+        int h2 = mix(h1);
+        for (int i=0; i<FILTER_HASHES; i++) {
+            int bit = (h1+i*h2) & (FILTER_BITS-1);
+            long mask = 1L<<(bit & 63);
+            int word = bit>>>6;
+            long current;
+            do {
+                current = bits.get(word);
+            } while ((current & mask)==0 && !bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    private static boolean mightContain(AtomicLongArray bits, String token) {
+        int h1 = token.hashCode();
+        int h2 = mix(h1);
+        for (int i=0; i<FILTER_HASHES; i++) {
+            int bit = (h1+i*h2) & (FILTER_BITS-1);
+            if ((bits.get(bit>>>6) & (1L<<(bit & 63)))==0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Derive a second, independent looking hash from the first (the finalizer of MurmurHash3), forced to be odd so
+     * that the probes never collapse onto one bit
+     */
+    private static int mix(int h) {
+        h ^= h>>>16;
+        h *= 0x85ebca6b;
+        h ^= h>>>13;
+        h *= 0xc2b2ae35;
+        h ^= h>>>16;
+        return h | 1;
+    }
+}
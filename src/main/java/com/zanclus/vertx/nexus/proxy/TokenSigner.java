@@ -0,0 +1,181 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.UUID;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Issues and verifies bearer tokens. When {@code signedTokens} is enabled, a token carries its username, issue time
+ * and expiry time, signed with HMAC-SHA256 using {@code tokenSigningKey}:
+ * <pre>base64url(username).issued.expires.nonce.base64url(signature)</pre>
+ * Such a token can be verified on the event loop without asking the token store. Otherwise tokens are random UUIDs.
+ * <p>
+ * A single instance is shared by all verticles; each thread gets its own {@link Mac}.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class TokenSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final boolean enabled;
+    private final long ttl;
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * @param enabled Whether new tokens are signed
+     * @param signingKey The secret shared by every node which issues or verifies tokens
+     * @param ttl The number of milliseconds a signed token stays valid
+     */
+    public TokenSigner(boolean enabled, String signingKey, long ttl) {
+        this.enabled = enabled;
+        this.ttl = ttl;
+        this.key = new SecretKeySpec(signingKey.isEmpty() ? new byte[1] : signingKey.getBytes(StandardCharsets.UTF_8),
+                                     ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException gse) {
+                throw new IllegalStateException("Unable to initialize "+ALGORITHM, gse);
+            }
+        });
+    }
+
+    /**
+     * @param vertx The {@link Vertx} instance
+     * @param config The application's JSON configuration object
+     * @return The {@link TokenSigner} shared by all verticles of the {@link Vertx} instance
+     */
+    public static TokenSigner get(Vertx vertx, JsonObject config) {
+        return SharedResources.getOrCreate(vertx, "tokenSigner", () -> new TokenSigner(
+                                                                        config.getBoolean("signedTokens"),
+                                                                        config.getString("tokenSigningKey"),
+                                                                        config.getLong("signedTokenTtl")));
+    }
+
+    /**
+     * @return true if new tokens are signed
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The number of milliseconds a signed token stays valid
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Create a new token for a user
+     * @param username The user which will own the token
+     * @return A signed token, or a random UUID if signing is disabled
+     */
+    public String issue(String username) {
+        return issue(username, 0L);
+    }
+
+    /**
+     * Create a new token for a user which expires earlier than usual
+     * @param username The user which will own the token
+     * @param lifetime The number of milliseconds the token stays valid, 0 for the usual {@code signedTokenTtl}
+     * @return A signed token, or a random UUID if signing is disabled
+     */
+    public String issue(String username, long lifetime) {
+        if (!enabled) {
+            return UUID.randomUUID().toString();
+        }
+        long issued = System.currentTimeMillis();
+        long ttl = lifetime>0 ? Math.min(lifetime, this.ttl) : this.ttl;
+        byte[] nonce = new byte[12];
+        random.nextBytes(nonce);
+        String payload = ENCODER.encodeToString(username.getBytes(StandardCharsets.UTF_8))
+                            +"."+Long.toString(issued, 36)
+                            +"."+Long.toString(issued+ttl, 36)
+                            +"."+ENCODER.encodeToString(nonce);
+        return payload+"."+ENCODER.encodeToString(sign(payload));
+    }
+
+    /**
+     * Check the signature of a token. Expiry and revocation are left to the caller.
+     * @param token The bearer token
+     * @return The claims of the token, or null if it is not a signed token at all (e.g. a UUID issued while signing
+     *         was disabled) and has to be looked up in the token store
+     * @throws SecurityException If the token looks like a signed token but its signature does not match
+     */
+    public Claims verify(String token) {
+        int end = token.lastIndexOf('.');
+        String[] parts = token.split("\\.", -1);
+        if (parts.length!=5) {
+            return null;
+        }
+        try {
+            // Compare the encoded form: the decoder ignores the unused bits of the last character, and a token which
+            // differs only in those would escape the revocation of the original token
+            byte[] expected = ENCODER.encodeToString(sign(token.substring(0, end))).getBytes(StandardCharsets.US_ASCII);
+            if (!MessageDigest.isEqual(expected, parts[4].getBytes(StandardCharsets.UTF_8))) {
+                throw new SecurityException("Invalid token signature");
+            }
+            return new Claims(
+                        new String(DECODER.decode(parts[0]), StandardCharsets.UTF_8),
+                        Long.parseLong(parts[1], 36),
+                        Long.parseLong(parts[2], 36));
+        } catch (IllegalArgumentException iae) {
+            // Also covers NumberFormatException
+            throw new SecurityException("Malformed token");
+        }
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The verified contents of a signed token
+     */
+    public static class Claims {
+        private final String username;
+        private final long issued;
+        private final long expires;
+
+        private Claims(String username, long issued, long expires) {
+            this.username = username;
+            this.issued = issued;
+            this.expires = expires;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public long getIssued() {
+            return issued;
+        }
+
+        public long getExpires() {
+            return expires;
+        }
+
+        /**
+         * @return true if the token has expired
+         */
+        public boolean isExpired() {
+            return expires<=System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how often, and when last, each bearer token was used since the counts were last written to the token store.
+ * Recording a use is a hash lookup, a {@link LongAdder} increment and a volatile write, so it is cheap enough for the
+ * proxy path; the counts are written to the token store in one batch every {@code usageFlushInterval} milliseconds.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class TokenUsage {
+
+    private final ConcurrentHashMap<String, Usage> pending = new ConcurrentHashMap<>();
+
+    /**
+     * @param vertx The {@link Vertx} instance
+     * @return The {@link TokenUsage} shared by all verticles of the {@link Vertx} instance
+     */
+    public static TokenUsage get(Vertx vertx) {
+        return SharedResources.getOrCreate(vertx, "tokenUsage", TokenUsage::new);
+    }
+
+    /**
+     * Record one use of a token
+     * @param token The bearer token
+     */
+    public void record(String token) {
+        record(token, 1L, System.currentTimeMillis());
+    }
+
+    private void record(String token, long count, long lastUsed) {
+        Usage usage = pending.get(token);
+        if (usage==null) {
+            usage = pending.computeIfAbsent(token, t -> new Usage());
+        }
+        usage.count.add(count);
+        if (usage.lastUsed<lastUsed) {
+            // Racing writers may leave a slightly older timestamp, which is good enough for spotting stale tokens
+            usage.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * Take the counts recorded since the last call, resetting them
+     * @return An array of {@code {"token":..., "count":..., "lastUsed":...}} objects, {@code lastUsed} being in
+     *         milliseconds since the epoch
+     */
+    public JsonArray drain() {
+        JsonArray batch = new JsonArray();
+        pending.forEach((token, usage) -> {
+            long count = usage.count.sumThenReset();
+            if (count==0) {
+                // Unused since the last flush. A use racing with the removal is lost, which only makes the count
+                // off by one.
+                pending.remove(token, usage);
+            } else {
+                batch.add(new JsonObject().put("token", token).put("count", count).put("lastUsed", usage.lastUsed));
+            }
+        });
+        return batch;
+    }
+
+    /**
+     * Put back counts returned by {@link #drain()} which could not be written, so the next flush retries them
+     * @param batch The drained counts
+     */
+    public void restore(JsonArray batch) {
+        for (Object item : batch) {
+            JsonObject usage = (JsonObject)item;
+            record(usage.getString("token"), usage.getLong("count"), usage.getLong("lastUsed"));
+        }
+    }
+
+    /**
+     * Add the counts not yet written to the token store to a token's stored usage
+     * @param stored A {@code {"token":..., "count":..., "lastUsed":...}} object read from the token store, updated in
+     *               place
+     * @return The updated object
+     */
+    public JsonObject merge(JsonObject stored) {
+        Usage usage = pending.get(stored.getString("token"));
+        if (usage!=null) {
+            stored.put("count", stored.getLong("count", 0L)+usage.count.sum());
+            Long lastUsed = stored.getLong("lastUsed");
+            if (lastUsed==null || lastUsed<usage.lastUsed) {
+                stored.put("lastUsed", usage.lastUsed);
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * The uses of a single token since the last flush
+     */
+    private static class Usage {
+        private final LongAdder count = new LongAdder();
+        private volatile long lastUsed = 0L;
+    }
+}
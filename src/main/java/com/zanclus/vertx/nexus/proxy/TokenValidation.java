@@ -0,0 +1,105 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * The token store's immutable reply to a {@code proxy.validate.token} request. Being immutable, it is handed from the
+ * token store to the {@link ProxyVerticle} by reference instead of being copied like a {@link JsonObject}.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public final class TokenValidation {
+
+    private final String username;
+    private final long expires;
+    private final String error;
+    private final boolean unknown;
+
+    private TokenValidation(String username, long expires, String error, boolean unknown) {
+        this.username = username;
+        this.expires = expires;
+        this.error = error;
+        this.unknown = unknown;
+    }
+
+    /**
+     * @param username The user the token belongs to
+     * @param expires When the token expires, in milliseconds since the epoch, 0 if it never does
+     * @return A reply for a valid token
+     */
+    public static TokenValidation valid(String username, long expires) {
+        return new TokenValidation(username, expires, null, false);
+    }
+
+    /**
+     * @param error Why the token is not valid
+     * @return A reply for a token which is unknown to the token store (or expired), so it may be cached as such
+     */
+    public static TokenValidation unknown(String error) {
+        return new TokenValidation(null, 0L, error, true);
+    }
+
+    /**
+     * @param error What went wrong
+     * @return A reply for a token which could not be looked up
+     */
+    public static TokenValidation failed(String error) {
+        return new TokenValidation(null, 0L, error, false);
+    }
+
+    /**
+     * @return The user the token belongs to, null if it is not valid
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return When the token expires, in milliseconds since the epoch, 0 if it never does
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+    /**
+     * @return Why the token is not valid, null if it is
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return true if the token is unknown to the token store
+     */
+    public boolean isUnknown() {
+        return unknown;
+    }
+
+    /**
+     * @return The reply in the JSON format the token stores used to send, for the wire
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        if (username!=null) {
+            json.put("username", username);
+        }
+        if (expires>0) {
+            json.put("expires", expires);
+        }
+        if (error!=null) {
+            json.put("error", error);
+        }
+        if (unknown) {
+            json.put("unknown", Boolean.TRUE);
+        }
+        return json;
+    }
+
+    /**
+     * @param json A reply as returned by {@link #toJson()}
+     * @return The reply
+     */
+    public static TokenValidation fromJson(JsonObject json) {
+        return new TokenValidation(json.getString("username"), json.getLong("expires", 0L), json.getString("error"),
+                                   json.getBoolean("unknown", Boolean.FALSE));
+    }
+}
@@ -0,0 +1,146 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpServerRequest;
+
+/**
+ * Streams the body of an upload from the client to the Nexus server. The client is paused whenever the upstream write
+ * queue is full, so only a few buffers of the upload are ever held in memory however large it is. The upload is
+ * aborted with a 413 once more than {@code maxBytes} have arrived, and with a 408 (client stopped sending) or a 504
+ * (Nexus stopped reading) if it makes no progress for {@code stallTimeout} milliseconds.
+ * <p>
+ * Instances are not thread-safe and are meant to be owned by a single event loop.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class UploadStream {
+
+    private final Vertx vertx;
+    private final HttpServerRequest request;
+    private final HttpClientRequest upstream;
+    private final long maxBytes;
+    private final long stallTimeout;
+    private final long responseTimeout;
+    private long received = 0L;
+    private long lastProgress;
+    private long timerId = -1L;
+    private boolean waitingForDrain = false;
+    private boolean done = false;
+    private Handler<Integer> abortHandler;
+
+    /**
+     * @param vertx The {@link Vertx} instance
+     * @param request The client's request
+     * @param upstream The request to the Nexus server
+     * @param maxBytes The largest upload allowed, 0 for no limit
+     * @param stallTimeout The number of milliseconds the upload may make no progress, 0 to wait forever
+     * @param responseTimeout The number of milliseconds to wait for the response once the upload is complete
+     */
+    public UploadStream(Vertx vertx, HttpServerRequest request, HttpClientRequest upstream, long maxBytes,
+                        long stallTimeout, long responseTimeout) {
+        this.vertx = vertx;
+        this.request = request;
+        this.upstream = upstream;
+        this.maxBytes = maxBytes;
+        this.stallTimeout = stallTimeout;
+        this.responseTimeout = responseTimeout;
+    }
+
+    /**
+     * @param handler Called at most once with the status code to answer the client with if the upload is aborted. The
+     *                upstream request is left unfinished, so the caller has to close its connection for Nexus to
+     *                discard the partial upload.
+     */
+    public void abortHandler(Handler<Integer> handler) {
+        this.abortHandler = handler;
+    }
+
+    /**
+     * Start streaming. The client's request may be paused and is resumed by the caller afterwards.
+     */
+    public void start() {
+        lastProgress = System.currentTimeMillis();
+        request.handler(this::write);
+        request.endHandler(v -> end());
+        upstream.drainHandler(v -> {
+            waitingForDrain = false;
+            lastProgress = System.currentTimeMillis();
+            request.resume();
+        });
+        if (stallTimeout>0) {
+            timerId = vertx.setPeriodic(Math.max(1L, stallTimeout/2), id -> {
+                if (System.currentTimeMillis()-lastProgress>=stallTimeout) {
+                    abort(waitingForDrain ? 504 : 408);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true once the whole upload has been sent, or it was aborted or cancelled
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return The number of bytes received from the client so far
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * Stop streaming without answering the client, e.g. because the upstream request failed or Nexus answered before
+     * the upload was complete
+     */
+    public void cancel() {
+        if (!done) {
+            done = true;
+            detach();
+        }
+    }
+
+    private void write(Buffer data) {
+        received += data.length();
+        if (maxBytes>0 && received>maxBytes) {
+            abort(413);
+            return;
+        }
+        lastProgress = System.currentTimeMillis();
+        upstream.write(data);
+        if (upstream.writeQueueFull()) {
+            waitingForDrain = true;
+            request.pause();
+        }
+    }
+
+    private void end() {
+        if (done) {
+            return;
+        }
+        done = true;
+        vertx.cancelTimer(timerId);
+        upstream.end();
+        // Only start waiting for the response now, however long the upload took
+        upstream.setTimeout(responseTimeout);
+    }
+
+    private void abort(int status) {
+        if (done) {
+            return;
+        }
+        done = true;
+        detach();
+        abortHandler.handle(status);
+    }
+
+    private void detach() {
+        vertx.cancelTimer(timerId);
+        request.handler(null);
+        request.endHandler(null);
+        upstream.drainHandler(null);
+    }
+}
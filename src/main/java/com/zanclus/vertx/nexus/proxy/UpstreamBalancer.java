@@ -0,0 +1,314 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.impl.LoggerFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads read requests across the configured Nexus backends. Each request goes to the less loaded of two randomly
+ * chosen backends (power of two choices), comparing the number of outstanding requests and then the average latency.
+ * Backends which fail their periodic health check, or whose average latency is an outlier compared to the others, are
+ * taken out of rotation for a while. If no backend is available, all of them are used again rather than failing every
+ * request. Each backend also has a {@link CircuitBreaker} which opens after repeated failed requests; backends with an
+ * open circuit are never used, and if every circuit is open requests fail fast.
+ * <p>
+ * A single instance is shared by all {@link ProxyVerticle} instances, so all of its state is safe for concurrent use.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class UpstreamBalancer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UpstreamBalancer.class);
+
+    /**
+     * Weight of the newest sample in the moving average of a backend's latency
+     */
+    private static final double EWMA_WEIGHT = 0.2;
+
+    /**
+     * Backends faster than this are never ejected as outliers, however much slower than the others they are
+     */
+    private static final long MIN_OUTLIER_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Backend[] backends;
+    private final Backend primary;
+    private final String healthCheckPath;
+    private final long healthCheckInterval;
+    private final double outlierLatencyFactor;
+    private final long outlierEjectionTime;
+
+    /**
+     * @param config The application's JSON configuration object
+     */
+    public UpstreamBalancer(JsonObject config) {
+        String primaryAddress = config.getString("targetHost")+":"+config.getInteger("targetPort");
+        List<Backend> list = new ArrayList<>();
+        for (String address : config.getString("targetBackends").split(",")) {
+            if (!address.trim().isEmpty()) {
+                list.add(new Backend(address.trim(), config));
+            }
+        }
+        if (list.isEmpty()) {
+            list.add(new Backend(primaryAddress, config));
+        }
+        this.backends = list.toArray(new Backend[list.size()]);
+        this.primary = list.stream()
+                            .filter(b -> b.getAddress().equals(primaryAddress))
+                            .findFirst()
+                            .orElseGet(() -> new Backend(primaryAddress, config));
+        this.healthCheckPath = config.getString("healthCheckPath");
+        this.healthCheckInterval = config.getLong("healthCheckInterval");
+        this.outlierLatencyFactor = config.getDouble("outlierLatencyFactor");
+        this.outlierEjectionTime = config.getLong("outlierEjectionTime");
+    }
+
+    /**
+     * Choose the backend for a request which may modify data: always the Nexus server at {@code targetHost} and
+     * {@code targetPort}.
+     * @return The primary backend, or null if its circuit is open
+     */
+    public Backend primary() {
+        return primary.circuit.tryAcquire() ? primary : null;
+    }
+
+    /**
+     * @return All backends which read requests are spread across
+     */
+    public List<Backend> getBackends() {
+        return Arrays.asList(backends);
+    }
+
+    /**
+     * Choose the backend for a read request
+     * @return The chosen backend, or null if the circuits of all backends are open
+     */
+    public Backend select() {
+        if (backends.length==1) {
+            return backends[0].circuit.tryAcquire() ? backends[0] : null;
+        }
+        // Backends change state concurrently, so both candidates are picked from one snapshot
+        long now = System.currentTimeMillis();
+        Backend[] eligible = new Backend[backends.length];
+        int available = 0;
+        for (Backend backend : backends) {
+            if (backend.isAvailable(now)) {
+                eligible[available++] = backend;
+            }
+        }
+        if (available==0) {
+            for (Backend backend : backends) {
+                if (backend.circuit.isAvailable()) {
+                    eligible[available++] = backend;
+                }
+            }
+        }
+        if (available==0) {
+            return null;
+        }
+        if (available==1) {
+            return acquire(eligible[0], null);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(available);
+        int j = random.nextInt(available-1);
+        if (j>=i) {
+            j++;
+        }
+        Backend a = eligible[i];
+        Backend b = eligible[j];
+        int outstandingA = a.outstanding.get();
+        int outstandingB = b.outstanding.get();
+        if (outstandingA!=outstandingB) {
+            return outstandingA<outstandingB ? acquire(a, b) : acquire(b, a);
+        }
+        return a.latencyNanos<=b.latencyNanos ? acquire(a, b) : acquire(b, a);
+    }
+
+    /**
+     * Pass the chosen backend through its circuit, falling back to the other candidate if another request is already
+     * probing it
+     */
+    private static Backend acquire(Backend chosen, Backend other) {
+        if (chosen.circuit.tryAcquire()) {
+            return chosen;
+        }
+        return other!=null && other.circuit.tryAcquire() ? other : null;
+    }
+
+    /**
+     * Record the end of a request started with {@link Backend#begin()}
+     * @param backend The backend the request was sent to
+     * @param succeeded Whether the whole response was received without a server error
+     */
+    public void end(Backend backend, boolean succeeded) {
+        backend.end(succeeded);
+    }
+
+    /**
+     * Start checking the health of every backend every {@code healthCheckInterval} milliseconds, and eject backends
+     * whose latency is an outlier after each round of checks. Should be called once per process.
+     * @param vertx The {@link Vertx} instance whose event loop runs the checks
+     */
+    public void startHealthChecks(Vertx vertx) {
+        ProxyMetrics metrics = ProxyMetrics.get(vertx);
+        for (Backend backend : backends) {
+            metrics.gauge("nexus_proxy_backend_outstanding_requests", "Requests in flight to each Nexus backend",
+                    backend.outstanding::get, "backend", backend.getAddress());
+            metrics.gauge("nexus_proxy_backend_available", "Whether each Nexus backend is in rotation",
+                    () -> backend.isAvailable(System.currentTimeMillis()) ? 1 : 0, "backend", backend.getAddress());
+            metrics.gauge("nexus_proxy_backend_circuit_state", "State of each Nexus backend's circuit breaker (0 closed, 1 open, 2 half open)",
+                    () -> backend.circuit.getState().ordinal(), "backend", backend.getAddress());
+        }
+        if (backends.length==1 || healthCheckInterval<=0) {
+            return;
+        }
+        HttpClient client = vertx.createHttpClient(new HttpClientOptions()
+                                                        .setKeepAlive(true)
+                                                        .setConnectTimeout((int)Math.min(healthCheckInterval, Integer.MAX_VALUE)));
+        vertx.setPeriodic(healthCheckInterval, id -> {
+            for (Backend backend : backends) {
+                checkHealth(client, backend);
+            }
+            ejectOutliers();
+        });
+    }
+
+    private void checkHealth(HttpClient client, Backend backend) {
+        final long start = System.nanoTime();
+        HttpClientRequest req = client.get(backend.port, backend.host, healthCheckPath, res -> {
+            res.bodyHandler(body -> {
+                boolean healthy = res.statusCode()>=200 && res.statusCode()<300;
+                if (healthy) {
+                    backend.recordLatency(System.nanoTime()-start);
+                }
+                backend.setHealthy(healthy);
+            });
+        });
+        req.exceptionHandler(t -> backend.setHealthy(false));
+        req.setTimeout(healthCheckInterval);
+        req.end();
+    }
+
+    /**
+     * Eject backends whose average latency is more than {@code outlierLatencyFactor} times the median of the
+     * available backends, as long as at least one backend stays in rotation.
+     */
+    private void ejectOutliers() {
+        long now = System.currentTimeMillis();
+        double[] latencies = Arrays.stream(backends)
+                                    .filter(b -> b.isAvailable(now))
+                                    .mapToDouble(b -> b.latencyNanos)
+                                    .sorted()
+                                    .toArray();
+        if (latencies.length<2) {
+            return;
+        }
+        double median = latencies[latencies.length/2];
+        int available = latencies.length;
+        for (Backend backend : backends) {
+            if (available>1 && backend.isAvailable(now)
+                    && backend.latencyNanos>MIN_OUTLIER_NANOS
+                    && backend.latencyNanos>median*outlierLatencyFactor) {
+                LOG.warn("Ejecting slow backend "+backend.getAddress()+" for "+outlierEjectionTime+"ms");
+                backend.ejectedUntil = now+outlierEjectionTime;
+                available--;
+            }
+        }
+    }
+
+    /**
+     * A single Nexus server
+     */
+    public static class Backend {
+        private final String host;
+        private final int port;
+        private final String address;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final CircuitBreaker circuit;
+        private volatile boolean healthy = true;
+        private volatile long ejectedUntil = 0L;
+        // Updated without synchronization; a lost sample only makes the average a little less precise
+        private volatile double latencyNanos = 0.0;
+
+        private Backend(String address, JsonObject config) {
+            int colon = address.lastIndexOf(':');
+            this.host = colon<0 ? address : address.substring(0, colon);
+            this.port = colon<0 ? 80 : Integer.parseInt(address.substring(colon+1));
+            this.address = host+":"+port;
+            this.circuit = CircuitBreaker.create("backend "+this.address, config);
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * @return The backend's {@code host:port}, also used as the Host header of proxied requests
+         */
+        public String getAddress() {
+            return address;
+        }
+
+        private boolean isAvailable(long now) {
+            return healthy && ejectedUntil<=now && circuit.isAvailable();
+        }
+
+        private void setHealthy(boolean healthy) {
+            if (this.healthy!=healthy) {
+                LOG.warn("Backend "+address+" is now "+(healthy ? "healthy" : "unhealthy"));
+            }
+            this.healthy = healthy;
+        }
+
+        private void recordLatency(long nanos) {
+            double current = latencyNanos;
+            latencyNanos = current==0.0 ? nanos : current+EWMA_WEIGHT*(nanos-current);
+        }
+
+        /**
+         * Record the start of a request to this backend. Every backend returned from {@link UpstreamBalancer#select()}
+         * or {@link UpstreamBalancer#primary()} MUST be passed to {@link #begin()} and then
+         * {@link UpstreamBalancer#end(Backend, boolean)}, so that its circuit learns the outcome.
+         * @return The start time, to be passed to {@link #responded(long)}
+         */
+        public long begin() {
+            outstanding.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        /**
+         * Record the arrival of the response headers. The time to the first byte, unlike the total time, does not
+         * depend on the size of the artifact, so only it is used to compare backends.
+         * @param start The value returned from {@link #begin()}
+         */
+        public void responded(long start) {
+            recordLatency(System.nanoTime()-start);
+        }
+
+        /**
+         * Record the end of a request to this backend in its circuit breaker
+         * @param succeeded Whether the whole response was received without a server error
+         */
+        private void end(boolean succeeded) {
+            outstanding.decrementAndGet();
+            if (succeeded) {
+                circuit.onSuccess();
+            } else {
+                circuit.onFailure();
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import io.vertx.core.MultiMap;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of the validators ({@code ETag} and {@code Last-Modified}) of recent upstream
+ * responses. Within the freshness window, a conditional GET whose validators match can be answered with a 304 without
+ * asking the Nexus server. Instances are not thread-safe and are meant to be owned by a single event loop.
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class ValidatorCache {
+
+    private final int maxSize;
+    private final long ttl;
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * @param maxSize The maximum number of responses to remember before the least recently used ones are evicted
+     * @param ttl The number of milliseconds the validators of a response are trusted without asking the Nexus server
+     */
+    public ValidatorCache(int maxSize, long ttl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size()>ValidatorCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return true if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return maxSize>0 && ttl>0;
+    }
+
+    /**
+     * Remember the validators of an upstream response to a GET request
+     * @param key Identifies the resource and the user it was served to
+     * @param status The status code of the response
+     * @param headers The headers of the response
+     */
+    public void put(String key, int status, MultiMap headers) {
+        if (!isEnabled() || (status!=200 && status!=304)) {
+            return;
+        }
+        String cacheControl = headers.get("Cache-Control");
+        if (cacheControl!=null && cacheControl.contains("no-store")) {
+            return;
+        }
+        String etag = headers.get("ETag");
+        String lastModified = headers.get("Last-Modified");
+        if (etag==null && lastModified==null) {
+            return;
+        }
+        entries.put(key, new Entry(etag, lastModified, System.currentTimeMillis()+ttl));
+    }
+
+    /**
+     * Find the validators matching a conditional request
+     * @param key Identifies the resource and the user it was served to
+     * @param headers The headers of the request
+     * @return The {@link Entry} if the request's validators match a fresh entry, so that a 304 may be sent; otherwise
+     *         null
+     */
+    public Entry match(String key, MultiMap headers) {
+        String ifNoneMatch = headers.get("If-None-Match");
+        String ifModifiedSince = headers.get("If-Modified-Since");
+        if (!isEnabled() || (ifNoneMatch==null && ifModifiedSince==null)) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry==null) {
+            return null;
+        }
+        if (entry.expires<System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        // If-None-Match takes precedence over If-Modified-Since (RFC 7232, section 6)
+        if (ifNoneMatch!=null) {
+            return entry.etag!=null && etagMatches(ifNoneMatch, entry.etag) ? entry : null;
+        }
+        return entry.lastModified!=null && notModifiedSince(ifModifiedSince, entry.lastModified) ? entry : null;
+    }
+
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        String opaque = weak(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || weak(trimmed).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * GET uses the weak comparison function, so the {@code W/} prefix is ignored
+     */
+    private static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static boolean notModifiedSince(String ifModifiedSince, String lastModified) {
+        if (ifModifiedSince.equals(lastModified)) {
+            return true;
+        }
+        try {
+            ZonedDateTime since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME);
+            ZonedDateTime modified = ZonedDateTime.parse(lastModified, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return !modified.isAfter(since);
+        } catch (DateTimeParseException dtpe) {
+            return false;
+        }
+    }
+
+    /**
+     * The validators of a single response
+     */
+    public static class Entry {
+        private final String etag;
+        private final String lastModified;
+        private final long expires;
+
+        private Entry(String etag, String lastModified, long expires) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -24,6 +24,7 @@ package com.zanclus.vertx.nexus.proxy.config;
 
 import com.beust.jcommander.DynamicParameter;
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
 import java.util.HashMap;
 import java.util.Map;
@@ -39,31 +40,143 @@ import lombok.NoArgsConstructor;
 @Parameters(separators = " =")
 public class Config {
 
+    /**
+     * Fill in the default of every option which was not given with {@code -C}. JCommander stores the given options as
+     * strings, so each given one is converted to the type of its default. Defaults which are derived from other
+     * options, like {@code dbUrl} from {@code dbPath}, use the given values of those.
+     * @throws ParameterException if a given option cannot be converted to the type of its default
+     */
     public void fillDefaults() {
-        if (params.get("proxyHost")==null) {
-            params.put("proxyHost", "127.0.0.1");
-        }
-        if (params.get("proxyPort")==null) {
-            params.put("proxyPort",8080);
-        }
-        if (params.get("targetHost")==null) {
-            params.put("targetHost","192.168.1.70");
-        }
-        if (params.get("targetPort")==null) {
-            params.put("targetPort",8081);
-        }
-        if (params.get("maxDbConnections")==null) {
-            params.put("maxDbConnections",10);
-        }
-        if (params.get("minDbConnections")==null) {
-            params.put("minDbConnections",2);
-        }
-        if (params.get("rutHeader")==null) {
-            params.put("rutHeader","REMOTE_USER");
+        fillDefault("proxyHost", "127.0.0.1");
+        fillDefault("proxyPort", 8080);
+        fillDefault("proxyTlsPort", 0);
+        fillDefault("proxyTlsKeyStore", "");
+        fillDefault("proxyTlsKeyStorePassword", "");
+        fillDefault("proxyTlsKeyPath", "");
+        fillDefault("proxyTlsCertPath", "");
+        fillDefault("proxyAcceptBacklog", 1024);
+        fillDefault("proxyIdleTimeout", 0);
+        fillDefault("targetHost", "192.168.1.70");
+        fillDefault("targetPort", 8081);
+        fillDefault("targetBackends", "");
+        fillDefault("healthCheckPath", "/nexus/service/local/status");
+        fillDefault("healthCheckInterval", 5000L);
+        fillDefault("outlierLatencyFactor", 3.0);
+        fillDefault("outlierEjectionTime", 30000L);
+        fillDefault("maxDbConnections", 10);
+        fillDefault("minDbConnections", 2);
+        fillDefault("rutHeader", "REMOTE_USER");
+        fillDefault("dbPath", "/tmp/nexus-tokens");
+        fillDefault("dbUrl", "jdbc:hsqldb:file:"+params.get("dbPath"));
+        fillDefault("dbDriver", "org.hsqldb.jdbc.JDBCDriver");
+        fillDefault("dbUser", "SA");
+        fillDefault("dbPassword", "");
+        fillDefault("clustered", Boolean.FALSE);
+        fillDefault("clusterHost", "localhost");
+        fillDefault("clusterPort", 0);
+        fillDefault("tokenStore", "jdbc");
+        fillDefault("tokenLogPath", "/tmp/nexus-tokens.log");
+        fillDefault("tokenLogSyncInterval", 1000L);
+        fillDefault("tokenLogCompactThreshold", 10000);
+        fillDefault("proxyInstances", 0);
+        fillDefault("upstreamMaxPoolSize", 50);
+        fillDefault("upstreamKeepAlive", Boolean.TRUE);
+        fillDefault("upstreamIdleTimeout", 60);
+        fillDefault("upstreamPipelining", Boolean.FALSE);
+        fillDefault("upstreamConnectTimeout", 5000);
+        fillDefault("upstreamResponseTimeout", 30000L);
+        fillDefault("eventBusTimeout", 5000L);
+        fillDefault("circuitFailureThreshold", 5);
+        fillDefault("circuitResetTimeout", 10000L);
+        fillDefault("artifactCacheEnabled", Boolean.FALSE);
+        fillDefault("artifactCachePath", "/tmp/nexus-artifact-cache");
+        fillDefault("artifactCacheMaxBytes", 10737418240L);
+        fillDefault("artifactCacheRepositories", "releases");
+        fillDefault("validatorCacheMaxSize", 10000);
+        fillDefault("validatorCacheTtl", 30000L);
+        fillDefault("checksumCacheMaxSize", 10000);
+        fillDefault("checksumCacheTtl", 300000L);
+        fillDefault("checksumVerify", Boolean.TRUE);
+        fillDefault("tokenRateLimit", 0.0);
+        fillDefault("tokenRateBurst", 100);
+        fillDefault("userRateLimit", 0.0);
+        fillDefault("userRateBurst", 200);
+        fillDefault("maxInflightUpstream", 0);
+        fillDefault("maxQueuedUpstream", 1000);
+        fillDefault("maxQueueWait", 5000L);
+        fillDefault("shedRetryAfter", 1L);
+        fillDefault("maxUploadBytes", 0L);
+        fillDefault("maxConcurrentUploads", 0);
+        fillDefault("handle100Continue", Boolean.TRUE);
+        fillDefault("coalesceEnabled", Boolean.TRUE);
+        fillDefault("coalesceReplayBytes", 1048576L);
+        fillDefault("coalesceMaxBacklogBytes", 16777216L);
+        fillDefault("signedTokens", Boolean.FALSE);
+        fillDefault("tokenSigningKey", "");
+        fillDefault("signedTokenTtl", 7776000000L);
+        fillDefault("tokenTtl", 0L);
+        fillDefault("tokenPurgeInterval", 60000L);
+        fillDefault("tokenPurgeBatchSize", 1000);
+        fillDefault("usageTrackingEnabled", Boolean.TRUE);
+        fillDefault("usageFlushInterval", 10000L);
+        fillDefault("tokenCacheMaxSize", 10000);
+        fillDefault("tokenCacheTtl", 300000L);
+        fillDefault("tokenCacheNegativeTtl", 10000L);
+        fillDefault("listPageSize", 100);
+        fillDefault("listMaxPageSize", 1000);
+        fillDefault("bulkMaxOperations", 5000);
+        fillDefault("bulkMaxBodyBytes", 1048576L);
+        fillDefault("loginCacheMaxSize", 1000);
+        fillDefault("loginCacheTtl", 60000L);
+        fillDefault("accessLogEnabled", Boolean.TRUE);
+        fillDefault("accessLogPath", "/tmp/nexus-proxy-access.log");
+        fillDefault("accessLogFormat", "common");
+        fillDefault("accessLogBufferSize", 16384);
+        fillDefault("accessLogFlushInterval", 1000L);
+        fillDefault("accessLogMaxBytes", 104857600L);
+        fillDefault("accessLogMaxFiles", 5);
+    }
+
+    /**
+     * Use the default of an option unless it was given, in which case the given value is converted to the type of
+     * the default
+     * @param key The name of the option
+     * @param defaultValue The default of the option
+     * @throws ParameterException if the given value cannot be converted to the type of the default
+     */
+    private void fillDefault(String key, Object defaultValue) {
+        Object given = params.get(key);
+        params.put(key, given==null ? defaultValue : convert(key, given, defaultValue));
+    }
+
+    /**
+     * @param key The name of the option
+     * @param value The value given with {@code -C}
+     * @param defaultValue The default of the option, or null if it has none
+     * @return The value, converted to the type of the default
+     */
+    private static Object convert(String key, Object value, Object defaultValue) {
+        if (!(value instanceof String) || defaultValue==null || defaultValue instanceof String) {
+            return value;
         }
-        if (params.get("dbPath")==null) {
-            params.put("dbPath","/tmp/nexus-tokens");
+        String text = ((String)value).trim();
+        try {
+            if (defaultValue instanceof Boolean) {
+                if (!"true".equalsIgnoreCase(text) && !"false".equalsIgnoreCase(text)) {
+                    throw new ParameterException("-C"+key+" must be true or false, not '"+value+"'");
+                }
+                return Boolean.valueOf(text);
+            } else if (defaultValue instanceof Integer) {
+                return Integer.valueOf(text);
+            } else if (defaultValue instanceof Long) {
+                return Long.valueOf(text);
+            } else if (defaultValue instanceof Double) {
+                return Double.valueOf(text);
+            }
+        } catch (NumberFormatException nfe) {
+            throw new ParameterException("-C"+key+" must be a number, not '"+value+"'");
         }
+        return value;
     }
 
     @Parameter(description = "This help message", names = {"-h", "--help"}, help = true)
@@ -0,0 +1,108 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the state transitions of {@link CircuitBreaker}
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class CircuitBreakerTest {
+
+    private static final long RESET_TIMEOUT = 50L;
+
+    @Test
+    public void staysClosedBelowTheThreshold() {
+        CircuitBreaker circuit = new CircuitBreaker("test", 3, RESET_TIMEOUT);
+        assertEquals(CircuitBreaker.State.CLOSED, circuit.getState());
+        fail(circuit, 2);
+        assertEquals(CircuitBreaker.State.CLOSED, circuit.getState());
+        assertTrue(circuit.isAvailable());
+    }
+
+    @Test
+    public void successResetsTheConsecutiveFailures() {
+        CircuitBreaker circuit = new CircuitBreaker("test", 3, RESET_TIMEOUT);
+        fail(circuit, 2);
+        assertTrue(circuit.tryAcquire());
+        circuit.onSuccess();
+        fail(circuit, 2);
+        assertEquals(CircuitBreaker.State.CLOSED, circuit.getState());
+    }
+
+    @Test
+    public void opensAtTheThresholdAndFailsFast() {
+        CircuitBreaker circuit = new CircuitBreaker("test", 3, 60000L);
+        fail(circuit, 3);
+        assertEquals(CircuitBreaker.State.OPEN, circuit.getState());
+        assertFalse(circuit.isAvailable());
+        assertFalse(circuit.tryAcquire());
+    }
+
+    @Test
+    public void letsASingleProbeThroughAfterTheResetTimeout() throws InterruptedException {
+        CircuitBreaker circuit = open();
+        Thread.sleep(RESET_TIMEOUT+10);
+        assertTrue(circuit.isAvailable());
+        assertTrue(circuit.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuit.getState());
+        assertFalse("Only one probe at a time", circuit.tryAcquire());
+    }
+
+    @Test
+    public void successfulProbeClosesTheCircuit() throws InterruptedException {
+        CircuitBreaker circuit = open();
+        Thread.sleep(RESET_TIMEOUT+10);
+        assertTrue(circuit.tryAcquire());
+        circuit.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuit.getState());
+        assertTrue(circuit.tryAcquire());
+    }
+
+    @Test
+    public void failedProbeOpensTheCircuitAgain() throws InterruptedException {
+        CircuitBreaker circuit = open();
+        Thread.sleep(RESET_TIMEOUT+10);
+        assertTrue(circuit.tryAcquire());
+        circuit.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuit.getState());
+        assertFalse(circuit.tryAcquire());
+        Thread.sleep(RESET_TIMEOUT+10);
+        assertTrue("Probes again after another reset timeout", circuit.tryAcquire());
+    }
+
+    @Test
+    public void lostProbeIsReplacedAfterTheResetTimeout() throws InterruptedException {
+        CircuitBreaker circuit = open();
+        Thread.sleep(RESET_TIMEOUT+10);
+        assertTrue(circuit.tryAcquire());
+        Thread.sleep(RESET_TIMEOUT+10);
+        assertTrue(circuit.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuit.getState());
+    }
+
+    @Test
+    public void zeroThresholdNeverOpens() {
+        CircuitBreaker circuit = new CircuitBreaker("test", 0, RESET_TIMEOUT);
+        fail(circuit, 100);
+        assertEquals(CircuitBreaker.State.CLOSED, circuit.getState());
+        assertTrue(circuit.tryAcquire());
+    }
+
+    private static CircuitBreaker open() {
+        CircuitBreaker circuit = new CircuitBreaker("test", 1, RESET_TIMEOUT);
+        fail(circuit, 1);
+        assertEquals(CircuitBreaker.State.OPEN, circuit.getState());
+        return circuit;
+    }
+
+    private static void fail(CircuitBreaker circuit, int times) {
+        for (int i=0; i<times; i++) {
+            assertTrue(circuit.tryAcquire());
+            circuit.onFailure();
+        }
+    }
+}
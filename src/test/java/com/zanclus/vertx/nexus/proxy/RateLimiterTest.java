@@ -0,0 +1,72 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Tests for {@link RateLimiter}
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void disabledLimitLetsEverythingThrough() {
+        RateLimiter limiter = new RateLimiter(0.0, 1);
+        assertFalse(limiter.isEnabled());
+        for (int i=0; i<1000; i++) {
+            assertEquals(0L, limiter.tryAcquire("token"));
+        }
+    }
+
+    @Test
+    public void allowsABurstThenAsksToWait() {
+        RateLimiter limiter = new RateLimiter(1.0, 5);
+        assertTrue(limiter.isEnabled());
+        for (int i=0; i<5; i++) {
+            assertEquals("Request "+i+" of the burst", 0L, limiter.tryAcquire("token"));
+        }
+        long wait = limiter.tryAcquire("token");
+        assertTrue("Waits for the next request, got "+wait, wait>0 && wait<=TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void keysHaveTheirOwnBuckets() {
+        RateLimiter limiter = new RateLimiter(1.0, 1);
+        assertEquals(0L, limiter.tryAcquire("alice"));
+        assertTrue(limiter.tryAcquire("alice")>0);
+        assertEquals(0L, limiter.tryAcquire("bob"));
+    }
+
+    @Test
+    public void refillsAtTheConfiguredRate() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(100.0, 1);
+        assertEquals(0L, limiter.tryAcquire("token"));
+        long wait = limiter.tryAcquire("token");
+        assertTrue(wait>0 && wait<=TimeUnit.MILLISECONDS.toNanos(10));
+        TimeUnit.NANOSECONDS.sleep(wait+TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(0L, limiter.tryAcquire("token"));
+    }
+
+    @Test
+    public void sweepKeepsBucketsWhichAreNotFull() {
+        RateLimiter limiter = new RateLimiter(1.0, 1);
+        assertEquals(0L, limiter.tryAcquire("token"));
+        limiter.sweep();
+        assertTrue("Still limited after a sweep", limiter.tryAcquire("token")>0);
+    }
+
+    @Test
+    public void sweptBucketsBehaveLikeNewOnes() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(1000.0, 2);
+        assertEquals(0L, limiter.tryAcquire("token"));
+        assertEquals(0L, limiter.tryAcquire("token"));
+        TimeUnit.MILLISECONDS.sleep(5);
+        limiter.sweep();
+        assertEquals(0L, limiter.tryAcquire("token"));
+        assertEquals(0L, limiter.tryAcquire("token"));
+    }
+}
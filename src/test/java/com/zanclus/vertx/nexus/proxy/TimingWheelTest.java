@@ -0,0 +1,100 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TimingWheel}
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class TimingWheelTest {
+
+    private static final long TICK = 1000L;
+
+    private final long now = System.currentTimeMillis();
+    private final TimingWheel<String> wheel = new TimingWheel<>(TICK, 8);
+    private final List<String> expired = new ArrayList<>();
+
+    @Test
+    public void expiresKeysOnceTheirDeadlinePasses() {
+        wheel.schedule("a", now+1500);
+        wheel.schedule("b", now+5000);
+        assertEquals(2, wheel.size());
+
+        wheel.advance(now+500, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(now+1500+TICK, expired::add);
+        assertEquals(Collections.singletonList("a"), expired);
+        wheel.advance(now+5000+TICK, expired::add);
+        assertEquals(Arrays.asList("a", "b"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void deadlineInThePastExpiresOnTheNextAdvance() {
+        wheel.schedule("a", now-10000);
+        wheel.advance(now, expired::add);
+        assertEquals(Collections.singletonList("a"), expired);
+    }
+
+    @Test
+    public void reschedulingReplacesTheDeadline() {
+        wheel.schedule("a", now+1000);
+        wheel.schedule("a", now+4000);
+        assertEquals(1, wheel.size());
+        wheel.advance(now+1000+TICK, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(now+4000+TICK, expired::add);
+        assertEquals(Collections.singletonList("a"), expired);
+    }
+
+    @Test
+    public void cancelledKeysNeverExpire() {
+        wheel.schedule("a", now+1000);
+        wheel.schedule("b", now+1000);
+        wheel.cancel("a");
+        assertEquals(1, wheel.size());
+        wheel.advance(now+1000+TICK, expired::add);
+        assertEquals(Collections.singletonList("b"), expired);
+    }
+
+    @Test
+    public void deadlinesBeyondOneRevolutionWaitForTheirTurn() {
+        wheel.schedule("far", now+20000);
+        for (long t=now; t<now+20000-TICK; t+=TICK) {
+            wheel.advance(t, expired::add);
+        }
+        assertTrue(expired.isEmpty());
+        wheel.advance(now+20000+TICK, expired::add);
+        assertEquals(Collections.singletonList("far"), expired);
+    }
+
+    @Test
+    public void longPauseExpiresEverythingDue() {
+        for (int i=0; i<100; i++) {
+            wheel.schedule("k"+i, now+i*TICK);
+        }
+        wheel.schedule("later", now+1000000);
+        wheel.advance(now+100*TICK, expired::add);
+        assertEquals(100, expired.size());
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void expiredKeysMayBeScheduledAgain() {
+        wheel.schedule("a", now+1000);
+        wheel.advance(now+1000+TICK, key -> {
+            expired.add(key);
+            wheel.schedule(key, now+5000);
+        });
+        assertEquals(1, wheel.size());
+        wheel.advance(now+5000+TICK, expired::add);
+        assertEquals(Arrays.asList("a", "a"), expired);
+    }
+}
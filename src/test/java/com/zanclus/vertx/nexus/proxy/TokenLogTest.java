@@ -0,0 +1,260 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link TokenLog}
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class TokenLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String path;
+
+    @Before
+    public void setUp() {
+        path = new File(folder.getRoot(), "tokens.log").getPath();
+    }
+
+    @Test
+    public void replaysAppendedRecordsInOrder() throws IOException {
+        try (TokenLog log = new TokenLog(path)) {
+            log.open(this::fail);
+            log.append(TokenLog.ADD_TOKEN, "alice", "t1");
+            log.append(TokenLog.ADD_EXPIRING_TOKEN, "bob", "t2", 1234567890123L);
+            log.append(TokenLog.DELETE_TOKEN, "alice", "t1");
+            log.append(TokenLog.DELETE_USER, "bob", null);
+            assertEquals(4, log.getRecords());
+        }
+
+        List<String> records = new ArrayList<>();
+        try (TokenLog log = new TokenLog(path)) {
+            log.open((type, username, token, expires) -> records.add(type+" "+username+" "+token+" "+expires));
+            assertEquals(4, log.getRecords());
+        }
+        assertEquals(Arrays.asList("1 alice t1 0", "4 bob t2 1234567890123", "2 alice t1 0", "3 bob null 0"), records);
+    }
+
+    @Test
+    public void continuesAfterTheLastRecordWhenReopened() throws IOException {
+        try (TokenLog log = new TokenLog(path)) {
+            log.open(this::fail);
+            log.append(TokenLog.ADD_TOKEN, "alice", "t1");
+        }
+        try (TokenLog log = new TokenLog(path)) {
+            log.open((type, username, token, expires) -> {});
+            log.append(TokenLog.ADD_TOKEN, "alice", "t2");
+        }
+        assertEquals(tokens("t1", "alice", "t2", "alice"), live());
+    }
+
+    @Test
+    public void compactionKeepsOnlyTheLiveTokens() throws IOException {
+        try (TokenLog log = new TokenLog(path)) {
+            log.open(this::fail);
+            for (int i=0; i<100; i++) {
+                log.append(TokenLog.ADD_TOKEN, "alice", "t"+i);
+                log.append(TokenLog.DELETE_TOKEN, "alice", "t"+i);
+            }
+            Map<String, Long> expiries = new HashMap<>();
+            expiries.put("t2", 42L);
+            log.compact(tokens("t1", "alice", "t2", "bob"), expiries);
+            assertEquals(2, log.getRecords());
+            log.append(TokenLog.ADD_TOKEN, "carol", "t3");
+        }
+
+        List<String> records = new ArrayList<>();
+        try (TokenLog log = new TokenLog(path)) {
+            log.open((type, username, token, expires) -> records.add(type+" "+username+" "+token+" "+expires));
+            assertEquals(3, log.getRecords());
+        }
+        assertEquals(3, records.size());
+        assertTrue(records.contains("1 alice t1 0"));
+        assertTrue(records.contains("4 bob t2 42"));
+        assertEquals("1 carol t3 0", records.get(2));
+        assertFalse(new File(path+".compact").exists());
+    }
+
+    @Test
+    public void recordsAppendedWhileCompactingAreKept() throws IOException {
+        try (TokenLog log = new TokenLog(path)) {
+            log.open(this::fail);
+            log.append(TokenLog.ADD_TOKEN, "alice", "t1");
+            log.append(TokenLog.ADD_TOKEN, "alice", "t2");
+            log.append(TokenLog.DELETE_TOKEN, "alice", "t2");
+
+            TokenLog.Compaction compaction = log.startCompaction(tokens("t1", "alice"), new HashMap<>());
+            assertNotNull(compaction);
+            assertNull("Only one compaction at a time", log.startCompaction(tokens(), new HashMap<>()));
+            log.append(TokenLog.ADD_TOKEN, "bob", "t3");
+            compaction.write();
+            log.append(TokenLog.DELETE_TOKEN, "alice", "t1");
+            log.finishCompaction(compaction);
+            log.append(TokenLog.ADD_TOKEN, "carol", "t4");
+            assertEquals(4, log.getRecords());
+        }
+        assertEquals(tokens("t3", "bob", "t4", "carol"), live());
+    }
+
+    @Test
+    public void abortedCompactionLeavesTheLogAlone() throws IOException {
+        try (TokenLog log = new TokenLog(path)) {
+            log.open(this::fail);
+            log.append(TokenLog.ADD_TOKEN, "alice", "t1");
+            log.append(TokenLog.ADD_TOKEN, "alice", "t2");
+
+            TokenLog.Compaction compaction = log.startCompaction(tokens(), new HashMap<>());
+            compaction.write();
+            log.abortCompaction(compaction);
+            log.append(TokenLog.ADD_TOKEN, "bob", "t3");
+            assertNotNull("A new compaction may start", log.startCompaction(tokens(), new HashMap<>()));
+        }
+        assertEquals(tokens("t1", "alice", "t2", "alice", "t3", "bob"), live());
+        assertFalse(new File(path+".compact").exists());
+    }
+
+    @Test
+    public void growsBeyondItsInitialMapping() throws IOException {
+        int grown = 0;
+        try (TokenLog log = new TokenLog(path)) {
+            log.open(this::fail);
+            for (int i=0; i<100000; i++) {
+                log.append(TokenLog.ADD_TOKEN, "user"+(i%10), "token-"+i);
+                TokenLog.Growth growth = log.startGrowth();
+                if (growth!=null) {
+                    assertNull("Only one growth at a time", log.startGrowth());
+                    growth.map();
+                    log.finishGrowth(growth);
+                    grown++;
+                }
+            }
+        }
+        assertTrue(grown>0);
+        assertTrue(new File(path).length()>1024*1024);
+        assertEquals(100000, live().size());
+    }
+
+    @Test
+    public void growsOnTheSpotWhenFull() throws IOException {
+        try (TokenLog log = new TokenLog(path)) {
+            log.open(this::fail);
+            for (int i=0; i<100000; i++) {
+                log.append(TokenLog.ADD_TOKEN, "user"+(i%10), "token-"+i);
+            }
+        }
+        assertEquals(100000, live().size());
+    }
+
+    @Test
+    public void rejectsEmptyStringsWithoutWritingAnything() throws IOException {
+        try (TokenLog log = new TokenLog(path)) {
+            log.open(this::fail);
+            rejects(log, TokenLog.ADD_TOKEN, "", "t1");
+            rejects(log, TokenLog.ADD_TOKEN, "alice", "");
+            rejects(log, TokenLog.ADD_TOKEN, "alice", null);
+            rejects(log, TokenLog.DELETE_USER, "", null);
+            log.append(TokenLog.ADD_TOKEN, "alice", "t1");
+            log.append(TokenLog.DELETE_USER, "alice", null);
+            assertEquals(2, log.getRecords());
+        }
+
+        List<String> records = new ArrayList<>();
+        try (TokenLog log = new TokenLog(path)) {
+            log.open((type, username, token, expires) -> records.add(type+" "+username+" "+token));
+        }
+        assertEquals(Arrays.asList("1 alice t1", "3 alice null"), records);
+    }
+
+    @Test
+    public void rejectsStringsTooLongForTheLogWithoutCorruptingIt() throws IOException {
+        char[] longest = new char[TokenLog.MAX_STRING_BYTES];
+        Arrays.fill(longest, 'x');
+        String token = new String(longest);
+        try (TokenLog log = new TokenLog(path)) {
+            log.open(this::fail);
+            rejects(log, TokenLog.ADD_TOKEN, "alice", token+"x");
+            rejects(log, TokenLog.ADD_TOKEN, token+"x", "t1");
+            rejects(log, TokenLog.ADD_TOKEN, "alice", token.substring(1)+"\u00e9");
+            log.append(TokenLog.ADD_TOKEN, "alice", token);
+            log.append(TokenLog.ADD_TOKEN, "bob", "t2");
+        }
+        assertEquals(tokens(token, "alice", "t2", "bob"), live());
+    }
+
+    @Test
+    public void replaysTheEmptyTokenOfOlderDeleteUserRecords() throws IOException {
+        Files.write(Paths.get(path), new byte[] {TokenLog.DELETE_USER, 0, 5, 'a', 'l', 'i', 'c', 'e', 0, 0});
+        List<String> records = new ArrayList<>();
+        try (TokenLog log = new TokenLog(path)) {
+            log.open((type, username, token, expires) -> records.add(type+" "+username+" '"+token+"'"));
+        }
+        assertEquals(Collections.singletonList("3 alice ''"), records);
+    }
+
+    private static void rejects(TokenLog log, byte type, String username, String token) throws IOException {
+        int records = log.getRecords();
+        try {
+            log.append(type, username, token);
+            throw new AssertionError("Appended "+type+" for '"+username+"'");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(records, log.getRecords());
+        }
+    }
+
+    /**
+     * Replay the log into the token to username mappings it describes
+     */
+    private Map<String, String> live() throws IOException {
+        Map<String, String> tokens = new HashMap<>();
+        try (TokenLog log = new TokenLog(path)) {
+            log.open((type, username, token, expires) -> {
+                switch (type) {
+                    case TokenLog.ADD_TOKEN:
+                    case TokenLog.ADD_EXPIRING_TOKEN:
+                        tokens.put(token, username);
+                        break;
+                    case TokenLog.DELETE_TOKEN:
+                        tokens.remove(token);
+                        break;
+                    case TokenLog.DELETE_USER:
+                        tokens.values().removeIf(username::equals);
+                        break;
+                }
+            });
+        }
+        return tokens;
+    }
+
+    private static Map<String, String> tokens(String... tokenAndUsername) {
+        Map<String, String> tokens = new HashMap<>();
+        for (int i=0; i<tokenAndUsername.length; i+=2) {
+            tokens.put(tokenAndUsername[i], tokenAndUsername[i+1]);
+        }
+        return tokens;
+    }
+
+    private void fail(byte type, String username, String token, long expires) {
+        throw new AssertionError("A new log should be empty");
+    }
+}
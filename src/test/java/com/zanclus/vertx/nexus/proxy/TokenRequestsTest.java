@@ -0,0 +1,66 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TokenRequests}
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class TokenRequestsTest {
+
+    @Test
+    public void usernamesMustBeNonEmptyStringsTheLogCanKeep() {
+        char[] longest = new char[TokenLog.MAX_STRING_BYTES];
+        Arrays.fill(longest, 'x');
+        assertTrue(TokenRequests.isValidUsername("alice"));
+        assertTrue(TokenRequests.isValidUsername(new String(longest)));
+        assertFalse(TokenRequests.isValidUsername(new String(longest)+"x"));
+        assertFalse(TokenRequests.isValidUsername(""));
+        assertFalse(TokenRequests.isValidUsername(null));
+        assertFalse(TokenRequests.isValidUsername(42));
+    }
+
+    @Test
+    public void acceptsWellFormedOperations() {
+        assertNull(TokenRequests.checkBulk(new JsonArray()
+                .add(new JsonObject().put("op", "create").put("username", "alice"))
+                .add(new JsonObject().put("op", "create").put("username", "alice").put("ttl", 1000))
+                .add(new JsonObject().put("op", "delete").put("username", "alice").put("token", "t1"))
+                .add(new JsonObject().put("op", "delete").put("username", "alice"))));
+    }
+
+    @Test
+    public void rejectsMalformedOperations() {
+        assertEquals("Expected an operations array.", TokenRequests.checkBulk(null));
+        assertEquals("Expected an operations array.", TokenRequests.checkBulk("create"));
+        assertEquals("Each operation must be an object.", TokenRequests.checkBulk(new JsonArray().add("create")));
+        assertEquals("Each operation must have an op of \"create\" or \"delete\".",
+                TokenRequests.checkBulk(operation("rename", "alice")));
+        assertEquals("Each operation must have an op of \"create\" or \"delete\".",
+                TokenRequests.checkBulk(new JsonArray().add(new JsonObject().put("username", "alice"))));
+        assertEquals("Each operation must have a non-empty string username.",
+                TokenRequests.checkBulk(operation("create", "")));
+        assertEquals("The token must be a string.",
+                TokenRequests.checkBulk(new JsonArray().add(operation("delete", "alice").getJsonObject(0).put("token", 5))));
+        assertEquals("The ttl must be a positive number of milliseconds.",
+                TokenRequests.checkBulk(new JsonArray().add(operation("create", "alice").getJsonObject(0).put("ttl", "1s"))));
+    }
+
+    @Test
+    public void oneMalformedOperationRejectsTheWholeRequest() {
+        JsonArray operations = operation("create", "alice").add(new JsonObject().put("op", "create").put("username", 7));
+        assertEquals("Each operation must have a non-empty string username.", TokenRequests.checkBulk(operations));
+    }
+
+    private static JsonArray operation(String op, String username) {
+        return new JsonArray().add(new JsonObject().put("op", op).put("username", username));
+    }
+}
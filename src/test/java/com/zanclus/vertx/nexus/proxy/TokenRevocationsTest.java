@@ -0,0 +1,94 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TokenRevocations}
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class TokenRevocationsTest {
+
+    private static final long TTL = 60000L;
+
+    private final TokenSigner signer = new TokenSigner(true, "secret", TTL);
+
+    @Test
+    public void tokensIssuedBeforeStartupAreNotCovered() {
+        TokenRevocations revocations = new TokenRevocations(TTL);
+        assertFalse("Within the clock skew margin", revocations.covers(signer.verify(signer.issue("alice"))));
+    }
+
+    @Test
+    public void revokesSingleTokens() {
+        TokenRevocations revocations = new TokenRevocations(TTL);
+        String revoked = signer.issue("alice");
+        String other = signer.issue("alice");
+        revocations.revokeToken(revoked, System.currentTimeMillis()+TTL);
+
+        assertTrue(revocations.isRevoked(revoked, signer.verify(revoked)));
+        assertFalse(revocations.isRevoked(other, signer.verify(other)));
+        assertEquals(1, revocations.size());
+    }
+
+    @Test
+    public void revokesEveryTokenOfAUserIssuedSoFar() throws InterruptedException {
+        TokenRevocations revocations = new TokenRevocations(TTL);
+        String alice = signer.issue("alice");
+        String bob = signer.issue("bob");
+        revocations.revokeUser("alice");
+        Thread.sleep(5);
+        String later = signer.issue("alice");
+
+        assertTrue(revocations.isRevoked(alice, signer.verify(alice)));
+        assertFalse(revocations.isRevoked(bob, signer.verify(bob)));
+        assertFalse("Issued after the revocation", revocations.isRevoked(later, signer.verify(later)));
+    }
+
+    @Test
+    public void sweepForgetsExpiredTokensOnly() {
+        TokenRevocations revocations = new TokenRevocations(TTL);
+        String expired = signer.issue("alice");
+        String live = signer.issue("alice");
+        revocations.revokeToken(expired, System.currentTimeMillis()-1);
+        revocations.revokeToken(live, System.currentTimeMillis()+TTL);
+
+        revocations.sweep();
+        assertEquals(1, revocations.size());
+        assertFalse(revocations.isRevoked(expired, signer.verify(expired)));
+        assertTrue("Still in the rebuilt filter", revocations.isRevoked(live, signer.verify(live)));
+    }
+
+    @Test
+    public void sweepKeepsManyLiveTokensInTheFilter() {
+        TokenRevocations revocations = new TokenRevocations(TTL);
+        String[] tokens = new String[1000];
+        for (int i=0; i<tokens.length; i++) {
+            tokens[i] = signer.issue("user"+i);
+            revocations.revokeToken(tokens[i], System.currentTimeMillis()+(i%2==0 ? -1 : TTL));
+        }
+
+        revocations.sweep();
+        assertEquals(500, revocations.size());
+        for (int i=0; i<tokens.length; i++) {
+            assertEquals(tokens[i], i%2==1, revocations.isRevoked(tokens[i], signer.verify(tokens[i])));
+        }
+    }
+
+    @Test
+    public void sweepForgetsUserRevocationsOnceTheirTokensHaveExpired() throws InterruptedException {
+        TokenRevocations revocations = new TokenRevocations(1L);
+        String token = signer.issue("alice");
+        revocations.revokeUser("alice");
+        revocations.sweep();
+        assertTrue(revocations.isRevoked(token, signer.verify(token)));
+
+        TimeUnit.MILLISECONDS.sleep(5);
+        revocations.sweep();
+        assertFalse(revocations.isRevoked(token, signer.verify(token)));
+    }
+}
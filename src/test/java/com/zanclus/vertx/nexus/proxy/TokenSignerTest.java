@@ -0,0 +1,117 @@
+package com.zanclus.vertx.nexus.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TokenSigner}
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class TokenSignerTest {
+
+    private static final long TTL = 60000L;
+
+    private final TokenSigner signer = new TokenSigner(true, "secret", TTL);
+
+    @Test
+    public void verifiesTheClaimsOfAnIssuedToken() {
+        long before = System.currentTimeMillis();
+        String token = signer.issue("j\u00fcrgen.o'brien");
+        long after = System.currentTimeMillis();
+
+        TokenSigner.Claims claims = signer.verify(token);
+        assertNotNull(claims);
+        assertEquals("j\u00fcrgen.o'brien", claims.getUsername());
+        assertTrue(claims.getIssued()>=before && claims.getIssued()<=after);
+        assertEquals(claims.getIssued()+TTL, claims.getExpires());
+        assertFalse(claims.isExpired());
+    }
+
+    @Test
+    public void tokensAreUnique() {
+        assertNotEquals(signer.issue("alice"), signer.issue("alice"));
+    }
+
+    @Test
+    public void shorterLifetimeIsHonouredButNotALongerOne() {
+        TokenSigner.Claims shorter = signer.verify(signer.issue("alice", 1000L));
+        assertEquals(1000L, shorter.getExpires()-shorter.getIssued());
+        TokenSigner.Claims longer = signer.verify(signer.issue("alice", TTL*10));
+        assertEquals(TTL, longer.getExpires()-longer.getIssued());
+    }
+
+    @Test
+    public void expiredTokenStillVerifiesButReportsIt() throws InterruptedException {
+        TokenSigner shortLived = new TokenSigner(true, "secret", 1L);
+        String token = shortLived.issue("alice");
+        Thread.sleep(5);
+        TokenSigner.Claims claims = shortLived.verify(token);
+        assertNotNull(claims);
+        assertTrue(claims.isExpired());
+    }
+
+    @Test(expected = SecurityException.class)
+    public void rejectsAnotherUsername() {
+        String token = signer.issue("alice");
+        String mallory = Base64.getUrlEncoder().withoutPadding().encodeToString("mallory".getBytes(StandardCharsets.UTF_8));
+        signer.verify(mallory+token.substring(token.indexOf('.')));
+    }
+
+    @Test(expected = SecurityException.class)
+    public void rejectsAnExtendedExpiry() {
+        String[] parts = signer.issue("alice").split("\\.");
+        parts[2] = Long.toString(Long.parseLong(parts[2], 36)+TTL, 36);
+        signer.verify(String.join(".", parts));
+    }
+
+    @Test(expected = SecurityException.class)
+    public void rejectsATamperedSignature() {
+        String token = signer.issue("alice");
+        int start = token.lastIndexOf('.')+1;
+        char first = token.charAt(start);
+        signer.verify(token.substring(0, start)+(first=='A' ? 'B' : 'A')+token.substring(start+1));
+    }
+
+    @Test(expected = SecurityException.class)
+    public void rejectsASignatureWhichOnlyDiffersInUnusedBits() {
+        // The last character of the 32 byte signature carries 2 bits of it and 4 unused bits
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        String token = signer.issue("alice");
+        int last = alphabet.indexOf(token.charAt(token.length()-1));
+        signer.verify(token.substring(0, token.length()-1)+alphabet.charAt(last^1));
+    }
+
+    @Test(expected = SecurityException.class)
+    public void rejectsATokenSignedWithAnotherKey() {
+        signer.verify(new TokenSigner(true, "other secret", TTL).issue("alice"));
+    }
+
+    @Test(expected = SecurityException.class)
+    public void rejectsAMalformedToken() {
+        signer.verify("not base64!.x.y.z.w");
+    }
+
+    @Test
+    public void leavesUnsignedTokensToTheTokenStore() {
+        assertNull(signer.verify(UUID.randomUUID().toString()));
+        assertNull(signer.verify("a.b"));
+    }
+
+    @Test
+    public void issuesUuidsWhenDisabled() {
+        TokenSigner disabled = new TokenSigner(false, "", TTL);
+        assertFalse(disabled.isEnabled());
+        String token = disabled.issue("alice");
+        assertEquals(token, UUID.fromString(token).toString());
+        assertNull(disabled.verify(token));
+    }
+}
@@ -0,0 +1,65 @@
+package com.zanclus.vertx.nexus.proxy.config;
+
+import static org.junit.Assert.assertEquals;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Tests for {@link Config}
+ * @author <a href="https://github.com/InfoSec812">Deven Phillips</a>
+ */
+public class ConfigTest {
+
+    @Test
+    public void defaultsApplyWhenNothingIsGiven() {
+        Map<String, Object> params = parse();
+        assertEquals("/tmp/nexus-tokens", params.get("dbPath"));
+        assertEquals("jdbc:hsqldb:file:/tmp/nexus-tokens", params.get("dbUrl"));
+        assertEquals(8080, params.get("proxyPort"));
+        assertEquals(Boolean.FALSE, params.get("clustered"));
+    }
+
+    @Test
+    public void dbUrlFollowsAGivenDbPath() {
+        Map<String, Object> params = parse("-CdbPath=/var/lib/nexus-proxy/tokens");
+        assertEquals("/var/lib/nexus-proxy/tokens", params.get("dbPath"));
+        assertEquals("jdbc:hsqldb:file:/var/lib/nexus-proxy/tokens", params.get("dbUrl"));
+    }
+
+    @Test
+    public void givenDbUrlWins() {
+        Map<String, Object> params = parse("-CdbPath=/var/lib/tokens", "-CdbUrl=jdbc:hsqldb:hsql://db/tokens");
+        assertEquals("jdbc:hsqldb:hsql://db/tokens", params.get("dbUrl"));
+    }
+
+    @Test
+    public void givenValuesTakeTheTypeOfTheirDefault() {
+        Map<String, Object> params = parse("-Cclustered=TRUE", "-CproxyTlsPort=8443", "-CaccessLogMaxBytes=5",
+                                           "-CtokenRateLimit=2.5", "-Cunknown=value");
+        assertEquals(Boolean.TRUE, params.get("clustered"));
+        assertEquals(8443, params.get("proxyTlsPort"));
+        assertEquals(5L, params.get("accessLogMaxBytes"));
+        assertEquals(2.5, params.get("tokenRateLimit"));
+        assertEquals("value", params.get("unknown"));
+    }
+
+    @Test(expected = ParameterException.class)
+    public void rejectsANumberWhichIsNot() {
+        parse("-CproxyPort=abc");
+    }
+
+    @Test(expected = ParameterException.class)
+    public void rejectsABooleanWhichIsNot() {
+        parse("-Cclustered=yes");
+    }
+
+    private static Map<String, Object> parse(String... args) {
+        Config cfg = new Config();
+        new JCommander(cfg, args);
+        cfg.fillDefaults();
+        return cfg.getParams();
+    }
+}